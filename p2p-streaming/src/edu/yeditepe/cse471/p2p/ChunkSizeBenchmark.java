@@ -0,0 +1,116 @@
+package edu.yeditepe.cse471.p2p;
+
+import edu.yeditepe.cse471.p2p.net.PeerInfo;
+import edu.yeditepe.cse471.p2p.net.catalog.LocalVideoCatalog;
+import edu.yeditepe.cse471.p2p.net.catalog.TcpControlServer;
+import edu.yeditepe.cse471.p2p.net.transfer.ChunkClient;
+import edu.yeditepe.cse471.p2p.net.transfer.ChunkConnectionPool;
+import edu.yeditepe.cse471.p2p.net.transfer.ChunkProtocol;
+import edu.yeditepe.cse471.p2p.net.transfer.ChunkScheduler;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Loopback benchmark of the chunk size: serves one generated file once per chunk size and
+ * reports startup latency (META plus the first chunk, what a player waits for) and the
+ * throughput of fetching every chunk with the normal scheduler. Chunks are dropped, not
+ * written, so the numbers are protocol and server cost only.
+ *
+ * System properties:
+ *  -DbenchFileMB=256
+ *  -DbenchSizes=65536,262144,1048576,4194304,adaptive
+ *  -DbenchRounds=3   (best of n per size)
+ *  -DtcpPort=51000   (first port; one per size)
+ *  -DhashIndex=      (empty by default here: the temp file is not persisted)
+ *  plus the usual transfer properties (maxInFlight, perSourceInFlight, rangeWindow, protocolVersion, ...)
+ */
+public class ChunkSizeBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int fileMb = Integer.getInteger("benchFileMB", 256);
+        String[] sizes = System.getProperty("benchSizes", "65536,262144,1048576,4194304,adaptive").split(",");
+        int rounds = Math.max(1, Integer.getInteger("benchRounds", 3));
+        int port = Integer.getInteger("tcpPort", 51000);
+        if (System.getProperty("hashIndex") == null) System.setProperty("hashIndex", "");   // keep temp files out of the user's index
+
+        File root = Files.createTempDirectory("chunkbench").toFile();
+        File video = new File(root, "bench.mp4");
+        writeRandom(video, (long) fileMb * 1024 * 1024);
+
+        System.out.println("file=" + fileMb + " MB rounds=" + rounds);
+        System.out.println(String.format("%-10s %8s %12s %12s", "chunk", "chunks", "startup ms", "MB/s"));
+
+        try {
+            for (String size : sizes) {
+                String s = size.trim();
+                if ("adaptive".equalsIgnoreCase(s)) System.clearProperty("chunkSize");
+                else System.setProperty("chunkSize", s);
+                run(s, root, port++, rounds);
+            }
+        } finally {
+            video.delete();
+            root.delete();
+        }
+    }
+
+    private static void run(String label, File root, int port, int rounds) throws Exception {
+        LocalVideoCatalog catalog = new LocalVideoCatalog();
+        catalog.setRootFolder(root);
+        catalog.awaitIndexed(Long.MAX_VALUE / 2);   // hashes once, outside the measurement
+        String hash = catalog.listVideos().get(0).hash;
+
+        TcpControlServer server = new TcpControlServer(port, catalog);
+        server.start();
+        InetAddress lo = InetAddress.getLoopbackAddress();
+        PeerInfo peer = new PeerInfo("bench", lo, 0, port, System.currentTimeMillis(), "");
+
+        long bestStartupNs = Long.MAX_VALUE;
+        long bestFetchNs = Long.MAX_VALUE;
+        ChunkClient.Meta meta = null;
+        try {
+            for (int r = 0; r < rounds; r++) {
+                try (ChunkConnectionPool pool = new ChunkConnectionPool()) {
+                    long t0 = System.nanoTime();
+                    meta = ChunkClient.fetchMeta(lo, port, hash);
+                    pool.getBufferPool().release(ChunkClient.fetchChunk(pool, peer, hash, 0));
+                    bestStartupNs = Math.min(bestStartupNs, System.nanoTime() - t0);
+
+                    List<Integer> order = new ArrayList<>(meta.chunks);
+                    for (int i = 0; i < meta.chunks; i++) order.add(i);
+                    ChunkScheduler scheduler = new ChunkScheduler(pool, hash, List.of(peer),
+                            Integer.getInteger("maxInFlight", ChunkProtocol.MAX_IN_FLIGHT_DEFAULT),
+                            Integer.getInteger("perSourceInFlight", ChunkProtocol.PER_SOURCE_IN_FLIGHT_DEFAULT),
+                            Integer.getInteger("rangeWindow", ChunkProtocol.RANGE_WINDOW_DEFAULT));
+
+                    long t1 = System.nanoTime();
+                    scheduler.run(order, (idx, data, src) -> pool.getBufferPool().release(data));
+                    bestFetchNs = Math.min(bestFetchNs, System.nanoTime() - t1);
+                }
+            }
+        } finally {
+            server.stop();
+        }
+
+        double mbps = (meta.size / (1024.0 * 1024.0)) / (bestFetchNs / 1e9);
+        String name = "adaptive".equalsIgnoreCase(label) ? "auto=" + meta.chunkSize / 1024 + "K" : meta.chunkSize / 1024 + "K";
+        System.out.println(String.format("%-10s %8d %12.1f %12.1f", name, meta.chunks, bestStartupNs / 1e6, mbps));
+    }
+
+    private static void writeRandom(File f, long bytes) throws Exception {
+        Random rnd = new Random(UUID.randomUUID().getMostSignificantBits());
+        byte[] buf = new byte[1024 * 1024];
+        try (FileOutputStream out = new FileOutputStream(f)) {
+            for (long left = bytes; left > 0; left -= buf.length) {
+                rnd.nextBytes(buf);
+                out.write(buf, 0, (int) Math.min(buf.length, left));
+            }
+        }
+    }
+}
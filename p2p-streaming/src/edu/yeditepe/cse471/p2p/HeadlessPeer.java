@@ -1,6 +1,5 @@
 package edu.yeditepe.cse471.p2p;
 
-import edu.yeditepe.cse471.p2p.net.CatalogUtil;
 import edu.yeditepe.cse471.p2p.net.DiscoveryService;
 import edu.yeditepe.cse471.p2p.net.PeerInfo;
 import edu.yeditepe.cse471.p2p.net.Protocol;
@@ -22,6 +21,7 @@ import java.util.UUID;
  *  -Dbootstrap="172.20.0.11:40000,172.21.0.11:40000"
  *  -Droot=/videos
  *  -DpeerId=peer1
+ * The tuning properties are listed under Configuration in README.md.
  */
 public class HeadlessPeer {
 
@@ -51,7 +51,8 @@ public class HeadlessPeer {
                 (cnt) -> System.out.println("[" + peerId + "] peers=" + cnt)
         );
 
-        discovery.setCatalogDigest(CatalogUtil.digestForFolder(root));
+        discovery.setCatalogDigest(catalog.getCatalogDigest());
+        catalog.addCatalogListener(() -> discovery.setCatalogDigest(catalog.getCatalogDigest()));
         discovery.start();
 
         System.out.println("[" + peerId + "] started at " + Instant.now());
@@ -60,6 +61,7 @@ public class HeadlessPeer {
 
         while (true) {
             Thread.sleep(5000);
+            System.out.println("[" + peerId + "] " + tcp.getCacheStats() + " | hashing=" + catalog.pendingCount());
             List<PeerInfo> list = new ArrayList<>(discovery.getPeersSnapshot());
             if (!list.isEmpty()) {
                 System.out.println("[" + peerId + "] peer snapshot:");
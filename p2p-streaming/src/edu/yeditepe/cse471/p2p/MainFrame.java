@@ -11,10 +11,19 @@ import edu.yeditepe.cse471.p2p.net.catalog.VideoEntry;
 
 
 
-import edu.yeditepe.cse471.p2p.net.CatalogUtil;
 
 import edu.yeditepe.cse471.p2p.net.DiscoveryService;
+import edu.yeditepe.cse471.p2p.net.NetThreads;
 import edu.yeditepe.cse471.p2p.net.PeerInfo;
+import edu.yeditepe.cse471.p2p.net.transfer.BufferFolderCache;
+import edu.yeditepe.cse471.p2p.net.transfer.ChunkBitmap;
+import edu.yeditepe.cse471.p2p.net.transfer.ChunkClient;
+import edu.yeditepe.cse471.p2p.net.transfer.ChunkConnectionPool;
+import edu.yeditepe.cse471.p2p.net.transfer.ChunkProtocol;
+import edu.yeditepe.cse471.p2p.net.transfer.ChunkScheduler;
+import edu.yeditepe.cse471.p2p.net.transfer.ChunkWriter;
+import edu.yeditepe.cse471.p2p.net.transfer.DownloadStore;
+import edu.yeditepe.cse471.p2p.net.transfer.SeedRegistry;
 
 import javax.swing.*;
 import javax.swing.border.TitledBorder;
@@ -35,6 +44,7 @@ public class MainFrame extends JFrame {
 
     private File rootVideoFolder;
     private File bufferFolder;
+    private volatile BufferFolderCache bufferCache;
     private boolean connected = false;
 
     private final JTextField searchField = new JTextField();
@@ -55,8 +65,11 @@ public class MainFrame extends JFrame {
     
     private final LocalVideoCatalog localCatalog = new LocalVideoCatalog();
     private TcpControlServer controlServer;
+    private final SeedRegistry seeds = new SeedRegistry();
+    private volatile ChunkConnectionPool chunkPool;
 
     private final Map<String, String> peerDigestCache = new HashMap<>();
+    private volatile long selfCatalogVersion = -1;
     private final Map<String, List<VideoEntry>> peerCatalogCache = new HashMap<>();
 
     private javax.swing.Timer catalogRefreshTimer;
@@ -66,6 +79,9 @@ public class MainFrame extends JFrame {
     
     
     private static final int PLAYBACK_THRESHOLD_PCT = 10; 
+    private static final int RETRY_IDLE_ROUNDS = 5;
+    private static final long RETRY_DELAY_MS = 250;
+    private static final long RETRY_MAX_DELAY_MS = 4_000;
     private volatile boolean playbackStarted = false;
 
 
@@ -83,6 +99,10 @@ public class MainFrame extends JFrame {
         setLocationRelativeTo(null);
 
         setJMenuBar(buildMenuBar());
+        localCatalog.addCatalogListener(() -> {
+            DiscoveryService d = discovery;
+            if (d != null) d.setCatalogDigest(localCatalog.getCatalogDigest());
+        });
         setContentPane(buildContent());
 
         globalBufferBar.setStringPainted(true);
@@ -111,18 +131,28 @@ public class MainFrame extends JFrame {
                     );
                 }
 
-                discovery.setCatalogDigest(CatalogUtil.digestForFolder(rootVideoFolder));
+                discovery.setCatalogDigest(localCatalog.getCatalogDigest());
 
                 discovery.start();
                 try {
                     if (controlServer == null) {
                         controlServer = new TcpControlServer(tcpPort, localCatalog);
+                        controlServer.setSeedRegistry(seeds);
+                        seeds.setAccessListener(f -> {
+                            BufferFolderCache c = bufferCache;
+                            if (c != null) c.touch(BufferFolderCache.keyOf(f.getName()));
+                        });
                         controlServer.start();
                     }
                 } catch (Exception ex) {
                     JOptionPane.showMessageDialog(this, "TCP server start failed: " + ex.getMessage());
                 }
 
+                if (chunkPool == null) {
+                    chunkPool = new ChunkConnectionPool(
+                            Integer.getInteger("perSourceInFlight", ChunkProtocol.PER_SOURCE_IN_FLIGHT_DEFAULT));
+                }
+
                 if (catalogRefreshTimer == null) {
                     catalogRefreshTimer = new javax.swing.Timer(3000, ev -> refreshNetworkCatalogAsync());
                 }
@@ -149,8 +179,14 @@ public class MainFrame extends JFrame {
                 controlServer = null;
             }
 
+            if (chunkPool != null) {
+                chunkPool.close();
+                chunkPool = null;
+            }
+
             peerDigestCache.clear();
             peerCatalogCache.clear();
+            selfCatalogVersion = -1;
 
             refreshStatus();
             activeStreamsModel.clear();
@@ -254,9 +290,6 @@ public class MainFrame extends JFrame {
             
             localCatalog.setRootFolder(rootVideoFolder);
 
-            
-            if (discovery != null) discovery.setCatalogDigest(CatalogUtil.digestForFolder(rootVideoFolder));
-
             scanLocalVideos();
             refreshAvailableVideosList(buildLocalVideoListLines(lastScannedLocalVideos));
 
@@ -274,6 +307,8 @@ public class MainFrame extends JFrame {
             if (!bufferFolder.exists()) {
                 bufferFolder.mkdirs();
             }
+            bufferCache = new BufferFolderCache(bufferFolder);
+            bufferCache.setEvictionListener(seeds::removeFile);
             refreshStatus();
         }
     }
@@ -282,7 +317,6 @@ public class MainFrame extends JFrame {
         lastScannedLocalVideos.clear();
         if (rootVideoFolder == null || !rootVideoFolder.isDirectory()) return;
 
-        localCatalog.setRootFolder(rootVideoFolder);
         lastScannedLocalVideos.addAll(localCatalog.listVideos());
     }
 
@@ -427,33 +461,38 @@ public class MainFrame extends JFrame {
 
         sb.append(" | Root: ").append(rootVideoFolder != null ? rootVideoFolder.getAbsolutePath() : "(not set)");
         sb.append(" | Buffer: ").append(bufferFolder != null ? bufferFolder.getAbsolutePath() : "(not set)");
+        BufferFolderCache cache = bufferCache;
+        if (cache != null && cache.getQuotaBytes() > 0) {
+            sb.append(" (").append(cache.getUsedBytes() / (1024 * 1024)).append("/")
+              .append(cache.getQuotaBytes() / (1024 * 1024)).append(" MB)");
+        }
 
         statusLabel.setText(sb.toString());
     }
     
     
     private void refreshNetworkCatalogAsync() {
-        new Thread(() -> {
+        NetThreads.start("catalog-refresh", () -> {
             try {
                 refreshNetworkCatalogOnce();
             } catch (Exception ignored) {}
-        }, "catalog-refresh").start();
+        }, false);
     }
 
     private void refreshNetworkCatalogOnce() {
         if (discovery == null) return;
         
-        try {
-            List<VideoEntry> selfCat = localCatalog.listVideos();
-            peerCatalogCache.put(selfPeerId, selfCat);
-            peerDigestCache.put(selfPeerId, CatalogUtil.digestForFolder(rootVideoFolder));
-        } catch (Exception ignored) {}
+        boolean anyChange = false;
 
+        long version = localCatalog.getCatalogVersion();
+        if (version != selfCatalogVersion) {
+            selfCatalogVersion = version;
+            peerCatalogCache.put(selfPeerId, localCatalog.listVideos());
+            anyChange = true;
+        }
 
         List<PeerInfo> peers = new ArrayList<>(discovery.getPeersSnapshot());
 
-        boolean anyChange = false;
-
         for (PeerInfo p : peers) {
             String lastDigest = peerDigestCache.get(p.peerId);
             String newDigest = (p.catalogDigest == null) ? "" : p.catalogDigest;
@@ -548,7 +587,7 @@ public class MainFrame extends JFrame {
     }
 
     private void startStreamAsync(String displayName, String videoHash) {
-        new Thread(() -> {
+        NetThreads.start("start-stream", () -> {
             try {
                 startStream(displayName, videoHash);
             } catch (Exception ex) {
@@ -556,7 +595,7 @@ public class MainFrame extends JFrame {
                         JOptionPane.showMessageDialog(this, "Start stream failed: " + ex.getMessage())
                 );
             }
-        }, "start-stream").start();
+        }, false);
     }
 
     private void startStream(String videoName) throws Exception {
@@ -602,16 +641,9 @@ public class MainFrame extends JFrame {
         }
 
         if (sources.isEmpty()) {
-            boolean localHas = false;
-
-            boolean keyIsHash = isSha256Hex(key);
-            for (VideoEntry ve : localCatalog.listVideos()) {
-                if (keyIsHash) {
-                    if (ve.hash != null && ve.hash.equalsIgnoreCase(key)) { localHas = true; break; }
-                } else {
-                    if (ve.name != null && ve.name.equalsIgnoreCase(key)) { localHas = true; break; }
-                }
-            }
+            boolean localHas = isSha256Hex(key)
+                    ? localCatalog.findFileByHash(key) != null
+                    : localCatalog.findFileByName(key) != null;
 
             if (localHas) {
                 sources.add(new PeerInfo(
@@ -629,27 +661,56 @@ public class MainFrame extends JFrame {
 
         PeerInfo peer = sources.get(0);
 
+        ChunkConnectionPool pool = chunkPool;
+        if (pool == null) {
+            throw new IllegalStateException("Not connected.");
+        }
+
         edu.yeditepe.cse471.p2p.net.transfer.ChunkClient.Meta meta = null;
         Exception lastMetaErr = null;
         PeerInfo metaSource = null;
 
+        // Partial seeds answer META with the chunks they hold; the whole file is taken from a full source if there is one.
+        java.util.Map<PeerInfo, ChunkClient.Meta> partialMeta = new java.util.LinkedHashMap<>();
+        java.util.Map<PeerInfo, ChunkClient.Meta> allMeta = new java.util.LinkedHashMap<>();
         for (PeerInfo src : sources) {
             try {
-                meta = edu.yeditepe.cse471.p2p.net.transfer.ChunkClient.fetchMeta(
-                        src.address, src.tcpPort, key
-                );
-                metaSource = src;
-                break;
+                ChunkClient.Meta m = ChunkClient.fetchMeta(src.address, src.tcpPort, key);
+                allMeta.put(src, m);
+                if (m.have != null) {
+                    partialMeta.put(src, m);
+                } else if (meta == null) {
+                    meta = m;
+                    metaSource = src;
+                }
             } catch (Exception ex) {
                 lastMetaErr = ex;
             }
         }
+        if (meta == null && !partialMeta.isEmpty()) {
+            metaSource = partialMeta.keySet().iterator().next();
+            meta = partialMeta.get(metaSource);
+        }
 
         if (meta == null) {
             throw new IllegalStateException("META failed for all sources: " + lastMetaErr);
         }
 
+        List<PeerInfo> fetchSources = new ArrayList<>(sources);
+        java.util.Map<PeerInfo, ChunkBitmap> partialSources = new java.util.LinkedHashMap<>();
+        for (java.util.Map.Entry<PeerInfo, ChunkClient.Meta> e : partialMeta.entrySet()) {
+            ChunkClient.Meta m = e.getValue();
+            if (m.size == meta.size && m.chunkSize == meta.chunkSize) partialSources.put(e.getKey(), m.have);
+            else fetchSources.remove(e.getKey());
+        }
+
         int total = meta.chunks;
+        pool.setLayout(key, meta.size, meta.chunkSize);
+
+        edu.yeditepe.cse471.p2p.net.transfer.ChunkVerifier verifier = fetchVerifier(key, meta, metaSource, allMeta);
+        if (verifier == null) {
+            appendChunkLogLine("VERIFY " + displayName + " | no chunk hashes from " + allMeta.size() + " source(s), chunks unverified");
+        }
         
         String baseName = normalizeDisplayNameForFile(displayName);
 
@@ -658,19 +719,41 @@ public class MainFrame extends JFrame {
              insertBeforeExtension(baseName, ".streaming")
      );
 
-     preallocateStreamingFile(streamingFile, meta.size);
-
-        
-        int rr = 0; 
+     BufferFolderCache cache = bufferCache;
+     cache.reserve(baseName, meta.size, streamingFile, DownloadStore.journalFile(streamingFile),
+             new java.io.File(bufferFolder, baseName + ".complete"));
+     boolean seedable = isSha256Hex(key);
+     SeedRegistry.Seed seededBefore = seedable ? seeds.get(key) : null;
+     try (DownloadStore store = DownloadStore.open(streamingFile, meta.size, meta.chunkSize, key)) {
+         if (seedable) seeds.addDownload(key, store, verifier);
+         downloadInto(store, displayName, streamKey, key, fetchSources, partialSources, pool, total, verifier);
+         if (seedable) {
+             seeds.addComplete(key, new java.io.File(bufferFolder, baseName + ".complete"), meta.size, meta.chunkSize, verifier);
+             if (seededBefore == null || !seededBefore.isComplete()) cache.pin(baseName);   // kept while it is seeded
+         }
+     } catch (Exception ex) {
+         if (seedable) {
+             seeds.remove(key);
+             if (seededBefore != null && seededBefore.isComplete()) cache.unpin(baseName);
+         }
+         throw ex;
+     } finally {
+         cache.unpin(baseName);
+     }
+    }
+
+    private void downloadInto(DownloadStore store, String displayName, String streamKey, String key,
+                              List<PeerInfo> sources, java.util.Map<PeerInfo, ChunkBitmap> partialSources,
+                              ChunkConnectionPool pool, int total,
+                              edu.yeditepe.cse471.p2p.net.transfer.ChunkVerifier verifier) throws Exception {
         java.util.Set<String> usedSources = new java.util.LinkedHashSet<>();
         upsertActiveStreamLine(streamKey, "STREAM " + displayName + " | 0% | START | sources=" + sources.size());
 
-
-
-        edu.yeditepe.cse471.p2p.net.transfer.ChunkUtil.ensureDir(bufferFolder);
-
-        java.io.File partDir = new java.io.File(bufferFolder, streamKey  + ".part");
-        edu.yeditepe.cse471.p2p.net.transfer.ChunkUtil.ensureDir(partDir);
+        if (store.getResumedChunks() > 0) {
+            String resumeLine = "RESUME " + displayName + " | " + store.getResumedChunks() + "/" + total + " chunks on disk";
+            appendChunkLogLine(resumeLine);
+            System.out.println(resumeLine);
+        }
 
         java.util.List<Integer> order = new java.util.ArrayList<>();
         int PREFETCH = Math.min(120, total); 
@@ -693,50 +776,58 @@ public class MainFrame extends JFrame {
             if (Math.random() < 0.20) missing.add(idx);
         }
 
-        for (int idx : order) {
-            if (missing.contains(idx)) continue;
+        int maxInFlight = Integer.getInteger("maxInFlight", ChunkProtocol.MAX_IN_FLIGHT_DEFAULT);
+        int perSourceInFlight = Integer.getInteger("perSourceInFlight", ChunkProtocol.PER_SOURCE_IN_FLIGHT_DEFAULT);
+        int rangeWindow = Integer.getInteger("rangeWindow", ChunkProtocol.RANGE_WINDOW_DEFAULT);
+        ChunkScheduler scheduler = new ChunkScheduler(pool, key, sources, maxInFlight, perSourceInFlight, rangeWindow);
+        scheduler.setVerifier(verifier);
+        for (java.util.Map.Entry<PeerInfo, ChunkBitmap> e : partialSources.entrySet()) {
+            scheduler.setAvailability(e.getKey(), e.getValue());
+        }
 
-            java.io.File outFile = edu.yeditepe.cse471.p2p.net.transfer.ChunkUtil.chunkFile(bufferFolder, streamKey, idx);
-            if (outFile.exists()) continue;
+        try (ChunkWriter writer = new ChunkWriter(store, pool.getBufferPool())) {
+            fetchAll(store, writer, scheduler, order, missing, displayName, streamKey, key,
+                     partialSources, total, usedSources);
+        }
 
-            int preferredIndex = rr % sources.size();
-            rr++;
+        finishDownload(store, normalizeDisplayNameForFile(displayName));
 
-            PeerInfo srcUsed = null;
-            byte[] chunk = null;
-            Exception lastErr = null;
+        if (scheduler.getCorruptChunks() > 0) {
+            appendChunkLogLine("VERIFY " + displayName + " | " + scheduler.getCorruptChunks() + " corrupt chunk(s) refetched");
+        }
+        
+        appendChunkLogLine("COMPLETE " + displayName + " | 100% | sources=" + sources.size());
+        System.out.println("COMPLETE " + displayName + " | 100% | sources=" + sources.size());
 
-            for (int k = 0; k < sources.size(); k++) {
-                PeerInfo src = sources.get((preferredIndex + k) % sources.size());
-                try {
-                    chunk = edu.yeditepe.cse471.p2p.net.transfer.ChunkClient.fetchChunk(
-                            src.address, src.tcpPort, key, idx
-                    );
-                    srcUsed = src;
-                    break;
-                } catch (Exception ex) {
-                    lastErr = ex;
-                }
-            }
 
-            if (chunk == null) {
-                throw new IllegalStateException("GETCHUNK failed for idx=" + idx + " err=" + lastErr);
-            }
-        
-            edu.yeditepe.cse471.p2p.net.transfer.ChunkUtil.ensureDir(outFile.getParentFile());
-            edu.yeditepe.cse471.p2p.net.transfer.ChunkUtil.writeBytes(outFile, chunk);
-            
-            writeChunkToStreamingFile(streamingFile, idx, chunk);
+        SwingUtilities.invokeLater(() -> {
+            playerStatusLabel.setText("DOWNLOAD COMPLETE: " + displayName + " -> " + displayName + ".complete");
+        });
 
-            
-            usedSources.add(srcUsed.address.getHostAddress() + ":" + srcUsed.tcpPort);
+        upsertActiveStreamLine(
+                streamKey,
+                "COMPLETE " + displayName + " | 100% | sourcesUsed=" + usedSources
+        );
 
-            
-            
 
-            int pct = (int) ((countExistingChunks(streamKey, total) * 100.0) / total);
+    }
+
+    // Network side of a download: chunks go to the write-behind writer, which blocks us when the disk lags.
+    private void fetchAll(DownloadStore store, ChunkWriter writer, ChunkScheduler scheduler,
+                          java.util.List<Integer> order, java.util.Set<Integer> missing,
+                          String displayName, String streamKey, String key,
+                          java.util.Map<PeerInfo, ChunkBitmap> partialSources, int total,
+                          java.util.Set<String> usedSources) throws Exception {
+        java.io.File streamingFile = store.getFile();
+
+        ChunkScheduler.ChunkSink sink = (idx, chunk, srcUsed) -> {
+            writer.submit(idx, chunk);
+
+            usedSources.add(srcUsed.address.getHostAddress() + ":" + srcUsed.tcpPort);
+
+            int pct = (int) ((store.completedCount() * 100.0) / total);
             final int finalPct = pct;
-            
+
             String streamLine =
                     "STREAM " + displayName
                     + " | chunk " + idx + "/" + (total - 1)
@@ -747,8 +838,6 @@ public class MainFrame extends JFrame {
             appendChunkLogLine(streamLine);
             System.out.println(streamLine); 
 
-
-
             SwingUtilities.invokeLater(() -> {
                 globalBufferBar.setValue(finalPct);
 
@@ -761,113 +850,113 @@ public class MainFrame extends JFrame {
                     } else {
                         playerStatusLabel.setText("BUFFERING... " + finalPct + "%");
                     }
+                } else {
+                    playerStatusLabel.setText("PLAYING... buffer " + finalPct + "%");
                 }
             });
+        };
+
+        List<Integer> firstPass = new ArrayList<>();
+        for (int idx : order) {
+            if (missing.contains(idx)) continue;
+            if (store.has(idx)) continue;
+            firstPass.add(idx);
         }
 
-        for (int round = 1; round <= 5; round++) {
-            java.util.List<Integer> stillMissing = findMissingChunks(streamKey, total);
+        noteUnavailable(displayName, scheduler.run(firstPass, sink));
+        writer.flush();
+
+        // Retry until RETRY_IDLE_ROUNDS rounds in a row bring nothing. A round that fetched chunks
+        // goes straight on; otherwise wait, doubling the wait while no partial seed is growing either.
+        // When no source can serve any of the rest and none of them can grow, give up at once.
+        java.util.Map<PeerInfo, Integer> haveCounts = new java.util.HashMap<>();
+        for (java.util.Map.Entry<PeerInfo, ChunkBitmap> e : partialSources.entrySet()) {
+            haveCounts.put(e.getKey(), e.getValue().count());
+        }
+        int idleRounds = 0;
+        long delayMs = 0;
+        while (idleRounds < RETRY_IDLE_ROUNDS) {
+            java.util.List<Integer> stillMissing = store.missingChunks();
             if (stillMissing.isEmpty()) break;
+            if (delayMs > 0) Thread.sleep(delayMs);
 
             java.util.Collections.shuffle(stillMissing);
+            boolean sourcesGrew = refreshAvailability(scheduler, key, partialSources.keySet(), haveCounts, total);
 
-            for (int idx : stillMissing) {
-                java.io.File outFile = edu.yeditepe.cse471.p2p.net.transfer.ChunkUtil.chunkFile(bufferFolder, streamKey, idx);
-                if (outFile.exists()) continue;
-
-                try {
-                	int preferredIndex = rr % sources.size();
-                	rr++;
-
-                	PeerInfo srcUsed = null;
-                	byte[] chunk = null;
-                	Exception lastErr = null;
-
-                	for (int k = 0; k < sources.size(); k++) {
-                	    PeerInfo src = sources.get((preferredIndex + k) % sources.size());
-                	    try {
-                	        chunk = edu.yeditepe.cse471.p2p.net.transfer.ChunkClient.fetchChunk(
-                	                src.address, src.tcpPort, key, idx
-                	        );
-                	        srcUsed = src;
-                	        break;
-                	    } catch (Exception ex) {
-                	        lastErr = ex;
-                	    }
-                	}
-
-                	if (chunk == null) {
-                	    throw new IllegalStateException("GETCHUNK failed for idx=" + idx + " err=" + lastErr);
-                	}
-        
-                    edu.yeditepe.cse471.p2p.net.transfer.ChunkUtil.ensureDir(outFile.getParentFile());
-                    edu.yeditepe.cse471.p2p.net.transfer.ChunkUtil.writeBytes(outFile, chunk);
-                    
-                    writeChunkToStreamingFile(streamingFile, idx, chunk);
-
-                    
-                    usedSources.add(srcUsed.address.getHostAddress() + ":" + srcUsed.tcpPort);
-
-
-                    int pct = (int) ((countExistingChunks(streamKey, total) * 100.0) / total);
-                    final int finalPct = pct;
-
-                    String streamLine =
-                            "STREAM " + displayName
-                            + " | chunk " + idx + "/" + (total - 1)
-                            + " | " + pct + "%"
-                            + " | OK"
-                            + " | src=" + srcUsed.address.getHostAddress() + ":" + srcUsed.tcpPort;
-
-                    appendChunkLogLine(streamLine);
-                    System.out.println(streamLine); 
-
-
-                    SwingUtilities.invokeLater(() -> {
-                        globalBufferBar.setValue(finalPct);
-
-                        if (!playbackStarted) {
-                            if (finalPct >= PLAYBACK_THRESHOLD_PCT) {
-                                playbackStarted = true;
-                                playerStatusLabel.setText("PLAYBACK STARTED: " + streamingFile.getName());
-
-                                new Thread(() -> openWithDesktopBestEffort(streamingFile), "open-player").start();
-
-                            } else {
-                                playerStatusLabel.setText("BUFFERING... " + finalPct + "%");
-                            }
-                        } else {
-                            playerStatusLabel.setText("PLAYING... buffer " + finalPct + "%");
-                        }
-                    });
-
-                } catch (Exception ex) {
-                    
-                }
+            java.util.List<Integer> unavailable = java.util.Collections.emptyList();
+            try {
+                unavailable = scheduler.run(stillMissing, sink);
+            } catch (Exception ex) {
+                System.out.println("[download] retry round for " + displayName + " failed: " + ex);
+                appendChunkLogLine("RETRY " + displayName + " | round failed: " + ex.getMessage());
+            }
+            writer.flush();
+            noteUnavailable(displayName, unavailable);
+
+            if (store.missingChunks().size() < stillMissing.size()) {
+                idleRounds = 0;
+                delayMs = 0;
+            } else if (sourcesGrew) {
+                idleRounds = 0;
+                delayMs = RETRY_DELAY_MS;
+            } else if (partialSources.isEmpty() && unavailable.size() == stillMissing.size()) {
+                break;
+            } else {
+                idleRounds++;
+                delayMs = (delayMs == 0) ? RETRY_DELAY_MS : Math.min(delayMs * 2, RETRY_MAX_DELAY_MS);
             }
         }
 
-        java.util.List<Integer> remain = findMissingChunks(streamKey, total);
+        java.util.List<Integer> remain = store.missingChunks();
         if (!remain.isEmpty()) {
             throw new IllegalStateException("Download incomplete, missing chunks: " + remain);
         }
+    }
 
-        reassembleIfComplete(streamKey, displayName, total, meta.size);
-        
-        appendChunkLogLine("COMPLETE " + displayName + " | 100% | sources=" + sources.size());
-        System.out.println("COMPLETE " + displayName + " | 100% | sources=" + sources.size());
-
+    // HASHES from metaSource, then from every other source (full seeds first) that reported the same
+    // layout and root; each list is checked against meta.root. Null if nobody had a matching one.
+    private static edu.yeditepe.cse471.p2p.net.transfer.ChunkVerifier fetchVerifier(
+            String key, ChunkClient.Meta meta, PeerInfo metaSource, java.util.Map<PeerInfo, ChunkClient.Meta> allMeta) {
+        if (meta.root == null) return null;
 
-        SwingUtilities.invokeLater(() -> {
-            playerStatusLabel.setText("DOWNLOAD COMPLETE: " + displayName + " -> " + displayName + ".complete");
-        });
+        List<PeerInfo> candidates = new ArrayList<>();
+        candidates.add(metaSource);
+        for (boolean full : new boolean[] { true, false }) {
+            for (java.util.Map.Entry<PeerInfo, ChunkClient.Meta> e : allMeta.entrySet()) {
+                ChunkClient.Meta m = e.getValue();
+                if (e.getKey() == metaSource || (m.have == null) != full) continue;
+                if (m.size == meta.size && m.chunkSize == meta.chunkSize && meta.root.equalsIgnoreCase(m.root)) {
+                    candidates.add(e.getKey());
+                }
+            }
+        }
 
-        upsertActiveStreamLine(
-                streamKey,
-                "COMPLETE " + displayName + " | 100% | sourcesUsed=" + usedSources
-        );
+        return ChunkClient.fetchChunkHashes(candidates, key, meta);
+    }
 
+    private void noteUnavailable(String displayName, java.util.List<Integer> unavailable) {
+        if (unavailable.isEmpty()) return;
+        String line = "UNAVAILABLE " + displayName + " | " + unavailable.size() + " chunk(s) on no live source: "
+                + unavailable.subList(0, Math.min(16, unavailable.size())) + (unavailable.size() > 16 ? "..." : "");
+        appendChunkLogLine(line);
+        System.out.println(line);
+    }
 
+    // Partial seeds keep downloading too, so their bitmaps are fetched again before each retry round.
+    // True if any of them holds more chunks than at the previous call.
+    private static boolean refreshAvailability(ChunkScheduler scheduler, String key, java.util.Set<PeerInfo> partialSources,
+                                               java.util.Map<PeerInfo, Integer> haveCounts, int total) {
+        boolean grew = false;
+        for (PeerInfo p : partialSources) {
+            try {
+                ChunkBitmap have = ChunkClient.fetchMeta(p.address, p.tcpPort, key).have;
+                scheduler.setAvailability(p, have);
+                int count = (have == null) ? total : have.count();
+                Integer before = haveCounts.put(p, count);
+                if (before != null && count > before) grew = true;
+            } catch (Exception ignored) {}
+        }
+        return grew;
     }
 
     private void stopStream(String streamKey) {
@@ -883,49 +972,15 @@ public class MainFrame extends JFrame {
     }
     
     
-    private void reassembleIfComplete(String videoHash, String outputBaseName, int totalChunks, long expectedSize) throws Exception {
+    private void finishDownload(DownloadStore store, String outputBaseName) throws Exception {
         if (bufferFolder == null) throw new IllegalStateException("Buffer folder not set");
 
-        java.io.File outFile = new java.io.File(bufferFolder, outputBaseName + ".complete");
-        try (java.io.FileOutputStream fos = new java.io.FileOutputStream(outFile)) {
-            for (int i = 0; i < totalChunks; i++) {
-                java.io.File chk = edu.yeditepe.cse471.p2p.net.transfer.ChunkUtil.chunkFile(bufferFolder, videoHash, i);
-                if (!chk.exists()) {
-                    throw new IllegalStateException("Missing chunk file: " + chk.getName());
-                }
-                byte[] data = java.nio.file.Files.readAllBytes(chk.toPath());
-                fos.write(data);
-            }
-        }
-
-        long actual = outFile.length();
-        if (actual != expectedSize) {
-            throw new IllegalStateException("Reassemble size mismatch. expected=" + expectedSize + " actual=" + actual);
-        }
-    }
-    
-    
-    private int countExistingChunks(String videoHash, int total) {
-        int cnt = 0;
-        for (int i = 0; i < total; i++) {
-            java.io.File f = edu.yeditepe.cse471.p2p.net.transfer.ChunkUtil.chunkFile(bufferFolder, videoHash, i);
-            if (f.exists()) cnt++;
-        }
-        return cnt;
-    }
-
-    private java.util.List<Integer> findMissingChunks(String videoHash, int total) {
-        java.util.List<Integer> miss = new java.util.ArrayList<>();
-        for (int i = 0; i < total; i++) {
-            java.io.File f = edu.yeditepe.cse471.p2p.net.transfer.ChunkUtil.chunkFile(bufferFolder, videoHash, i);
-            if (!f.exists()) miss.add(i);
-        }
-        return miss;
+        store.complete(new java.io.File(bufferFolder, outputBaseName + ".complete"));
     }
     
     private static String normalizeDisplayNameForFile(String displayName) {
         if (displayName == null) return "video";
-        return displayName.replaceAll("\\s*\\(\\+\\d+\\s+aliases\\)$", "").trim();
+        return displayName.replaceAll("\\s*\\(\\+\\d+\\s+aliases\\)$", "").trim().replace('/', '_').replace('\\', '_');
     }
 
     private static String insertBeforeExtension(String name, String insert) {
@@ -937,24 +992,6 @@ public class MainFrame extends JFrame {
         return name + insert;
     }
 
-    private void preallocateStreamingFile(java.io.File f, long size) throws java.io.IOException {
-        edu.yeditepe.cse471.p2p.net.transfer.ChunkUtil.ensureDir(f.getParentFile());
-        if (f.exists()) {
-            f.delete();
-        }
-        try (java.io.RandomAccessFile raf = new java.io.RandomAccessFile(f, "rw")) {
-            raf.setLength(size);
-        }
-    }
-
-    private void writeChunkToStreamingFile(java.io.File f, int idx, byte[] data) throws java.io.IOException {
-        long offset = (long) idx * edu.yeditepe.cse471.p2p.net.transfer.ChunkProtocol.CHUNK_SIZE;
-        try (java.io.RandomAccessFile raf = new java.io.RandomAccessFile(f, "rw")) {
-            raf.seek(offset);
-            raf.write(data);
-        }
-    }
-
     private void openWithDesktopBestEffort(java.io.File f) {
         try {
             if (!java.awt.Desktop.isDesktopSupported()) return;
@@ -27,6 +27,8 @@ public class DiscoveryService {
     private final List<InetSocketAddress> bootstrapPeers;
 
     private volatile String catalogDigest = "";
+    private boolean digestChanged = false;   // guarded by helloWake
+    private final Object helloWake = new Object();
 
     public DiscoveryService(String selfPeerId, int discoveryPort, int tcpPort,
                             List<InetSocketAddress> bootstrapPeers,
@@ -38,8 +40,15 @@ public class DiscoveryService {
         this.onPeerCountChanged = onPeerCountChanged;
     }
 
+    /** A changed digest is announced right away (at most once per HELLO_MIN_GAP_MS) rather than with the next periodic HELLO. */
     public void setCatalogDigest(String digest) {
-        this.catalogDigest = (digest == null) ? "" : digest;
+        String d = (digest == null) ? "" : digest;
+        if (d.equals(catalogDigest)) return;
+        this.catalogDigest = d;
+        synchronized (helloWake) {
+            digestChanged = true;
+            helloWake.notifyAll();
+        }
     }
 
     public int getPeerCount() {
@@ -58,17 +67,11 @@ public class DiscoveryService {
 
         running = true;
 
-        rxThread = new Thread(this::rxLoop, "discovery-rx");
-        rxThread.setDaemon(true);
-        rxThread.start();
+        rxThread = NetThreads.start("discovery-rx", this::rxLoop);
 
-        helloThread = new Thread(this::helloLoop, "discovery-hello");
-        helloThread.setDaemon(true);
-        helloThread.start();
+        helloThread = NetThreads.start("discovery-hello", this::helloLoop);
 
-        cleanupThread = new Thread(this::cleanupLoop, "discovery-cleanup");
-        cleanupThread.setDaemon(true);
-        cleanupThread.start();
+        cleanupThread = NetThreads.start("discovery-cleanup", this::cleanupLoop);
 
         sendHello(Protocol.TTL_DEFAULT);
     }
@@ -175,8 +178,13 @@ public class DiscoveryService {
     private void helloLoop() {
         while (running) {
             try {
-                Thread.sleep(Protocol.HELLO_INTERVAL_MS);
+                synchronized (helloWake) {
+                    if (!digestChanged) helloWake.wait(Protocol.HELLO_INTERVAL_MS - Protocol.HELLO_MIN_GAP_MS);
+                    digestChanged = false;
+                }
+                if (!running) break;
                 sendHello(Protocol.TTL_DEFAULT);
+                Thread.sleep(Protocol.HELLO_MIN_GAP_MS);
             } catch (InterruptedException ignored) {
             }
         }
@@ -0,0 +1,117 @@
+package edu.yeditepe.cse471.p2p.net;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared thread creation for everything that blocks on the network.
+ *
+ * With -DvirtualThreads=true on JDK 21+ every thread is a virtual thread and executors are
+ * thread-per-task; otherwise (or where virtual threads cannot be started) daemon platform threads
+ * are used as before.
+ * The JDK 21 API is looked up reflectively so the project still builds with its JDK 17 settings.
+ */
+public final class NetThreads {
+    private NetThreads() {}
+
+    private static final Method OF_VIRTUAL;
+    private static final Method BUILDER_NAME;
+    private static final Method BUILDER_NAME_SEQ;
+    private static final Method BUILDER_START;
+    private static final Method BUILDER_FACTORY;
+    private static final Method THREAD_PER_TASK;
+
+    static {
+        Method ofVirtual = null, name = null, nameSeq = null, start = null, factory = null, perTask = null;
+        if (Boolean.getBoolean("virtualThreads")) {
+            try {
+                ofVirtual = Thread.class.getMethod("ofVirtual");
+                Class<?> builder = Class.forName("java.lang.Thread$Builder");
+                name = builder.getMethod("name", String.class);
+                nameSeq = builder.getMethod("name", String.class, long.class);
+                start = builder.getMethod("start", Runnable.class);
+                factory = builder.getMethod("factory");
+                perTask = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+                // JDK 19/20 have the methods but throw without --enable-preview: start one thread to be sure.
+                start.invoke(name.invoke(ofVirtual.invoke(null), "virtual-probe"), (Runnable) Thread::yield);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                System.err.println("virtualThreads requested but not supported by this JVM, using platform threads");
+                ofVirtual = null;
+            }
+        }
+        OF_VIRTUAL = ofVirtual;
+        BUILDER_NAME = name;
+        BUILDER_NAME_SEQ = nameSeq;
+        BUILDER_START = start;
+        BUILDER_FACTORY = factory;
+        THREAD_PER_TASK = perTask;
+    }
+
+    public static boolean isVirtual() {
+        return OF_VIRTUAL != null;
+    }
+
+    public static Thread start(String name, Runnable task) {
+        return start(name, task, true);
+    }
+
+    /** Platform mode honours daemon; virtual threads are always daemon threads. */
+    public static Thread start(String name, Runnable task, boolean daemon) {
+        if (isVirtual()) {
+            try {
+                Object builder = BUILDER_NAME.invoke(OF_VIRTUAL.invoke(null), name);
+                return (Thread) BUILDER_START.invoke(builder, task);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        Thread t = new Thread(task, name);
+        t.setDaemon(daemon);
+        t.start();
+        return t;
+    }
+
+    /** Always a daemon platform thread, for loops that block in a selector and would pin a carrier thread. */
+    public static Thread startPlatform(String name, Runnable task) {
+        Thread t = new Thread(task, name);
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+
+    /**
+     * Virtual mode: one new virtual thread per task, no upper bound.
+     * Platform mode: a fixed pool of platformThreads daemon threads.
+     */
+    public static ExecutorService newExecutor(String name, int platformThreads) {
+        if (isVirtual()) {
+            try {
+                return (ExecutorService) THREAD_PER_TASK.invoke(null, factory(name));
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return Executors.newFixedThreadPool(Math.max(1, platformThreads), factory(name));
+    }
+
+    public static ThreadFactory factory(String name) {
+        if (isVirtual()) {
+            try {
+                Object builder = BUILDER_NAME_SEQ.invoke(OF_VIRTUAL.invoke(null), name + "-", 0L);
+                return (ThreadFactory) BUILDER_FACTORY.invoke(builder);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        AtomicInteger seq = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, name + "-" + seq.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
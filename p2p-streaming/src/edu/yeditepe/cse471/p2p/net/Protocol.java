@@ -12,4 +12,5 @@ public final class Protocol {
     public static final long SEEN_MSG_TTL_MS = 60_000;       
     public static final long PEER_TIMEOUT_MS = 15_000;       
     public static final long HELLO_INTERVAL_MS = 5_000;      
+    public static final long HELLO_MIN_GAP_MS = 1_000;       
 }
@@ -0,0 +1,111 @@
+package edu.yeditepe.cse471.p2p.net.catalog;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+final class ChannelResponseSink implements ResponseSink {
+
+    private final SocketChannel chan;
+    private final StringBuilder pending = new StringBuilder();
+    private final List<ByteBuffer> queued = new ArrayList<>();
+    private boolean framed = false;
+    private boolean fileChunkSizes = false;
+
+    ChannelResponseSink(SocketChannel chan) {
+        this.chan = chan;
+    }
+
+    @Override
+    public void println(String line) {
+        pending.append(line).append('\n');
+    }
+
+    @Override
+    public void write(ByteBuffer... bufs) {
+        queueText();
+        for (ByteBuffer b : bufs) queued.add(b);
+    }
+
+    @Override
+    public void send(ByteBuffer[] bufs, Closeable release) throws IOException {
+        try {
+            write(bufs);
+            flush();
+        } finally {
+            if (release != null) release.close();
+        }
+    }
+
+    @Override
+    public void transfer(FileChannel fc, long pos, long len, Closeable release) throws IOException {
+        try {
+            flush();
+            transferFully(fc, pos, len, chan);
+        } finally {
+            if (release != null) release.close();
+        }
+    }
+
+    // Everything queued since the last region goes out in one gathering write.
+    @Override
+    public void flush() throws IOException {
+        queueText();
+        if (queued.isEmpty()) return;
+        ByteBuffer[] bufs = queued.toArray(new ByteBuffer[0]);
+        queued.clear();
+        writeFully(chan, bufs);
+    }
+
+    @Override
+    public void switchToFrames() {
+        framed = true;
+    }
+
+    boolean isFramed() {
+        return framed;
+    }
+
+    @Override
+    public void useFileChunkSizes() {
+        fileChunkSizes = true;
+    }
+
+    @Override
+    public boolean usesFileChunkSizes() {
+        return fileChunkSizes;
+    }
+
+    private void queueText() {
+        if (pending.length() == 0) return;
+        queued.add(ByteBuffer.wrap(pending.toString().getBytes(StandardCharsets.UTF_8)));
+        pending.setLength(0);
+    }
+
+    static void writeFully(SocketChannel chan, ByteBuffer... bufs) throws IOException {
+        long remaining = 0;
+        for (ByteBuffer b : bufs) remaining += b.remaining();
+        while (remaining > 0) {
+            remaining -= chan.write(bufs);
+        }
+    }
+
+    // FileChannel -> socket via sendfile where the OS supports it; the chunk never enters the heap.
+    static void transferFully(FileChannel fc, long offset, long len, SocketChannel chan) throws IOException {
+        long done = 0;
+        while (done < len) {
+            long n = fc.transferTo(offset + done, len - done, chan);
+            if (n <= 0) {
+                if (offset + done >= fc.size()) throw new EOFException("File shrank while serving");
+                continue;
+            }
+            done += n;
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package edu.yeditepe.cse471.p2p.net.catalog;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size-bounded cache of served chunks, kept off-heap in direct ByteBuffer slabs cut into
+ * fixed-size slots; a chunk occupies as many slots as it needs and is sent as a gathering write
+ * of slot slices. Entries are pinned while a response still references them. A file served in two
+ * chunk layouts (see ChunkProtocol.FILE_CHUNKS_OPTION) has separate entries per layout.
+ *
+ * Policy LRU evicts the least recently used entry; LFU looks at the LFU_SAMPLE least recently
+ * used entries and evicts the one with the fewest hits, so a popular chunk survives a scan.
+ * A missed chunk is admitted on its second miss (see admit) or by read-ahead, so a chunk asked
+ * for once is read from disk once.
+ */
+final class ChunkCache {
+
+    enum Policy { LRU, LFU }
+
+    static final int SLOT_BYTES = 64 * 1024;
+    private static final int SLOTS_PER_SLAB = 256;     // 16 MB slabs
+    private static final int LFU_SAMPLE = 8;
+
+    final class Entry implements Closeable {
+        final String key;
+        final int len;
+        final int[] slots;
+        int hits = 0;
+        int refs = 0;
+        boolean evicted = false;
+
+        Entry(String key, int len, int[] slots) {
+            this.key = key;
+            this.len = len;
+            this.slots = slots;
+        }
+
+        ByteBuffer[] buffers() {
+            ByteBuffer[] out = new ByteBuffer[slots.length];
+            int left = len;
+            for (int i = 0; i < slots.length; i++) {
+                int n = Math.min(SLOT_BYTES, left);
+                out[i] = slot(slots[i], n);
+                left -= n;
+            }
+            return out;
+        }
+
+        /**
+         * The pin taken by get or load, as a Closeable that unpins at most once, whichever sink
+         * or error path gets there first.
+         */
+        Closeable lease() {
+            java.util.concurrent.atomic.AtomicBoolean released = new java.util.concurrent.atomic.AtomicBoolean();
+            return () -> {
+                if (released.compareAndSet(false, true)) close();
+            };
+        }
+
+        /** Unpins the entry after its response has been written. */
+        @Override
+        public void close() {
+            synchronized (ChunkCache.this) {
+                if (refs <= 0) return;
+                refs--;
+                if (refs == 0 && evicted) freeSlots(slots);
+            }
+        }
+    }
+
+    private final Policy policy;
+    private final int readAhead;
+    private final ByteBuffer[] slabs;
+    private final int[] freeSlots;
+    private int freeCount;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private final Map<String, Integer> lastIndexByFile = new HashMap<>();
+    private final LinkedHashMap<String, Boolean> ghosts;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong readAheads = new AtomicLong();
+
+    ChunkCache(long capacityBytes, Policy policy, int readAhead) {
+        this.policy = policy;
+        this.readAhead = Math.max(0, readAhead);
+
+        int totalSlots = (int) Math.max(0, Math.min(Integer.MAX_VALUE, capacityBytes / SLOT_BYTES));
+        int slabCount = (totalSlots + SLOTS_PER_SLAB - 1) / SLOTS_PER_SLAB;
+        this.slabs = new ByteBuffer[slabCount];
+        for (int i = 0; i < slabCount; i++) {
+            int n = Math.min(SLOTS_PER_SLAB, totalSlots - i * SLOTS_PER_SLAB);
+            slabs[i] = ByteBuffer.allocateDirect(n * SLOT_BYTES);
+        }
+        this.freeSlots = new int[totalSlots];
+        for (int i = 0; i < totalSlots; i++) freeSlots[i] = totalSlots - 1 - i;
+        this.freeCount = totalSlots;
+
+        int maxGhosts = Math.max(1024, totalSlots);
+        this.ghosts = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > maxGhosts;
+            }
+        };
+    }
+
+    static String key(String fileKey, int chunkSize, int idx) {
+        return fileKey + "#" + chunkSize + ":" + idx;
+    }
+
+    boolean isEnabled() {
+        return freeSlots.length > 0;
+    }
+
+    int getReadAhead() {
+        return readAhead;
+    }
+
+    /** Pinned entry or null; the caller must close() it once the response is out. */
+    synchronized Entry get(String fileKey, int chunkSize, int idx) {
+        Entry e = entries.get(key(fileKey, chunkSize, idx));
+        if (e == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        e.hits++;
+        e.refs++;
+        return e;
+    }
+
+    /**
+     * Called after a miss: true when the same chunk missed recently (it is in the ghost list of
+     * missed keys), so it is worth loading; otherwise remembers the key and returns false.
+     */
+    synchronized boolean admit(String fileKey, int chunkSize, int idx) {
+        String k = key(fileKey, chunkSize, idx);
+        if (ghosts.remove(k) != null) return true;
+        ghosts.put(k, Boolean.TRUE);
+        return false;
+    }
+
+    synchronized boolean contains(String fileKey, int chunkSize, int idx) {
+        return entries.containsKey(key(fileKey, chunkSize, idx));
+    }
+
+    /**
+     * Records the access and reports whether it continues a sequential run on this file
+     * (previous request was idx - 1), which is when read-ahead pays off.
+     */
+    synchronized boolean noteAccess(String fileKey, int chunkSize, int idx) {
+        Integer prev = lastIndexByFile.put(fileKey + "#" + chunkSize, idx);
+        if (lastIndexByFile.size() > 4096) lastIndexByFile.clear();
+        return prev != null && prev == idx - 1;
+    }
+
+    /**
+     * Reads len bytes at offset into cache slots and returns the pinned entry, or null when the
+     * chunk does not fit (everything else pinned). The disk read runs outside the cache lock.
+     */
+    Entry load(String fileKey, int chunkSize, int idx, FileChannel fc, long offset, int len, boolean isReadAhead) throws IOException {
+        String k = key(fileKey, chunkSize, idx);
+        int need = (len + SLOT_BYTES - 1) / SLOT_BYTES;
+        int[] slots;
+
+        synchronized (this) {
+            Entry existing = entries.get(k);
+            if (existing != null) {
+                existing.refs++;
+                return existing;
+            }
+            if (need == 0 || need > freeSlots.length) return null;
+            while (freeCount < need) {
+                if (!evictOne()) return null;
+            }
+            slots = new int[need];
+            for (int i = 0; i < need; i++) slots[i] = freeSlots[--freeCount];
+        }
+
+        try {
+            int left = len;
+            long pos = offset;
+            for (int s : slots) {
+                ByteBuffer b = slot(s, Math.min(SLOT_BYTES, left));
+                while (b.hasRemaining()) {
+                    int r = fc.read(b, pos);
+                    if (r < 0) throw new EOFException("File shrank while caching");
+                    pos += r;
+                    left -= r;
+                }
+            }
+        } catch (IOException e) {
+            synchronized (this) { freeSlots(slots); }
+            throw e;
+        }
+
+        synchronized (this) {
+            Entry existing = entries.get(k);
+            if (existing != null) {
+                freeSlots(slots);
+                existing.refs++;
+                return existing;
+            }
+            Entry e = new Entry(k, len, slots);
+            e.refs++;
+            entries.put(k, e);
+            if (isReadAhead) readAheads.incrementAndGet();
+            return e;
+        }
+    }
+
+    synchronized void invalidateFile(String fileKey) {
+        if (fileKey == null) {
+            invalidateAll();
+            return;
+        }
+        String prefix = fileKey + "#";
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+            Entry e = it.next();
+            if (e.key.startsWith(prefix)) {
+                it.remove();
+                retire(e);
+            }
+        }
+        lastIndexByFile.keySet().removeIf(k -> k.startsWith(prefix));
+        ghosts.keySet().removeIf(k -> k.startsWith(prefix));
+    }
+
+    synchronized void invalidateAll() {
+        List<Entry> all = new ArrayList<>(entries.values());
+        entries.clear();
+        for (Entry e : all) retire(e);
+        lastIndexByFile.clear();
+        ghosts.clear();
+    }
+
+    String stats() {
+        long h = hits.get(), m = misses.get();
+        long total = h + m;
+        long usedBytes;
+        synchronized (this) {
+            usedBytes = (long) (freeSlots.length - freeCount) * SLOT_BYTES;
+        }
+        return "CACHE|policy=" + policy
+                + "|hits=" + h
+                + "|misses=" + m
+                + "|hitRatio=" + (total == 0 ? 0 : (h * 100 / total)) + "%"
+                + "|evictions=" + evictions.get()
+                + "|readAheads=" + readAheads.get()
+                + "|usedBytes=" + usedBytes
+                + "|capacityBytes=" + ((long) freeSlots.length * SLOT_BYTES);
+    }
+
+    private boolean evictOne() {
+        Entry victim = null;
+        int seen = 0;
+        for (Entry e : entries.values()) {
+            if (e.refs > 0) continue;
+            if (victim == null || (policy == Policy.LFU && e.hits < victim.hits)) victim = e;
+            if (policy == Policy.LRU || ++seen >= LFU_SAMPLE) break;
+        }
+        if (victim == null) return false;
+
+        entries.remove(victim.key);
+        retire(victim);
+        evictions.incrementAndGet();
+        return true;
+    }
+
+    private void retire(Entry e) {
+        e.evicted = true;
+        if (e.refs <= 0) freeSlots(e.slots);
+    }
+
+    private void freeSlots(int[] slots) {
+        for (int s : slots) freeSlots[freeCount++] = s;
+    }
+
+    private ByteBuffer slot(int slot, int len) {
+        ByteBuffer slab = slabs[slot / SLOTS_PER_SLAB];
+        int off = (slot % SLOTS_PER_SLAB) * SLOT_BYTES;
+        ByteBuffer b = slab.duplicate();
+        b.limit(off + len).position(off);
+        return b.slice();
+    }
+}
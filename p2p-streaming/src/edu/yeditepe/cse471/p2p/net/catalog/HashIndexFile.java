@@ -0,0 +1,229 @@
+package edu.yeditepe.cse471.p2p.net.catalog;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * On-disk hash cache: one CRC-checked record per hashed file, appended as hashes finish, so a
+ * restarted peer does not hash its library again. A torn tail is cut off on load, and a .lock file
+ * keeps the index to one process.
+ */
+final class HashIndexFile {
+
+    private static final int MAGIC = 0x50324849;   // "P2HI"
+    private static final int VERSION = 1;
+    private static final int HASH_BYTES = edu.yeditepe.cse471.p2p.net.transfer.ChunkVerifier.HASH_BYTES;
+
+    static final class Record {
+        final long size;
+        final long lastModified;
+        final int chunkSize;
+        final byte[] hash;
+        final byte[] chunkHashes;
+        Record(long size, long lastModified, int chunkSize, byte[] hash, byte[] chunkHashes) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.chunkSize = chunkSize;
+            this.hash = hash;
+            this.chunkHashes = chunkHashes;
+        }
+    }
+
+    private static final Map<String, HashIndexFile> OPEN = new HashMap<>();
+
+    private final File file;
+    private final Map<String, Record> records = new LinkedHashMap<>();
+    private FileChannel channel;
+    private FileChannel lockChannel;
+    private FileLock lock;
+    private int written = 0;
+
+    private HashIndexFile(File file) {
+        this.file = file;
+    }
+
+    /** The index at path, loaded on first use; null (no persistence) if it cannot be opened. */
+    static HashIndexFile open(File path) {
+        synchronized (OPEN) {
+            String key = path.getAbsolutePath();
+            HashIndexFile idx = OPEN.get(key);
+            if (idx != null) return idx;
+            try {
+                idx = new HashIndexFile(path.getAbsoluteFile());
+                idx.load();
+            } catch (IOException e) {
+                System.out.println("[hash-index] disabled, cannot open " + key + ": " + e.getMessage());
+                return null;
+            }
+            OPEN.put(key, idx);
+            return idx;
+        }
+    }
+
+    /** Closes the file and releases its lock; the next open() of the path loads it again. */
+    void close() {
+        synchronized (OPEN) {
+            OPEN.remove(file.getAbsolutePath(), this);
+        }
+        synchronized (this) {
+            try {
+                if (channel != null) channel.close();
+                lockChannel.close();
+            } catch (IOException e) {
+                System.out.println("[hash-index] close failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /** Records for files under dir (by path prefix). */
+    synchronized Map<String, Record> under(File dir) {
+        String prefix = dir.getAbsolutePath() + File.separator;
+        Map<String, Record> out = new HashMap<>();
+        for (Map.Entry<String, Record> e : records.entrySet()) {
+            if (e.getKey().startsWith(prefix)) out.put(e.getKey(), e.getValue());
+        }
+        return out;
+    }
+
+    synchronized void put(String path, long size, long lastModified, int chunkSize, byte[] hash, byte[] chunkHashes) {
+        Record r = new Record(size, lastModified, chunkSize, hash, chunkHashes);
+        records.put(path, r);
+        try {
+            ByteBuffer b = encode(path, r);
+            while (b.hasRemaining()) channel.write(b);
+            written++;
+            if (written > 2 * records.size() + 64) compact();
+        } catch (IOException e) {
+            System.out.println("[hash-index] write failed: " + e.getMessage());
+        }
+    }
+
+    private void load() throws IOException {
+        File dir = file.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+        lockExclusive();
+
+        long good = 0;
+        if (file.isFile()) {
+            ByteBuffer b = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+            if (b.remaining() >= 8 && b.getInt() == MAGIC && b.getInt() == VERSION) {
+                good = 8;
+                while (decode(b) != null) {
+                    good = b.position();
+                    written++;
+                }
+            }
+        }
+
+        if (good == 0) {   // missing, foreign or unreadable header: start over
+            rewrite();
+            return;
+        }
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+        channel.truncate(good);
+        channel.position(good);
+        if (written > 2 * records.size() + 64) compact();
+    }
+
+    // Held for the life of the process; released by the OS when it exits.
+    private void lockExclusive() throws IOException {
+        File lockFile = new File(file.getParentFile(), file.getName() + ".lock");
+        lockChannel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            lock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+        if (lock == null) {
+            lockChannel.close();
+            throw new IOException("in use by another process");
+        }
+    }
+
+    // Record: int length, int crc32c(payload), payload = path, size, mtime, chunk size, hash, chunk hashes.
+    private static ByteBuffer encode(String path, Record r) {
+        byte[] p = path.getBytes(StandardCharsets.UTF_8);
+        int payload = 2 + p.length + 8 + 8 + 4 + HASH_BYTES + 4 + r.chunkHashes.length;
+        ByteBuffer b = ByteBuffer.allocate(8 + payload);
+        b.putInt(payload).putInt(0);
+        b.putShort((short) p.length).put(p)
+         .putLong(r.size).putLong(r.lastModified).putInt(r.chunkSize)
+         .put(r.hash).putInt(r.chunkHashes.length / HASH_BYTES).put(r.chunkHashes);
+        CRC32C crc = new CRC32C();
+        crc.update(b.array(), 8, payload);
+        b.putInt(4, (int) crc.getValue());
+        b.flip();
+        return b;
+    }
+
+    // Reads one record into records; null at the end of the data or at a damaged record.
+    private String decode(ByteBuffer b) {
+        if (b.remaining() < 8) return null;
+        int payload = b.getInt();
+        int crcValue = b.getInt();
+        if (payload < 0 || payload > b.remaining()) return null;
+        CRC32C crc = new CRC32C();
+        crc.update(b.array(), b.position(), payload);
+        if ((int) crc.getValue() != crcValue) return null;
+
+        try {
+            byte[] p = new byte[b.getShort() & 0xFFFF];
+            b.get(p);
+            long size = b.getLong();
+            long lm = b.getLong();
+            int chunkSize = b.getInt();
+            byte[] hash = new byte[HASH_BYTES];
+            b.get(hash);
+            byte[] chunkHashes = new byte[b.getInt() * HASH_BYTES];
+            b.get(chunkHashes);
+            String path = new String(p, StandardCharsets.UTF_8);
+            records.put(path, new Record(size, lm, chunkSize, hash, chunkHashes));
+            return path;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    // Drops records of files that are gone and writes the rest to a fresh file.
+    private void compact() throws IOException {
+        records.keySet().removeIf(p -> !new File(p).isFile());
+        rewrite();
+    }
+
+    private void rewrite() throws IOException {
+        if (channel != null) channel.close();
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(8).putInt(MAGIC).putInt(VERSION);
+            header.flip();
+            while (header.hasRemaining()) out.write(header);
+            for (Map.Entry<String, Record> e : records.entrySet()) {
+                ByteBuffer b = encode(e.getKey(), e.getValue());
+                while (b.hasRemaining()) out.write(b);
+            }
+            out.force(false);
+        }
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        written = records.size();
+    }
+}
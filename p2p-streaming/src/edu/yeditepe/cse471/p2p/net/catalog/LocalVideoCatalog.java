@@ -3,106 +3,736 @@ package edu.yeditepe.cse471.p2p.net.catalog;
 import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
+/**
+ * The videos under the root folder with their content hashes, hashed in the background, persisted
+ * in the hash index and kept current from file system change events. listVideos() never waits for
+ * hashing; META and HASHES wait for a file's hash at most -DhashWaitMs.
+ */
 public class LocalVideoCatalog {
     private volatile File rootFolder;
+    private final int fixedChunkSize = Integer.getInteger("chunkSize", 0);
 
     private final Map<String, CachedHash> hashCache = new ConcurrentHashMap<>();
+    // Hashed videos under the current root by absolute path, and content hash -> one such path.
+    private final Map<String, VideoEntry> entries = new ConcurrentHashMap<>();
+    private final Map<String, String> byHash = new ConcurrentHashMap<>();
+
+    // XOR of SHA-256(name:size:hash) over entries, so one change updates it in O(1); guarded by entries.
+    private final byte[] digestSum = new byte[32];
+    private volatile String digest = hex(digestSum);
+    private final AtomicLong version = new AtomicLong();
+    private final List<Runnable> catalogListeners = new CopyOnWriteArrayList<>();
+
+    private final boolean watchEnabled = Boolean.parseBoolean(System.getProperty("catalogWatch", "true"));
+    private final long settleMs = Math.max(0, Long.getLong("catalogSettleMs", 1000));
+    private volatile WatchService watcher;
+    private final long rescanMs = Math.max(0, Long.getLong("catalogRescanSec", 10)) * 1000;
+    private final AtomicBoolean rescanning = new AtomicBoolean();
+    // Videos seen under the root but not hashed yet, by absolute path -> size.
+    private final Map<String, Long> pending = new ConcurrentHashMap<>();
+    // Directories the walks have reached (recursive mode), so only a vanished known one drops entries.
+    private final Set<String> dirs = ConcurrentHashMap.newKeySet();
+    private volatile CompletableFuture<Void> initialScan = CompletableFuture.completedFuture(null);
+
+    private final boolean recursive = Boolean.getBoolean("catalogRecursive");
+    private final ForkJoinPool scanPool;
+
+    // Keyed by absolute path; a file is hashed by at most one job at a time.
+    private final Map<String, CompletableFuture<CachedHash>> hashing = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor hashExec;
+    private final long hashWaitMs = Math.max(0, Long.getLong("hashWaitMs", 1500));
+    private final Map<String, HashFailure> failed = new ConcurrentHashMap<>();
+    private final HashIndexFile hashIndex;
+
+    private static final long HASH_RETRY_MIN_MS = 10_000;
+    private static final long HASH_RETRY_MAX_MS = 600_000;
+
+    // Called with the old hash when a file's size/mtime changed, or with null when the root changed.
+    private final List<Consumer<String>> invalidationListeners = new CopyOnWriteArrayList<>();
 
     private static final class CachedHash {
         final long size;
         final long lastModified;
         final String hash;
-        CachedHash(long size, long lastModified, String hash) {
+        final byte[] chunkHashes;
+        final String chunkRoot;
+        CachedHash(long size, long lastModified, String hash, byte[] chunkHashes) {
             this.size = size;
             this.lastModified = lastModified;
             this.hash = hash;
+            this.chunkHashes = chunkHashes;
+            this.chunkRoot = hex(edu.yeditepe.cse471.p2p.net.transfer.ChunkVerifier.root(chunkHashes));
+        }
+    }
+
+    // Last failed attempt to hash a file in this size/mtime state; no new attempt before retryAt.
+    private static final class HashFailure {
+        final long size;
+        final long lastModified;
+        final long delayMs;
+        final long retryAt;
+        HashFailure(long size, long lastModified, long delayMs) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.delayMs = delayMs;
+            this.retryAt = System.currentTimeMillis() + delayMs;
         }
     }
 
-    public void setRootFolder(File rootFolder) {
+    public LocalVideoCatalog() {
+        int threads = Math.max(1, Integer.getInteger("hashThreads",
+                Math.min(4, Runtime.getRuntime().availableProcessors())));
+        hashExec = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), edu.yeditepe.cse471.p2p.net.NetThreads.factory("catalog-hash"));
+        hashExec.allowCoreThreadTimeOut(true);
+        scanPool = recursive ? new ForkJoinPool(Math.max(1, Integer.getInteger("scanThreads",
+                Math.max(4, 2 * Runtime.getRuntime().availableProcessors())))) : null;
+
+        String index = System.getProperty("hashIndex",
+                new File(System.getProperty("user.home"), ".p2p-streaming" + File.separator + "hash-index.bin").getPath());
+        hashIndex = index.trim().isEmpty() ? null : HashIndexFile.open(new File(index.trim()));
+    }
+
+    /** Switches to rootFolder and starts listing and hashing its videos in the background. */
+    public synchronized void setRootFolder(File rootFolder) {
+        stopWatching();
         this.rootFolder = rootFolder;
+        synchronized (entries) {
+            entries.clear();
+            byHash.clear();
+            pending.clear();
+            dirs.clear();
+            Arrays.fill(digestSum, (byte) 0);
+            digest = hex(digestSum);
+            version.incrementAndGet();
+        }
+        fireCatalogChanged();
+        fireInvalidated(null);
+        if (rootFolder != null) {
+            loadPersisted(rootFolder);
+            if (watchEnabled && rootFolder.isDirectory()) startWatching(rootFolder);
+            if (watcher == null) startRescanning();
+        }
+
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        initialScan = done;
+        edu.yeditepe.cse471.p2p.net.NetThreads.start("catalog-scan", () -> {
+            try {
+                if (this.rootFolder == rootFolder) scan(rootFolder, false);
+            } finally {
+                done.complete(null);
+            }
+        });
+    }
+
+    /** Increases with every change to what listVideos() returns. */
+    public long getCatalogVersion() {
+        return version.get();
+    }
+
+    /** Digest of the listed videos (names, sizes, hashes), advertised in discovery; equal catalogs give equal digests. */
+    public String getCatalogDigest() {
+        return digest;
+    }
+
+    /**
+     * Called after catalog changes, on the thread that made them: once per finished hash, per scan
+     * and per settled batch of file events.
+     */
+    public void addCatalogListener(Runnable listener) {
+        catalogListeners.add(listener);
+    }
+
+    public void removeCatalogListener(Runnable listener) {
+        catalogListeners.remove(listener);
+    }
+
+    private void fireCatalogChanged() {
+        for (Runnable l : catalogListeners) {
+            try { l.run(); } catch (Exception ignored) {}
+        }
+    }
+
+    // Sets (e != null) or removes the listed entry for path and updates version and digest; true if
+    // the listing changed. The caller fires the catalog listeners.
+    private boolean index(String path, VideoEntry e) {
+        if (e != null) pending.remove(path);
+        synchronized (entries) {
+            VideoEntry old = (e == null) ? entries.remove(path) : entries.put(path, e);
+            if (old == null && e == null) return false;
+            if (old != null && e != null && old.name.equals(e.name) && old.size == e.size && old.hash.equals(e.hash)) return false;
+            if (old != null) {
+                byHash.remove(old.hash, path);
+                xorEntry(old);
+            }
+            if (e != null) {
+                byHash.put(e.hash, path);
+                xorEntry(e);
+            }
+            digest = hex(digestSum);
+            version.incrementAndGet();
+        }
+        return true;
+    }
+
+    private void xorEntry(VideoEntry e) {
+        try {
+            byte[] h = MessageDigest.getInstance("SHA-256")
+                    .digest((e.name + ":" + e.size + ":" + e.hash).getBytes(StandardCharsets.UTF_8));
+            for (int i = 0; i < digestSum.length; i++) digestSum[i] ^= h[i];
+        } catch (Exception ignored) {
+        }
+    }
+
+    private void startWatching(File root) {
+        try {
+            WatchService ws = FileSystems.getDefault().newWatchService();
+            root.getAbsoluteFile().toPath().register(ws, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+            watcher = ws;
+            edu.yeditepe.cse471.p2p.net.NetThreads.start("catalog-watch", () -> watchLoop(ws, root.getAbsoluteFile().toPath()));
+        } catch (IOException e) {
+            System.out.println("[catalog] cannot watch " + root.getAbsolutePath() + ", listing it on demand: " + e.getMessage());
+        }
+    }
+
+    // Subdirectories are registered as the walk reaches them (recursive mode only).
+    private void watchDir(Path dir) {
+        WatchService ws = watcher;
+        if (ws == null) return;
+        try {
+            dir.register(ws, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (ClosedWatchServiceException e) {
+            // root changed while walking
+        } catch (IOException e) {
+            // Typically the inotify watch limit: fall back to listing on demand rather than miss changes.
+            System.out.println("[catalog] cannot watch " + dir + ", listing on demand: " + e.getMessage());
+            stopWatching();
+            startRescanning();
+        }
+    }
+
+    // Keeps entries, digest and version current while no watcher is running.
+    private void startRescanning() {
+        if (rescanMs <= 0 || !rescanning.compareAndSet(false, true)) return;
+        edu.yeditepe.cse471.p2p.net.NetThreads.start("catalog-rescan", () -> {
+            try {
+                while (watcher == null && rootFolder != null) {
+                    Thread.sleep(rescanMs);
+                    if (watcher == null) scan(rootFolder, false);
+                }
+            } catch (InterruptedException ignored) {
+            } finally {
+                rescanning.set(false);
+            }
+        });
+    }
+
+    private void stopWatching() {
+        WatchService ws = watcher;
+        watcher = null;
+        if (ws != null) {
+            try { ws.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    private void watchLoop(WatchService ws, Path root) {
+        Map<String, Long> dirty = new HashMap<>();   // path -> time of its last event
+        while (true) {
+            WatchKey key;
+            try {
+                key = dirty.isEmpty() ? ws.take() : ws.poll(settleMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            if (watcher != ws) return;
+
+            long now = System.currentTimeMillis();
+            boolean overflow = false;
+            boolean changed = false;
+            if (key != null) {
+                Path dir = (Path) key.watchable();
+                for (WatchEvent<?> ev : key.pollEvents()) {
+                    if (ev.kind() == StandardWatchEventKinds.OVERFLOW) overflow = true;
+                    else dirty.put(dir.resolve((Path) ev.context()).toString(), now);
+                }
+                if (!key.reset() && dir.equals(root)) overflow = true;   // the root itself went away
+            }
+            if (overflow) {
+                dirty.clear();
+                scan(rootFolder, false);
+                continue;
+            }
+            for (Iterator<Map.Entry<String, Long>> it = dirty.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<String, Long> e = it.next();
+                if (now - e.getValue() >= settleMs) {
+                    it.remove();
+                    changed |= refresh(new File(e.getKey()));
+                }
+            }
+            if (changed) fireCatalogChanged();
+        }
+    }
+
+    // Brings the entry for f in line with the file: listed, queued for hashing, or dropped.
+    // A directory that appeared is walked; one that went away takes its entries with it.
+    // True if the listing changed; the caller fires the catalog listeners.
+    private boolean refresh(File f) {
+        String path = f.getAbsolutePath();
+        if (recursive && f.isDirectory()) {
+            return isUnderRoot(path) && walk(f, false).changed.get();
+        }
+        if (!isUnderRoot(path) || !f.isFile() || !isVideoFile(f.getName())) {
+            pending.remove(path);
+            if (entries.containsKey(path)) return index(path, null);
+            if (recursive && !f.exists() && dirs.remove(path)) {
+                dirs.removeIf(d -> d.startsWith(path + File.separator));
+                return dropUnder(path + File.separator, null);
+            }
+            return false;
+        }
+        long size = f.length();
+        CachedHash c = cached(path, size, f.lastModified());
+        if (c != null) return index(path, new VideoEntry(idOf(path), c.size, c.hash));
+        // Dropped before the hash is queued: a job that finishes first would otherwise be undone.
+        boolean changed = index(path, null);
+        pending.put(path, size);
+        hashAsync(f);
+        return changed;
+    }
+
+    // Drops the entries below prefix that are not in keep (null: all of them) and no longer on disk;
+    // the disk check keeps a file indexed by a concurrent scan or event that this walk missed.
+    private boolean dropUnder(String prefix, Set<String> keep) {
+        pending.keySet().removeIf(path -> path.startsWith(prefix) && (keep == null || !keep.contains(path))
+                && !new File(path).isFile());
+        boolean changed = false;
+        for (String path : entries.keySet()) {
+            if (path.startsWith(prefix) && (keep == null || !keep.contains(path)) && !new File(path).isFile()) {
+                changed |= index(path, null);
+            }
+        }
+        return changed;
+    }
+
+    // Seeds hashCache and byHash from the on-disk index, so hashes resolve before the first scan;
+    // findFileByHash checks each record against the file's size and mtime when it is looked up.
+    private void loadPersisted(File root) {
+        if (hashIndex == null) return;
+        final int hashBytes = edu.yeditepe.cse471.p2p.net.transfer.ChunkVerifier.HASH_BYTES;
+        for (Map.Entry<String, HashIndexFile.Record> e : hashIndex.under(root).entrySet()) {
+            HashIndexFile.Record r = e.getValue();
+            int chunkSize = chunkSizeFor(r.size);
+            if (r.chunkSize != chunkSize
+                    || r.chunkHashes.length != edu.yeditepe.cse471.p2p.net.transfer.ChunkUtil.totalChunks(r.size, chunkSize) * hashBytes) {
+                continue;   // hashed with another -DchunkSize
+            }
+            CachedHash c = new CachedHash(r.size, r.lastModified, hex(r.hash), r.chunkHashes);
+            hashCache.putIfAbsent(e.getKey(), c);
+            if (isUnderRoot(e.getKey())) byHash.putIfAbsent(c.hash, e.getKey());
+        }
+    }
+
+    /** Videos queued or being hashed right now. */
+    public int pendingCount() {
+        return hashing.size();
+    }
+
+    /** True while f is queued or being hashed. */
+    public boolean isHashing(File f) {
+        return f != null && hashing.containsKey(f.getAbsolutePath());
+    }
+
+    /**
+     * Waits up to timeoutMs for the scan started by setRootFolder and for hashing to finish, queueing
+     * every video without a current hash; true if nothing is pending any more.
+     */
+    public boolean awaitIndexed(long timeoutMs) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        try {
+            initialScan.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (Exception ignored) {
+        }
+        listVideos(true);
+        while (!hashing.isEmpty()) {
+            for (CompletableFuture<CachedHash> job : hashing.values()) {
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0) return hashing.isEmpty();
+                try {
+                    job.get(left, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    return false;
+                } catch (Exception ignored) {
+                }
+            }
+        }
+        return true;
+    }
+
+    public void addInvalidationListener(Consumer<String> listener) {
+        invalidationListeners.add(listener);
+    }
+
+    public void removeInvalidationListener(Consumer<String> listener) {
+        invalidationListeners.remove(listener);
+    }
+
+    private void fireInvalidated(String oldHash) {
+        for (Consumer<String> l : invalidationListeners) {
+            try { l.accept(oldHash); } catch (Exception ignored) {}
+        }
     }
 
     public File getRootFolder() {
         return rootFolder;
     }
 
-    public List<VideoEntry> listVideos() {
-        File root = this.rootFolder;
-        if (root == null || !root.isDirectory()) return Collections.emptyList();
+    /** Chunk size this peer serves a file of size bytes with; chunkHashes() use the same split. */
+    public int chunkSizeFor(long size) {
+        return edu.yeditepe.cse471.p2p.net.transfer.ChunkUtil.chunkSizeFor(size, fixedChunkSize);
+    }
 
-        List<VideoEntry> out = new ArrayList<>();
-        File[] files = root.listFiles();
-        if (files == null) return out;
+    /** The videos hashed so far; the others are queued for hashing and left out. */
+    public List<VideoEntry> listVideos() {
+        return listVideos(false);
+    }
 
-        for (File f : files) {
-            if (f.isFile() && isVideoFile(f.getName())) {
-                out.add(new VideoEntry(f.getName(), f.length(), sha256Cached(f)));
+    /**
+     * With includePending, videos still waiting for their hash are listed too, with an empty hash.
+     * Only lists the root folder when no watcher is running.
+     */
+    public List<VideoEntry> listVideos(boolean includePending) {
+        if (watcher == null) return scan(rootFolder, includePending);
+        List<VideoEntry> out = new ArrayList<>(entries.values());
+        if (includePending) {
+            for (Map.Entry<String, Long> p : pending.entrySet()) {
+                if (!entries.containsKey(p.getKey())) out.add(new VideoEntry(idOf(p.getKey()), p.getValue(), ""));
             }
         }
         return out;
     }
 
-    public File findFileByHash(String sha256Hex) {
+    // Lists dir (the whole tree below it in recursive mode) and re-syncs entries under it with what
+    // is on disk, firing the catalog listeners once if anything changed.
+    private List<VideoEntry> scan(File dir, boolean includePending) {
+        if (dir == null || !dir.isDirectory()) return Collections.emptyList();
+        DirScan walk = walk(dir, includePending);
+        if (walk.changed.get()) fireCatalogChanged();
+        return new ArrayList<>(walk.out);
+    }
+
+    private DirScan walk(File dir, boolean includePending) {
+        DirScan walk = new DirScan(dir.getAbsoluteFile().toPath(), includePending,
+                ConcurrentHashMap.newKeySet(), new ConcurrentLinkedQueue<>(), new AtomicBoolean());
+        if (scanPool != null) scanPool.invoke(walk);
+        else walk.invoke();
+
+        if (dropUnder(dir.getAbsolutePath() + File.separator, walk.seen)) walk.changed.set(true);
+        return walk;
+    }
+
+    // One directory: files are checked here, subdirectories become subtasks.
+    @SuppressWarnings("serial")
+    private final class DirScan extends RecursiveAction {
+        private final Path dir;
+        private final boolean includePending;
+        final Set<String> seen;
+        final ConcurrentLinkedQueue<VideoEntry> out;
+        final AtomicBoolean changed;
+
+        DirScan(Path dir, boolean includePending, Set<String> seen, ConcurrentLinkedQueue<VideoEntry> out,
+                AtomicBoolean changed) {
+            this.dir = dir;
+            this.includePending = includePending;
+            this.seen = seen;
+            this.out = out;
+            this.changed = changed;
+        }
+
+        @Override
+        protected void compute() {
+            if (recursive) {
+                dirs.add(dir.toString());
+                watchDir(dir);
+            }
+            List<DirScan> subdirs = new ArrayList<>();
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+                for (Path p : ds) {
+                    BasicFileAttributes a;
+                    try {
+                        a = Files.readAttributes(p, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                        if (a.isSymbolicLink()) {
+                            a = Files.readAttributes(p, BasicFileAttributes.class);
+                            if (a.isDirectory()) continue;
+                        }
+                    } catch (IOException e) {
+                        continue;
+                    }
+                    if (a.isDirectory()) {
+                        if (recursive) subdirs.add(new DirScan(p, includePending, seen, out, changed));
+                    } else if (a.isRegularFile() && isVideoFile(p.getFileName().toString())) {
+                        visit(p.toString(), a.size(), a.lastModifiedTime().toMillis());
+                    }
+                }
+            } catch (IOException e) {
+                return;
+            }
+            if (!subdirs.isEmpty()) invokeAll(subdirs);
+        }
+
+        private void visit(String path, long size, long lastModified) {
+            seen.add(path);
+            if (!isUnderRoot(path)) return;   // root changed while walking
+            CachedHash c = cached(path, size, lastModified);
+            if (c != null) {
+                VideoEntry e = new VideoEntry(idOf(path), c.size, c.hash);
+                if (index(path, e)) changed.set(true);
+                out.add(e);
+                return;
+            }
+            if (index(path, null)) changed.set(true);
+            pending.put(path, size);
+            if (includePending) out.add(new VideoEntry(idOf(path), size, ""));
+            hashAsync(new File(path));
+        }
+    }
+
+    /**
+     * The video under the root named name (as listed: relative path in recursive mode), matched
+     * exactly first and then ignoring case among the listed videos; null if none, if name is not a
+     * valid path or if it points outside the root.
+     */
+    public File findFileByName(String name) {
         File root = this.rootFolder;
-        if (root == null || !root.isDirectory()) return null;
-        if (sha256Hex == null) return null;
+        if (root == null || name == null || name.trim().isEmpty()) return null;
 
+        Path r = root.getAbsoluteFile().toPath().normalize();
+        Path p;
+        try {
+            p = r.resolve(name.trim()).normalize();
+        } catch (InvalidPathException e) {
+            return null;
+        }
+        if (p.startsWith(r) && isUnderRoot(p.toString()) && isVideoFile(p.getFileName().toString())) {
+            File f = p.toFile();
+            if (f.isFile()) return f;
+        }
+        for (Map.Entry<String, VideoEntry> e : entries.entrySet()) {
+            if (e.getValue().name.equalsIgnoreCase(name.trim())) return new File(e.getKey());
+        }
+        return null;
+    }
+
+    // Stable name of a file under the root: its relative path with '/' separators.
+    private String idOf(String path) {
+        File root = this.rootFolder;
+        String prefix = (root == null) ? "" : root.getAbsolutePath() + File.separator;
+        String rel = path.startsWith(prefix) ? path.substring(prefix.length()) : new File(path).getName();
+        return rel.replace(File.separatorChar, '/');
+    }
+
+    /** The file under the root with this content hash: one map lookup plus a stat of the file found. */
+    public File findFileByHash(String sha256Hex) {
+        if (sha256Hex == null) return null;
         String needle = sha256Hex.trim().toLowerCase();
         if (needle.isEmpty()) return null;
 
-        File[] files = root.listFiles();
-        if (files == null) return null;
+        String path = byHash.get(needle);
+        if (path == null) return null;
+        File f = new File(path);
+        CachedHash c = current(f);
+        if (c != null && needle.equals(c.hash)) return f;
 
-        for (File f : files) {
-            if (f.isFile() && isVideoFile(f.getName())) {
-                String h = sha256Cached(f);
-                if (needle.equalsIgnoreCase(h)) return f;
+        // Changed or deleted since it was hashed; another copy of the same content may remain.
+        byHash.remove(needle, path);
+        if (refresh(f)) fireCatalogChanged();
+        for (Map.Entry<String, VideoEntry> e : entries.entrySet()) {
+            if (!needle.equals(e.getValue().hash) || e.getKey().equals(path)) continue;
+            File other = new File(e.getKey());
+            CachedHash oc = current(other);
+            if (oc != null && needle.equals(oc.hash)) {
+                byHash.putIfAbsent(needle, e.getKey());
+                return other;
             }
         }
         return null;
     }
 
+    // Below the root folder: anywhere in recursive mode, directly in it otherwise.
+    private boolean isUnderRoot(String path) {
+        File root = this.rootFolder;
+        if (root == null) return false;
+        String prefix = root.getAbsolutePath() + File.separator;
+        return path.startsWith(prefix) && (recursive || path.indexOf(File.separatorChar, prefix.length()) < 0);
+    }
+
+    /**
+     * SHA-256 of every chunkSizeFor(f.length()) chunk of f, concatenated; computed in the same pass as the
+     * file hash. Null if f cannot be read.
+     */
+    public byte[] chunkHashes(File f) {
+        CachedHash cached = cachedFor(f);
+        return (cached == null) ? null : cached.chunkHashes;
+    }
+
+    /** Hex SHA-256 over chunkHashes(f), advertised in META as the root peers verify the list against. */
+    public String chunkRoot(File f) {
+        CachedHash cached = cachedFor(f);
+        return (cached == null) ? null : cached.chunkRoot;
+    }
+
+    // Unlike listVideos, waits for the hash (up to hashWaitMs): META and HASHES cannot be answered without it.
+    private CachedHash cachedFor(File f) {
+        CachedHash c = current(f);
+        if (c != null) return c;
+        try {
+            return hashAsync(f).get(hashWaitMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
     private boolean isVideoFile(String name) {
         String n = name.toLowerCase();
         return n.endsWith(".mp4") || n.endsWith(".mkv") || n.endsWith(".avi") || n.endsWith(".mov");
     }
 
-    private String sha256Cached(File f) {
-        try {
-            String key = f.getAbsolutePath();
-            long size = f.length();
-            long lm = f.lastModified();
+    /** The hash of f if it matches the file's current size and mtime; otherwise f is queued and null returned. */
+    private CachedHash current(File f) {
+        return current(f, f.length(), f.lastModified());
+    }
 
-            CachedHash cached = hashCache.get(key);
-            if (cached != null && cached.size == size && cached.lastModified == lm) {
-                return cached.hash;
-            }
+    private CachedHash current(File f, long size, long lastModified) {
+        CachedHash c = cached(f.getAbsolutePath(), size, lastModified);
+        if (c == null) hashAsync(f);
+        return c;
+    }
 
-            String h = sha256FileHex(f);
-            hashCache.put(key, new CachedHash(size, lm, h));
-            return h;
-        } catch (Exception e) {
-            return "";
+    private CachedHash cached(String path, long size, long lastModified) {
+        CachedHash c = hashCache.get(path);
+        return (c != null && c.size == size && c.lastModified == lastModified) ? c : null;
+    }
+
+    private CompletableFuture<CachedHash> hashAsync(File f) {
+        String key = f.getAbsolutePath();
+        HashFailure fail = failed.get(key);
+        if (fail != null && System.currentTimeMillis() < fail.retryAt
+                && fail.size == f.length() && fail.lastModified == f.lastModified()) {
+            return CompletableFuture.failedFuture(new IOException("Hashing " + key + " failed, retry later"));
         }
+        return hashing.compute(key, (k, running) -> {
+            if (running != null && !running.isDone()) return running;
+            CompletableFuture<CachedHash> job = new CompletableFuture<>();
+            hashExec.execute(() -> {
+                try {
+                    job.complete(hashNow(f, k));
+                    failed.remove(k);
+                } catch (Throwable t) {
+                    HashFailure prev = failed.get(k);
+                    long delay = (prev == null) ? HASH_RETRY_MIN_MS : Math.min(prev.delayMs * 2, HASH_RETRY_MAX_MS);
+                    failed.put(k, new HashFailure(f.length(), f.lastModified(), delay));
+                    job.completeExceptionally(t);
+                } finally {
+                    hashing.remove(k, job);
+                }
+            });
+            return job;
+        });
     }
 
-    private static String sha256FileHex(File f) throws Exception {
+    private CachedHash hashNow(File f, String key) throws Exception {
+        long size = f.length();
+        long lm = f.lastModified();
+
+        CachedHash cached = hashCache.get(key);
+        if (cached != null && cached.size == size && cached.lastModified == lm) return cached;
+        if (cached != null) fireInvalidated(cached.hash);
+
+        int chunkSize = chunkSizeFor(size);
+        byte[] chunkHashes = new byte[edu.yeditepe.cse471.p2p.net.transfer.ChunkUtil.totalChunks(size, chunkSize)
+                * edu.yeditepe.cse471.p2p.net.transfer.ChunkVerifier.HASH_BYTES];
+        String h = sha256FileHex(f, chunkSize, chunkHashes);
+        CachedHash fresh = new CachedHash(size, lm, h, chunkHashes);
+        hashCache.put(key, fresh);
+        boolean listed = isUnderRoot(key);
+        if (listed && f.lastModified() == lm && index(key, new VideoEntry(idOf(key), size, h))) fireCatalogChanged();
+        if (hashIndex != null) hashIndex.put(key, size, lm, chunkSize, unhex(h), chunkHashes);
+        return fresh;
+    }
+
+    // Whole-file hash plus one hash per chunk into chunkHashes, from a single read of the file.
+    private static String sha256FileHex(File f, int chunkSize, byte[] chunkHashes) throws Exception {
+        final int hashBytes = edu.yeditepe.cse471.p2p.net.transfer.ChunkVerifier.HASH_BYTES;
+
         MessageDigest md = MessageDigest.getInstance("SHA-256");
+        MessageDigest chunkMd = MessageDigest.getInstance("SHA-256");
+        int chunk = 0;
+        int inChunk = 0;
         try (BufferedInputStream in = new BufferedInputStream(new FileInputStream(f))) {
             byte[] buf = new byte[1024 * 1024];
             int r;
             while ((r = in.read(buf)) != -1) {
                 md.update(buf, 0, r);
+                int off = 0;
+                while (off < r) {
+                    int n = Math.min(r - off, chunkSize - inChunk);
+                    chunkMd.update(buf, off, n);
+                    off += n;
+                    inChunk += n;
+                    if (inChunk == chunkSize) {
+                        chunkMd.digest(chunkHashes, chunk++ * hashBytes, hashBytes);
+                        inChunk = 0;
+                    }
+                }
             }
         }
+        if (inChunk > 0) chunkMd.digest(chunkHashes, chunk * hashBytes, hashBytes);
         return hex(md.digest());
     }
 
@@ -111,4 +741,10 @@ public class LocalVideoCatalog {
         for (byte x : b) sb.append(String.format("%02x", x));
         return sb.toString();
     }
+
+    private static byte[] unhex(String s) {
+        byte[] b = new byte[s.length() / 2];
+        for (int i = 0; i < b.length; i++) b[i] = (byte) Integer.parseInt(s.substring(2 * i, 2 * i + 2), 16);
+        return b;
+    }
 }
@@ -0,0 +1,431 @@
+package edu.yeditepe.cse471.p2p.net.catalog;
+
+import edu.yeditepe.cse471.p2p.net.transfer.ChunkProtocol;
+import edu.yeditepe.cse471.p2p.net.transfer.FrameCodec;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Non-blocking mode of TcpControlServer: a fixed set of selector threads, each owning many
+ * connections. The selector threads only read and write. Complete commands are handed, a batch
+ * per connection at a time, to a pool of -DcommandThreads workers (default 16) that run the same
+ * TcpControlServer.dispatch as the blocking mode; a catalog lookup, file open or hash wait there
+ * holds up that one connection, not every connection on the selector. The queued response is
+ * passed back to the selector thread and written when the socket accepts more data.
+ */
+final class NioEventLoop {
+
+    private static final int READ_BUFFER_BYTES = 8 * 1024;
+    private static final int MAX_QUEUED_RESPONSES = 16;
+
+    private final TcpControlServer server;
+    private final ServerSocketChannel serverChannel;
+    private final Worker[] workers;
+    private final ExecutorService commandExec;
+    private int nextWorker = 0;
+
+    private volatile boolean running = false;
+
+    NioEventLoop(TcpControlServer server, ServerSocketChannel serverChannel, int ioThreads) throws IOException {
+        this.server = server;
+        this.serverChannel = serverChannel;
+        this.workers = new Worker[Math.max(1, ioThreads)];
+        for (int i = 0; i < workers.length; i++) workers[i] = new Worker(i);
+        this.commandExec = edu.yeditepe.cse471.p2p.net.NetThreads.newExecutor("tcp-control-cmd",
+                Integer.getInteger("commandThreads", 16));
+    }
+
+    void start() throws IOException {
+        running = true;
+        serverChannel.configureBlocking(false);
+        serverChannel.register(workers[0].selector, SelectionKey.OP_ACCEPT);
+        for (Worker w : workers) {
+            edu.yeditepe.cse471.p2p.net.NetThreads.startPlatform("tcp-control-io-" + w.id, w);
+        }
+    }
+
+    void stop() {
+        running = false;
+        for (Worker w : workers) w.selector.wakeup();
+        commandExec.shutdown();
+    }
+
+    private void acceptAll() {
+        while (true) {
+            SocketChannel ch;
+            try {
+                ch = serverChannel.accept();
+            } catch (IOException e) {
+                return;
+            }
+            if (ch == null) return;
+
+            Worker w = workers[nextWorker];
+            nextWorker = (nextWorker + 1) % workers.length;
+            w.newConnections.add(ch);
+            w.selector.wakeup();
+        }
+    }
+
+    private final class Worker implements Runnable {
+        final int id;
+        final Selector selector;
+        final Queue<SocketChannel> newConnections = new ConcurrentLinkedQueue<>();
+        final Queue<Runnable> completions = new ConcurrentLinkedQueue<>();
+
+        Worker(int id) throws IOException {
+            this.id = id;
+            this.selector = Selector.open();
+        }
+
+        @Override
+        public void run() {
+            long lastIdleCheck = System.currentTimeMillis();
+            try {
+                while (running) {
+                    selector.select(1000);
+
+                    SocketChannel ch;
+                    while ((ch = newConnections.poll()) != null) {
+                        try {
+                            ch.configureBlocking(false);
+                            ch.socket().setTcpNoDelay(true);
+                            Connection c = new Connection(ch, this);
+                            c.key = ch.register(selector, SelectionKey.OP_READ, c);
+                        } catch (IOException e) {
+                            try { ch.close(); } catch (IOException ignored) {}
+                        }
+                    }
+
+                    Runnable done;
+                    while ((done = completions.poll()) != null) done.run();
+
+                    for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext(); ) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        if (!key.isValid()) continue;
+
+                        if (key.isAcceptable()) {
+                            acceptAll();
+                            continue;
+                        }
+
+                        Connection c = (Connection) key.attachment();
+                        try {
+                            if (key.isReadable()) c.onReadable();
+                            if (key.isValid() && key.isWritable()) c.onWritable();
+                        } catch (Exception e) {
+                            c.close();
+                        }
+                    }
+
+                    long now = System.currentTimeMillis();
+                    if (now - lastIdleCheck >= 1000) {
+                        lastIdleCheck = now;
+                        closeIdle(now);
+                    }
+                }
+            } catch (IOException | ClosedSelectorException ignored) {
+            } finally {
+                closeAll();
+            }
+        }
+
+        private void closeIdle(long now) {
+            for (SelectionKey key : selector.keys()) {
+                Object a = key.attachment();
+                if (a instanceof Connection) {
+                    Connection c = (Connection) a;
+                    if (!c.busy && now - c.lastActivityMs > ChunkProtocol.SESSION_IDLE_TIMEOUT_MS) c.close();
+                }
+            }
+        }
+
+        private void closeAll() {
+            try {
+                for (SelectionKey key : selector.keys()) {
+                    Object a = key.attachment();
+                    if (a instanceof Connection) ((Connection) a).close();
+                }
+                selector.close();
+            } catch (Exception ignored) {}
+            SocketChannel ch;
+            while ((ch = newConnections.poll()) != null) {
+                try { ch.close(); } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    private static final class Region {
+        final FileChannel fc;
+        final Closeable release;
+        long pos;
+        long remaining;
+        Region(FileChannel fc, long pos, long len, Closeable release) {
+            this.fc = fc;
+            this.pos = pos;
+            this.remaining = len;
+            this.release = release;
+        }
+    }
+
+    private final class Connection {
+        final SocketChannel ch;
+        final Worker worker;
+        SelectionKey key;
+
+        final ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_BYTES);
+        final ArrayDeque<Object> out = new ArrayDeque<>();
+        long lastActivityMs = System.currentTimeMillis();
+        boolean closed = false;
+        boolean framed = false;
+        boolean fileChunkSizes = false;
+        boolean busy = false;   // a batch of commands is running on the command pool
+
+        Connection(SocketChannel ch, Worker worker) {
+            this.ch = ch;
+            this.worker = worker;
+        }
+
+        void onReadable() throws IOException {
+            int n = ch.read(in);
+            if (n < 0) {
+                close();
+                return;
+            }
+            lastActivityMs = System.currentTimeMillis();
+            pump();
+            if (!closed && !busy && out.isEmpty() && !in.hasRemaining()) throw new IOException("Command line too long");
+        }
+
+        void onWritable() throws IOException {
+            pump();
+        }
+
+        // Writes what is queued; once it is all out, hands the buffered commands to the pool.
+        // Nothing is read while a batch runs, so a pipelining client is held back by TCP.
+        private void pump() throws IOException {
+            if (closed) return;
+            drain();
+            if (out.isEmpty() && !busy) dispatchBuffered();
+            if (closed || !key.isValid()) return;
+            if (!out.isEmpty()) key.interestOps(SelectionKey.OP_WRITE);
+            else key.interestOps(busy ? 0 : SelectionKey.OP_READ);
+        }
+
+        // "in" stays in write mode between calls; complete commands are consumed, the rest is kept.
+        private void dispatchBuffered() throws IOException {
+            List<Object> commands = new ArrayList<>();
+            in.flip();
+            try {
+                while (commands.size() < MAX_QUEUED_RESPONSES) {
+                    if (framed) {
+                        FrameCodec.Request r = new FrameCodec.Request();
+                        if (!r.decode(in)) break;
+                        commands.add(r);
+                        continue;
+                    }
+                    String line = nextLine();
+                    if (line == null) break;
+                    commands.add(line);
+                    if (line.startsWith("SESSION")) break;   // what follows may already be frames
+                }
+            } finally {
+                in.compact();
+            }
+            if (commands.isEmpty()) return;
+
+            busy = true;
+            Batch batch = new Batch(fileChunkSizes);
+            try {
+                commandExec.execute(() -> {
+                    Throwable error = null;
+                    try {
+                        for (Object cmd : commands) {
+                            if (cmd instanceof String) server.dispatch((String) cmd, batch);
+                            else server.dispatchFrame((FrameCodec.Request) cmd, batch);
+                            batch.flush();
+                        }
+                    } catch (Throwable t) {
+                        error = t;
+                    }
+                    Throwable e = error;
+                    worker.completions.add(() -> onBatchDone(batch, e));
+                    worker.selector.wakeup();
+                });
+            } catch (RejectedExecutionException e) {
+                busy = false;
+                close();
+            }
+        }
+
+        private String nextLine() {
+            int start = in.position();
+            for (int i = start; i < in.limit(); i++) {
+                if (in.get(i) != '\n') continue;
+                int end = i;
+                if (end > start && in.get(end - 1) == '\r') end--;
+                String line = new String(in.array(), in.arrayOffset() + start, end - start, StandardCharsets.UTF_8);
+                in.position(i + 1);
+                return line;
+            }
+            return null;
+        }
+
+        // Back on the selector thread.
+        private void onBatchDone(Batch batch, Throwable error) {
+            busy = false;
+            if (closed || error != null) {
+                releaseAll(batch.items);
+                close();
+                return;
+            }
+            out.addAll(batch.items);
+            if (batch.switched) framed = true;
+            fileChunkSizes = batch.fileChunkSizes;
+            lastActivityMs = System.currentTimeMillis();
+            try {
+                pump();
+            } catch (Exception e) {
+                close();
+            }
+        }
+
+        private void drain() throws IOException {
+            while (!out.isEmpty()) {
+                Object head = out.peekFirst();
+
+                if (head instanceof ByteBuffer) {
+                    List<ByteBuffer> run = new ArrayList<>();
+                    for (Object o : out) {
+                        if (!(o instanceof ByteBuffer)) break;
+                        run.add((ByteBuffer) o);
+                    }
+                    if (ch.write(run.toArray(new ByteBuffer[0])) > 0) lastActivityMs = System.currentTimeMillis();
+                    while (!out.isEmpty() && out.peekFirst() instanceof ByteBuffer
+                            && !((ByteBuffer) out.peekFirst()).hasRemaining()) {
+                        out.pollFirst();
+                    }
+                    if (!out.isEmpty() && out.peekFirst() instanceof ByteBuffer) break;
+                    continue;
+                }
+
+                if (head instanceof Closeable) {
+                    out.pollFirst();
+                    closeQuietly((Closeable) head);
+                    continue;
+                }
+
+                Region r = (Region) head;
+                long n = r.fc.transferTo(r.pos, r.remaining, ch);
+                if (n <= 0) {
+                    if (r.pos >= r.fc.size()) throw new EOFException("File shrank while serving");
+                    break;
+                }
+                lastActivityMs = System.currentTimeMillis();
+                r.pos += n;
+                r.remaining -= n;
+                if (r.remaining > 0) break;
+
+                out.pollFirst();
+                closeQuietly(r.release);
+            }
+        }
+
+        void close() {
+            if (closed) return;
+            closed = true;
+            if (key != null) key.cancel();
+            try { ch.close(); } catch (IOException ignored) {}
+            releaseAll(out);
+            out.clear();
+        }
+    }
+
+    /** Response of one batch, built on a command thread and handed to the selector thread when complete. */
+    private static final class Batch implements ResponseSink {
+        final ArrayDeque<Object> items = new ArrayDeque<>();
+        final StringBuilder pendingText = new StringBuilder();
+        boolean switched = false;
+        boolean fileChunkSizes;
+
+        Batch(boolean fileChunkSizes) {
+            this.fileChunkSizes = fileChunkSizes;
+        }
+
+        @Override
+        public void println(String line) {
+            pendingText.append(line).append('\n');
+        }
+
+        @Override
+        public void write(ByteBuffer... bufs) {
+            flush();
+            for (ByteBuffer b : bufs) items.addLast(b);
+        }
+
+        @Override
+        public void send(ByteBuffer[] bufs, Closeable release) {
+            write(bufs);
+            if (release != null) items.addLast(release);
+        }
+
+        @Override
+        public void transfer(FileChannel fc, long pos, long len, Closeable release) {
+            flush();
+            items.addLast(new Region(fc, pos, len, release));
+        }
+
+        @Override
+        public void flush() {
+            if (pendingText.length() == 0) return;
+            items.addLast(ByteBuffer.wrap(pendingText.toString().getBytes(StandardCharsets.UTF_8)));
+            pendingText.setLength(0);
+        }
+
+        @Override
+        public void switchToFrames() {
+            switched = true;
+        }
+
+        @Override
+        public void useFileChunkSizes() {
+            fileChunkSizes = true;
+        }
+
+        @Override
+        public boolean usesFileChunkSizes() {
+            return fileChunkSizes;
+        }
+    }
+
+    private static void releaseAll(Iterable<Object> items) {
+        for (Object o : items) {
+            if (o instanceof Region) closeQuietly(((Region) o).release);
+            else if (o instanceof Closeable) closeQuietly((Closeable) o);
+        }
+    }
+
+    private static void closeQuietly(Closeable c) {
+        if (c == null) return;
+        try { c.close(); } catch (IOException ignored) {}
+    }
+}
@@ -0,0 +1,166 @@
+package edu.yeditepe.cse471.p2p.net.catalog;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Bounded LRU of open read-only FileChannels for served videos, keyed by the id peers ask for
+ * (normally the content hash). Handles are reference counted: an evicted or invalidated channel
+ * is closed only after the last in-flight transfer releases it. Size and mtime are re-checked at
+ * most every REVALIDATE_MS, so a chunk request normally costs one map lookup.
+ */
+final class OpenFileCache {
+
+    private static final long REVALIDATE_MS = 2_000;
+
+    final class Handle implements Closeable {
+        final String key;
+        final File file;
+        final FileChannel channel;
+        final long size;
+        final long lastModified;
+
+        private int refs = 0;
+        private boolean retired = false;
+        private long checkedAtMs;
+
+        Handle(String key, File file, FileChannel channel, long size, long lastModified) {
+            this.key = key;
+            this.file = file;
+            this.channel = channel;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.checkedAtMs = System.currentTimeMillis();
+        }
+
+        /** Takes one more reference, released by another close(). */
+        Handle retain() {
+            synchronized (OpenFileCache.this) {
+                refs++;
+            }
+            return this;
+        }
+
+        /**
+         * One more reference for a response that outlives the caller's; the returned Closeable
+         * releases it at most once, whichever sink or error path gets there first.
+         */
+        Closeable lease() {
+            retain();
+            java.util.concurrent.atomic.AtomicBoolean released = new java.util.concurrent.atomic.AtomicBoolean();
+            return () -> {
+                if (released.compareAndSet(false, true)) close();
+            };
+        }
+
+        /** Releases one acquisition. */
+        @Override
+        public void close() {
+            synchronized (OpenFileCache.this) {
+                refs--;
+                if (refs <= 0 && retired) closeChannel(this);
+            }
+        }
+    }
+
+    private final int maxOpen;
+    private final LinkedHashMap<String, Handle> open;
+    private final Consumer<String> onStale;
+
+    /** onStale is told about keys whose file changed under a cached handle. */
+    OpenFileCache(int maxOpen, Consumer<String> onStale) {
+        this.maxOpen = Math.max(1, maxOpen);
+        this.onStale = onStale;
+        this.open = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Handle> eldest) {
+                if (size() <= OpenFileCache.this.maxOpen) return false;
+                retire(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /** Cached handle for key (refcount taken), or null if it has to be opened. */
+    synchronized Handle acquire(String key) {
+        Handle h = open.get(key);
+        if (h == null) return null;
+
+        long now = System.currentTimeMillis();
+        if (now - h.checkedAtMs > REVALIDATE_MS) {
+            if (!h.file.isFile() || h.file.length() != h.size || h.file.lastModified() != h.lastModified) {
+                open.remove(key);
+                retire(h);
+                if (onStale != null) onStale.accept(key);
+                return null;
+            }
+            h.checkedAtMs = now;
+        }
+
+        h.refs++;
+        return h;
+    }
+
+    Handle open(String key, File file) throws IOException {
+        long lm = file.lastModified();
+        FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        Handle fresh = new Handle(key, file, ch, ch.size(), lm);
+
+        synchronized (this) {
+            Handle existing = open.get(key);
+            if (existing != null && existing.file.equals(file)) {
+                closeChannel(fresh);
+                existing.refs++;
+                return existing;
+            }
+            if (existing != null) retire(existing);
+
+            fresh.refs++;
+            open.put(key, fresh);
+            return fresh;
+        }
+    }
+
+    synchronized void invalidate(String key) {
+        if (key == null) {
+            invalidateAll();
+            return;
+        }
+        Handle h = open.remove(key);
+        if (h != null) retire(h);
+    }
+
+    synchronized void invalidateFile(File file) {
+        for (Iterator<Handle> it = open.values().iterator(); it.hasNext(); ) {
+            Handle h = it.next();
+            if (h.file.equals(file)) {
+                it.remove();
+                retire(h);
+            }
+        }
+    }
+
+    synchronized void invalidateAll() {
+        List<Handle> all = new ArrayList<>(open.values());
+        open.clear();
+        for (Handle h : all) retire(h);
+    }
+
+    private void retire(Handle h) {
+        h.retired = true;
+        if (h.refs <= 0) closeChannel(h);
+    }
+
+    private static void closeChannel(Handle h) {
+        try { h.channel.close(); } catch (IOException ignored) {}
+    }
+}
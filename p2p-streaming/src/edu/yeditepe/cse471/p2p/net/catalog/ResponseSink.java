@@ -0,0 +1,33 @@
+package edu.yeditepe.cse471.p2p.net.catalog;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Where a command response goes. The blocking server writes straight to the socket,
+ * the NIO server queues the pieces and drains them when the socket is writable.
+ */
+interface ResponseSink {
+
+    void println(String line) throws IOException;
+
+    void write(ByteBuffer... bufs) throws IOException;
+
+    /** Gathering write of bufs; release is closed once they have been written (or the connection is). */
+    void send(ByteBuffer[] bufs, Closeable release) throws IOException;
+
+    /** Sends len bytes of fc from pos; release is closed once the bytes are gone (or the connection is). */
+    void transfer(FileChannel fc, long pos, long len, Closeable release) throws IOException;
+
+    void flush() throws IOException;
+
+    /** Every request after the current one arrives, and is answered, as a binary frame (session version 2). */
+    void switchToFrames();
+
+    /** The client opted into per-file chunk sizes (SESSION|v|CHUNKS) for the rest of the connection. */
+    void useFileChunkSizes();
+
+    boolean usesFileChunkSizes();
+}
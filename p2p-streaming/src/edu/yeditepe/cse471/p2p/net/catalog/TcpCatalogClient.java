@@ -1,8 +1,11 @@
 package edu.yeditepe.cse471.p2p.net.catalog;
 
+import edu.yeditepe.cse471.p2p.net.transfer.ProtocolReader;
+
 import java.io.*;
 import java.net.InetAddress;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -15,10 +18,11 @@ public final class TcpCatalogClient {
         try (Socket sock = new Socket(addr, tcpPort)) {
             sock.setSoTimeout(2000);
 
-            PrintWriter pw = new PrintWriter(new OutputStreamWriter(sock.getOutputStream(), "UTF-8"), true);
-            BufferedReader br = new BufferedReader(new InputStreamReader(sock.getInputStream(), "UTF-8"));
+            OutputStream os = sock.getOutputStream();
+            ProtocolReader br = new ProtocolReader(sock.getInputStream());
 
-            pw.println("CATALOG");
+            os.write("CATALOG\n".getBytes(StandardCharsets.UTF_8));
+            os.flush();
 
             String line;
             while ((line = br.readLine()) != null) {
@@ -39,21 +43,21 @@ public final class TcpCatalogClient {
         return out;
     }
     
+    /** True if the peer has the file, whole or (answering PARTIAL) only some of its chunks. */
     public static boolean hasFile(InetAddress addr, int tcpPort, String filename) throws IOException {
         try (Socket sock = new Socket(addr, tcpPort)) {
             sock.setSoTimeout(2000);
 
-            PrintWriter pw = new PrintWriter(new OutputStreamWriter(sock.getOutputStream(), "UTF-8"), true);
-            BufferedReader br = new BufferedReader(new InputStreamReader(sock.getInputStream(), "UTF-8"));
+            OutputStream os = sock.getOutputStream();
+            ProtocolReader br = new ProtocolReader(sock.getInputStream());
 
-            pw.println("HAS|" + filename);
+            os.write(("HAS|" + filename + "\n").getBytes(StandardCharsets.UTF_8));
+            os.flush();
 
             String line = br.readLine();
-            while (true) {
-                String x = br.readLine();
-                if (x == null || "END".equals(x)) break;
-            }
-            return "YES".equalsIgnoreCase(line != null ? line.trim() : "");
+            br.skipToEnd();
+            String r = (line != null) ? line.trim() : "";
+            return "YES".equalsIgnoreCase(r) || r.startsWith("PARTIAL|");
         }
     }
 
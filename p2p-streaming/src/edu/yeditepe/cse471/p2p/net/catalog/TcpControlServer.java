@@ -1,178 +1,457 @@
 package edu.yeditepe.cse471.p2p.net.catalog;
 
+import edu.yeditepe.cse471.p2p.net.NetThreads;
+import edu.yeditepe.cse471.p2p.net.transfer.FrameCodec;
+import edu.yeditepe.cse471.p2p.net.transfer.ProtocolReader;
+import edu.yeditepe.cse471.p2p.net.transfer.SeedRegistry;
+
 import java.io.*;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class TcpControlServer {
 
     private final int tcpPort;
     private final LocalVideoCatalog localCatalog;
 
-    private ServerSocket serverSocket;
+    private static final byte[] DATA_TRAILER = "\nEND\n".getBytes(StandardCharsets.UTF_8);
+
+    private final boolean nioMode;
+    private final int ioThreads;
+    private final int maxSessionVersion = Integer.getInteger("protocolVersion",
+            edu.yeditepe.cse471.p2p.net.transfer.ChunkProtocol.BINARY_VERSION);
+
+    private ServerSocketChannel serverSocket;
     private Thread acceptThread;
+    private NioEventLoop eventLoop;
     private volatile boolean running = false;
 
+    private final OpenFileCache openFiles;
+    private final ChunkCache chunkCache;
+    private volatile ExecutorService readAheadExec;
+    private final java.util.function.Consumer<String> invalidationListener;
+    private volatile SeedRegistry seeds;
+
     public TcpControlServer(int tcpPort, LocalVideoCatalog localCatalog) {
+        this(tcpPort, localCatalog,
+                "nio".equalsIgnoreCase(System.getProperty("serverMode", "blocking")),
+                Integer.getInteger("ioThreads", Math.min(4, Runtime.getRuntime().availableProcessors())));
+    }
+
+    public TcpControlServer(int tcpPort, LocalVideoCatalog localCatalog, boolean nioMode, int ioThreads) {
         this.tcpPort = tcpPort;
         this.localCatalog = localCatalog;
+        this.nioMode = nioMode;
+        this.ioThreads = ioThreads;
+        this.chunkCache = new ChunkCache(
+                Long.getLong("chunkCacheMB", 0) * 1024 * 1024,
+                cachePolicy(System.getProperty("chunkCachePolicy", "LRU")),
+                Integer.getInteger("readAhead", 2));
+        this.openFiles = new OpenFileCache(Integer.getInteger("openFiles", 64), chunkCache::invalidateFile);
+        this.invalidationListener = hash -> {
+            openFiles.invalidate(hash);
+            chunkCache.invalidateFile(hash);
+        };
+    }
+
+    private static ChunkCache.Policy cachePolicy(String name) {
+        try {
+            return ChunkCache.Policy.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.out.println("[chunk-cache] unknown chunkCachePolicy " + name + ", using LRU");
+            return ChunkCache.Policy.LRU;
+        }
+    }
+
+    /** Also serves the downloads in seeds, partial ones chunk by chunk. Call before start(). */
+    public void setSeedRegistry(SeedRegistry seeds) {
+        this.seeds = seeds;
+    }
+
+    public String getCacheStats() {
+        return chunkCache.stats();
     }
 
     public synchronized void start() throws IOException {
         if (running) return;
-        serverSocket = new ServerSocket(tcpPort);
+        serverSocket = ServerSocketChannel.open();
+        serverSocket.bind(new InetSocketAddress(tcpPort));
         running = true;
+        localCatalog.addInvalidationListener(invalidationListener);
+        if (seeds != null) seeds.addInvalidationListener(invalidationListener);
+        if (chunkCache.isEnabled()) {
+            readAheadExec = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(64), NetThreads.factory("chunk-readahead"),
+                    new ThreadPoolExecutor.DiscardPolicy());
+        }
+
+        if (nioMode) {
+            eventLoop = new NioEventLoop(this, serverSocket, ioThreads);
+            eventLoop.start();
+            return;
+        }
 
-        acceptThread = new Thread(this::acceptLoop, "tcp-control-accept");
-        acceptThread.setDaemon(true);
-        acceptThread.start();
+        acceptThread = NetThreads.start("tcp-control-accept", this::acceptLoop);
     }
 
     public synchronized void stop() {
         running = false;
+        if (eventLoop != null) {
+            eventLoop.stop();
+            eventLoop = null;
+        }
         try { if (serverSocket != null) serverSocket.close(); } catch (Exception ignored) {}
+        if (readAheadExec != null) {
+            readAheadExec.shutdownNow();
+            readAheadExec = null;
+        }
+        localCatalog.removeInvalidationListener(invalidationListener);
+        if (seeds != null) seeds.removeInvalidationListener(invalidationListener);
+        openFiles.invalidateAll();
+        chunkCache.invalidateAll();
     }
 
     private void acceptLoop() {
         while (running) {
             try {
-                Socket s = serverSocket.accept();
-                Thread t = new Thread(() -> handleClient(s), "tcp-control-client");
-                t.setDaemon(true);
-                t.start();
+                SocketChannel s = serverSocket.accept();
+                NetThreads.start("tcp-control-client", () -> handleClient(s));
             } catch (IOException e) {
                 break; 
             }
         }
     }
 
-    private void handleClient(Socket s) {
-        try (Socket sock = s;
-        		BufferedReader in = new BufferedReader(new InputStreamReader(sock.getInputStream(), "UTF-8"));
-        		OutputStream rawOut = sock.getOutputStream();
-        		PrintWriter out = new PrintWriter(new OutputStreamWriter(rawOut, "UTF-8"), true);
-        		java.io.DataOutputStream dout = new java.io.DataOutputStream(rawOut);) {
+    private void handleClient(SocketChannel ch) {
+        try (SocketChannel chan = ch;
+        		Socket sock = chan.socket()) {
 
-            String line = in.readLine();
-            if (line == null) return;
-
-            if ("CATALOG".equalsIgnoreCase(line.trim())) {
-                for (VideoEntry ve : localCatalog.listVideos()) {
-                	out.println("VIDEO|" + ve.name + "|" + ve.size + "|" + ve.hash);
+            sock.setSoTimeout(edu.yeditepe.cse471.p2p.net.transfer.ChunkProtocol.SESSION_IDLE_TIMEOUT_MS);
+            ProtocolReader in = new ProtocolReader(sock.getInputStream());
+            ChannelResponseSink out = new ChannelResponseSink(chan);
+            FrameCodec.Request frame = new FrameCodec.Request();
 
+            while (running) {
+                if (out.isFramed()) {
+                    frame.read(in);
+                    dispatchFrame(frame, out);
+                } else {
+                    String line = in.readLine();
+                    if (line == null) break;
+                    dispatch(line, out);
                 }
-                out.println("END");
-                return;
+                out.flush();
             }
-            
-            if (line.startsWith("META|")) {
-            	String[] p = line.split("\\|", 2);
-            	String id = (p.length == 2) ? p[1].trim() : "";
 
-            	java.io.File target = resolveTarget(id);
+        } catch (Exception ignored) {
+        }
+    }
 
+    void dispatch(String line, ResponseSink out) throws IOException {
+        if (line.startsWith("SESSION")) {
+            int version = edu.yeditepe.cse471.p2p.net.transfer.ChunkProtocol.SESSION_VERSION;
+            String[] p = line.split("\\|");
+            if (p.length >= 2) {
+                try {
+                    version = Math.max(version, Math.min(maxSessionVersion, Integer.parseInt(p[1].trim())));
+                } catch (NumberFormatException ignored) {}
+            }
+            boolean fileChunks = false;
+            for (int i = 2; i < p.length; i++) {
+                if (edu.yeditepe.cse471.p2p.net.transfer.ChunkProtocol.FILE_CHUNKS_OPTION.equals(p[i].trim())) fileChunks = true;
+            }
+            if (fileChunks) out.useFileChunkSizes();
+            out.println("OK|SESSION|" + version
+                    + (fileChunks ? "|" + edu.yeditepe.cse471.p2p.net.transfer.ChunkProtocol.FILE_CHUNKS_OPTION : ""));
+            out.println("END");
+            if (version >= edu.yeditepe.cse471.p2p.net.transfer.ChunkProtocol.BINARY_VERSION) out.switchToFrames();
+            return;
+        }
 
-                if (target == null || !target.exists() || !target.isFile()) {
-                    out.println("ERR|NOTFOUND");
-                    out.println("END");
-                    return;
-                }
+        if ("STATS".equalsIgnoreCase(line.trim())) {
+            out.println(chunkCache.stats());
+            out.println("END");
+            return;
+        }
+
+        if ("CATALOG".equalsIgnoreCase(line.trim())) {
+            for (VideoEntry ve : localCatalog.listVideos()) {
+            	out.println("VIDEO|" + ve.name + "|" + ve.size + "|" + ve.hash);
+
+            }
+            out.println("END");
+            return;
+        }
+        
+        if (line.startsWith("META|")) {
+        	String[] p = line.split("\\|", 2);
+        	String id = (p.length == 2) ? p[1].trim() : "";
 
-                long size = target.length();
-                int chunks = edu.yeditepe.cse471.p2p.net.transfer.ChunkUtil.totalChunks(size);
+        	OpenFileCache.Handle target = openTarget(id);
 
-                out.println("SIZE|" + size + "|CHUNKS|" + chunks);
+
+            if (target == null) {
+                out.println("ERR|NOTFOUND");
                 out.println("END");
                 return;
             }
-            
-            
-            if (line.startsWith("GETCHUNK|")) {
-            	
-            	String[] p = line.split("\\|");
-            	if (p.length < 3) {
-            	    out.println("ERR|ARGS");
-            	    out.println("END");
-            	    return;
-            	}
 
-            	String id = p[1].trim();
-            	int idx = Integer.parseInt(p[2].trim());
+            long size = target.size;
+            File file = target.file;
+            target.close();
+            SeedRegistry.Seed seed = seedFor(id, file);
+            if (seed != null) seeds.noteAccess(seed);
+            int chunkSize = chunkSizeOf(id, file, size, out);
+            int chunks = edu.yeditepe.cse471.p2p.net.transfer.ChunkUtil.totalChunks(size, chunkSize);
+
+            // The chunk hashes exist in the file's own layout only.
+            boolean ownLayout = chunkSize == fileChunkSize(seed, size);
+            String root = null;
+            if (ownLayout) {
+                if (seed == null) root = localCatalog.chunkRoot(file);
+                else if (seed.verifier != null) root = seed.verifier.rootHex();
+            }
+            if (ownLayout && seed == null && root == null && localCatalog.isHashing(file)) {
+                out.println("ERR|PENDING");
+                out.println("END");
+                return;
+            }
 
-            	java.io.File target = resolveTarget(id);
+            StringBuilder meta = new StringBuilder("SIZE|" + size + "|CHUNKS|" + chunks);
+            if (root != null) meta.append("|ROOT|").append(root);
+            meta.append("|CHUNK|").append(chunkSize);
+            if (seed != null && !seed.isComplete()) {
+                edu.yeditepe.cse471.p2p.net.transfer.ChunkBitmap have = seed.haveIn(chunkSize);
+                meta.append("|HAVE|").append(have.count()).append("|BITMAP|")
+                    .append(edu.yeditepe.cse471.p2p.net.transfer.ChunkUtil.hex(have.toByteArray()));
+            }
+            out.println(meta.toString());
+            out.println("END");
+            return;
+        }
 
+        if (line.startsWith("HASHES|")) {
+            String[] p = line.split("\\|");
+            int from, count;
+            try {
+                from = Integer.parseInt(p[2].trim());
+                count = Integer.parseInt(p[3].trim());
+            } catch (RuntimeException e) {
+                out.println("ERR|ARGS");
+                out.println("END");
+                return;
+            }
 
-                if (target == null || !target.exists() || !target.isFile()) {
-                    out.println("ERR|NOTFOUND");
-                    out.println("END");
-                    return;
-                }
+            File file = resolveTarget(p[1]);
+            SeedRegistry.Seed seed = seedFor(p[1].trim(), file);
+            boolean ownLayout = file != null
+                    && chunkSizeOf(p[1].trim(), file, file.length(), out) == fileChunkSize(seed, file.length());
+            byte[] hashes;
+            if (!ownLayout) hashes = null;
+            else if (seed == null) hashes = localCatalog.chunkHashes(file);
+            else hashes = (seed.verifier != null) ? seed.verifier.getHashes() : null;
+            if (hashes == null) {
+                out.println((ownLayout && seed == null && localCatalog.isHashing(file)) ? "ERR|PENDING" : "ERR|NOTFOUND");
+                out.println("END");
+                return;
+            }
+
+            int hb = edu.yeditepe.cse471.p2p.net.transfer.ChunkVerifier.HASH_BYTES;
+            int chunks = hashes.length / hb;
+            if (from < 0 || count < 1 || (long) from + count > chunks
+                    || count > edu.yeditepe.cse471.p2p.net.transfer.ChunkProtocol.MAX_HASHES_PER_REQUEST) {
+                out.println("ERR|RANGE");
+                out.println("END");
+                return;
+            }
+
+            out.println("HASHES|" + from + "|" + count);
+            for (int i = from; i < from + count; i++) {
+                out.println(edu.yeditepe.cse471.p2p.net.transfer.ChunkUtil.hex(hashes, i * hb, hb));
+            }
+            out.println("END");
+            return;
+        }
+        
+        
+        if (line.startsWith("GETCHUNK|")) {
+        	
+        	String[] p = line.split("\\|");
+        	if (p.length < 3) {
+        	    out.println("ERR|ARGS");
+        	    out.println("END");
+        	    return;
+        	}
+
+        	String id = p[1].trim();
+        	int idx;
+        	try {
+        	    idx = Integer.parseInt(p[2].trim());
+        	} catch (NumberFormatException e) {
+        	    out.println("ERR|ARGS");
+        	    out.println("END");
+        	    return;
+        	}
+
+        	OpenFileCache.Handle target = openTarget(id);
+
+
+            if (target == null) {
+                out.println("ERR|NOTFOUND");
+                out.println("END");
+                return;
+            }
 
-                long size = target.length();
-                int total = edu.yeditepe.cse471.p2p.net.transfer.ChunkUtil.totalChunks(size);
+            try {
+                int chunkSize = chunkSizeOf(id, target.file, target.size, out);
+                int total = edu.yeditepe.cse471.p2p.net.transfer.ChunkUtil.totalChunks(target.size, chunkSize);
                 if (idx < 0 || idx >= total) {
                     out.println("ERR|RANGE");
                     out.println("END");
                     return;
                 }
+                if (!seedHas(id, target, idx, 1, chunkSize)) {
+                    out.println("ERR|MISSING");
+                    out.println("END");
+                    return;
+                }
 
-                long offset = (long) idx * edu.yeditepe.cse471.p2p.net.transfer.ChunkProtocol.CHUNK_SIZE;
-                int len = (int) Math.min(
-                        edu.yeditepe.cse471.p2p.net.transfer.ChunkProtocol.CHUNK_SIZE,
-                        size - offset
-                );
+                sendChunk(out, target, idx, idx, total, chunkSize, null);
+            } finally {
+                target.close();
+            }
+            return;
+        }
 
-                byte[] buf = new byte[len];
-                try (java.io.RandomAccessFile raf = new java.io.RandomAccessFile(target, "r")) {
-                    raf.seek(offset);
-                    raf.readFully(buf);
-                }
+        if (line.startsWith("GETRANGE|")) {
+            String[] p = line.split("\\|");
+            if (p.length < 4) {
+                out.println("ERR|ARGS");
+                out.println("END");
+                return;
+            }
 
-                byte[] header = ("DATA|" + idx + "|" + len + "\n").getBytes(java.nio.charset.StandardCharsets.UTF_8);
-                rawOut.write(header);
-                rawOut.write(buf);
-                rawOut.write("\nEND\n".getBytes(java.nio.charset.StandardCharsets.UTF_8));
-                rawOut.flush();
+            String id = p[1].trim();
+            int from, to;
+            try {
+                from = Integer.parseInt(p[2].trim());
+                to = Integer.parseInt(p[3].trim());
+            } catch (NumberFormatException e) {
+                out.println("ERR|ARGS");
+                out.println("END");
                 return;
             }
 
+            OpenFileCache.Handle target = openTarget(id);
+            if (target == null) {
+                out.println("ERR|NOTFOUND");
+                out.println("END");
+                return;
+            }
 
-            
-            if (line.startsWith("HAS|")) {
-                String[] p = line.split("\\|", 2);
-                String id = (p.length == 2) ? p[1].trim() : "";
+            try {
+                int chunkSize = chunkSizeOf(id, target.file, target.size, out);
+                int total = edu.yeditepe.cse471.p2p.net.transfer.ChunkUtil.totalChunks(target.size, chunkSize);
+                if (from < 0 || to < from || to >= total
+                        || to - from + 1 > edu.yeditepe.cse471.p2p.net.transfer.ChunkProtocol.MAX_RANGE_CHUNKS) {
+                    out.println("ERR|RANGE");
+                    out.println("END");
+                    return;
+                }
+                if (!seedHas(id, target, from, to - from + 1, chunkSize)) {
+                    out.println("ERR|MISSING");
+                    out.println("END");
+                    return;
+                }
 
-                boolean found;
-                if (isSha256Hex(id)) {
-                    found = (localCatalog.findFileByHash(id) != null);
-                } else {
-                    found = false;
-                    for (VideoEntry ve : localCatalog.listVideos()) {
-                        if (ve != null && ve.name != null && ve.name.equalsIgnoreCase(id)) {
-                            found = true;
-                            break;
-                        }
-                    }
+                out.println("RANGE|" + from + "|" + to);
+                for (int idx = from; idx <= to; idx++) {
+                    sendChunk(out, target, idx, to, total, chunkSize, null);
                 }
+            } finally {
+                target.close();
+            }
+            return;
+        }
 
-                out.println(found ? "YES" : "NO");
-                out.println("END");
-                return;
+
+        
+        if (line.startsWith("HAS|")) {
+            String[] p = line.split("\\|", 2);
+            String id = (p.length == 2) ? p[1].trim() : "";
+
+            boolean found;
+            if (isSha256Hex(id)) {
+                found = (localCatalog.findFileByHash(id) != null);
+            } else {
+                found = (localCatalog.findFileByName(id) != null);
             }
 
+            String reply = found ? "YES" : "NO";
+            SeedRegistry s = seeds;
+            SeedRegistry.Seed seed = (!found && s != null && isSha256Hex(id)) ? s.get(id) : null;
+            if (seed != null && seed.file.isFile()) {
+                if (seed.isComplete()) reply = "YES";
+                else if (seed.have.count() > 0) reply = "PARTIAL|" + seed.have.count() + "|" + seed.have.size();
+            }
 
-            out.println("ERR|UnknownCommand");
+            out.println(reply);
             out.println("END");
+            return;
+        }
 
-        } catch (Exception ignored) {
+
+        out.println("ERR|UnknownCommand");
+        out.println("END");
+    }
+
+    /** Binary counterpart of GETCHUNK and GETRANGE, see FrameCodec. */
+    void dispatchFrame(FrameCodec.Request req, ResponseSink out) throws IOException {
+        if (req.op != FrameCodec.OP_GETCHUNK && req.op != FrameCodec.OP_GETRANGE) {
+            out.write(FrameCodec.errorHeader(req.reqId, req.idx, FrameCodec.STATUS_ARGS));
+            return;
+        }
+        int count = (req.op == FrameCodec.OP_GETRANGE) ? req.count : 1;
+
+        OpenFileCache.Handle target = openTarget(req.id);
+        if (target == null) {
+            out.write(FrameCodec.errorHeader(req.reqId, req.idx, FrameCodec.STATUS_NOTFOUND));
+            return;
+        }
+
+        try {
+            int chunkSize = chunkSizeOf(req.id, target.file, target.size, out);
+            int total = edu.yeditepe.cse471.p2p.net.transfer.ChunkUtil.totalChunks(target.size, chunkSize);
+            if (req.idx < 0 || count < 1 || (long) req.idx + count > total
+                    || count > edu.yeditepe.cse471.p2p.net.transfer.ChunkProtocol.MAX_RANGE_CHUNKS) {
+                out.write(FrameCodec.errorHeader(req.reqId, req.idx, FrameCodec.STATUS_RANGE));
+                return;
+            }
+            if (!seedHas(req.id, target, req.idx, count, chunkSize)) {
+                out.write(FrameCodec.errorHeader(req.reqId, req.idx, FrameCodec.STATUS_MISSING));
+                return;
+            }
+
+            int last = req.idx + count - 1;
+            for (int idx = req.idx; idx <= last; idx++) {
+                sendChunk(out, target, idx, last, total, chunkSize, req);
+            }
+        } finally {
+            target.close();
         }
     }
     
     
     
-    private java.io.File getRootFolderBestEffort() {
-        return localCatalog.getRootFolder();
-    }
     
     
     private static boolean isSha256Hex(String s) {
@@ -189,6 +468,109 @@ public class TcpControlServer {
         return true;
     }
 
+    /**
+     * Writes one DATA block, or the binary DATA frame answering frame, of the request ending at
+     * chunk last: from the chunk cache on a hit or a second miss, otherwise with transferTo.
+     */
+    private void sendChunk(ResponseSink out, OpenFileCache.Handle target, int idx, int last, int total, int chunkSize,
+                           FrameCodec.Request frame) throws IOException {
+        long offset = edu.yeditepe.cse471.p2p.net.transfer.ChunkUtil.chunkOffset(idx, chunkSize);
+        int len = edu.yeditepe.cse471.p2p.net.transfer.ChunkUtil.chunkLength(target.size, chunkSize, idx);
+
+        ChunkCache.Entry cached = null;
+        if (chunkCache.isEnabled()) {
+            boolean sequential = chunkCache.noteAccess(target.key, chunkSize, idx);
+            cached = chunkCache.get(target.key, chunkSize, idx);
+            if (cached == null && chunkCache.admit(target.key, chunkSize, idx)) {
+                cached = chunkCache.load(target.key, chunkSize, idx, target.channel, offset, len, false);
+            }
+            if (sequential && idx == last) scheduleReadAhead(target.key, last, total, chunkSize);
+        }
+
+        if (cached != null) {
+            ByteBuffer[] body = cached.buffers();
+            ByteBuffer[] all = new ByteBuffer[body.length + (frame == null ? 2 : 1)];
+            all[0] = (frame == null) ? textHeader(idx, len) : frameHeader(frame, idx, len, body);
+            System.arraycopy(body, 0, all, 1, body.length);
+            if (frame == null) all[all.length - 1] = ByteBuffer.wrap(DATA_TRAILER);
+            out.send(all, cached.lease());
+            return;
+        }
+
+        if (frame == null) {
+            out.write(textHeader(idx, len));
+            out.transfer(target.channel, offset, len, target.lease());
+            out.write(ByteBuffer.wrap(DATA_TRAILER));
+            return;
+        }
+
+        if (!frame.wantsCrc()) {
+            out.write(frameHeader(frame, idx, len));
+            out.transfer(target.channel, offset, len, target.lease());
+            return;
+        }
+
+        // The checksum needs the bytes, so this one case reads the chunk instead of using transferTo.
+        ByteBuffer body = ByteBuffer.allocate(len);
+        while (body.hasRemaining()) {
+            if (target.channel.read(body, offset + body.position()) < 0) throw new EOFException("File shrank while serving");
+        }
+        body.flip();
+        out.write(frameHeader(frame, idx, len, body), body);
+    }
+
+    private static ByteBuffer textHeader(int idx, int len) {
+        return ByteBuffer.wrap(("DATA|" + idx + "|" + len + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ByteBuffer frameHeader(FrameCodec.Request frame, int idx, int len, ByteBuffer... body) {
+        if (!frame.wantsCrc()) return FrameCodec.dataHeader(frame.reqId, idx, len, (byte) 0, 0);
+        return FrameCodec.dataHeader(frame.reqId, idx, len, FrameCodec.FLAG_CRC, FrameCodec.crc(body));
+    }
+
+    // Chunks after the end of the current request; the request itself is already being served.
+    private void scheduleReadAhead(String fileKey, int last, int total, int chunkSize) {
+        for (int i = 1; i <= chunkCache.getReadAhead(); i++) {
+            int next = last + i;
+            if (next >= total) break;
+            readAheadAsync(fileKey, next, chunkSize);
+        }
+    }
+
+    // Fills the cache off the serving thread; dropped when the queue is full.
+    private void readAheadAsync(String fileKey, int idx, int chunkSize) {
+        ExecutorService exec = readAheadExec;
+        if (exec == null || chunkCache.contains(fileKey, chunkSize, idx)) return;
+        exec.execute(() -> {
+            if (chunkCache.contains(fileKey, chunkSize, idx)) return;
+            try (OpenFileCache.Handle h = openTarget(fileKey)) {
+                if (h == null || !seedHas(fileKey, h, idx, 1, chunkSize)) return;
+                long offset = edu.yeditepe.cse471.p2p.net.transfer.ChunkUtil.chunkOffset(idx, chunkSize);
+                int len = edu.yeditepe.cse471.p2p.net.transfer.ChunkUtil.chunkLength(h.size, chunkSize, idx);
+                ChunkCache.Entry e = chunkCache.load(fileKey, chunkSize, idx, h.channel, offset, len, true);
+                if (e != null) e.close();
+            } catch (Exception ignored) {}
+        });
+    }
+
+    private OpenFileCache.Handle openTarget(String idOrName) throws IOException {
+        if (idOrName == null) return null;
+        String x = idOrName.trim();
+        if (x.isEmpty()) return null;
+
+        String key = isSha256Hex(x) ? x.toLowerCase() : x;
+        OpenFileCache.Handle h = openFiles.acquire(key);
+        if (h != null) return h;
+
+        File target = resolveTarget(x);
+        if (target == null) return null;
+        try {
+            return openFiles.open(key, target);
+        } catch (java.nio.file.NoSuchFileException e) {
+            return null;
+        }
+    }
+
     private File resolveTarget(String idOrName) {
         if (idOrName == null) return null;
         String x = idOrName.trim();
@@ -199,12 +581,46 @@ public class TcpControlServer {
             if (byHash != null) return byHash;
         }
 
-        File root = getRootFolderBestEffort();
-        File byName = (root == null) ? null : new File(root, x);
-        if (byName != null && byName.exists() && byName.isFile()) return byName;
+        File byName = localCatalog.findFileByName(x);
+        if (byName != null) return byName;
+
+        SeedRegistry s = seeds;
+        SeedRegistry.Seed seed = (s != null && isSha256Hex(x)) ? s.get(x) : null;
+        if (seed != null && seed.file.isFile()) return seed.file;
 
         return null;
     }
 
+    /** The seed behind file, if resolveTarget picked a download rather than a root folder file. */
+    private SeedRegistry.Seed seedFor(String id, File file) {
+        SeedRegistry s = seeds;
+        if (s == null || file == null || !isSha256Hex(id)) return null;
+        SeedRegistry.Seed seed = s.get(id);
+        return (seed != null && seed.file.equals(file)) ? seed : null;
+    }
+
+    /**
+     * Chunk size file is served with on this connection: for clients that opted in with
+     * SESSION|v|CHUNKS the download's own for a seed and the catalog's rule otherwise,
+     * ChunkProtocol.CHUNK_SIZE for everyone else.
+     */
+    private int chunkSizeOf(String id, File file, long size, ResponseSink out) {
+        if (!out.usesFileChunkSizes()) return edu.yeditepe.cse471.p2p.net.transfer.ChunkProtocol.CHUNK_SIZE;
+        return fileChunkSize(seedFor(id, file), size);
+    }
+
+    private int fileChunkSize(SeedRegistry.Seed seed, long size) {
+        return (seed != null) ? seed.chunkSize : localCatalog.chunkSizeFor(size);
+    }
+
+    /** False if target is a partial download that lacks part of chunks from..from+count-1 of chunkSize. */
+    private boolean seedHas(String id, OpenFileCache.Handle target, int from, int count, int chunkSize) {
+        SeedRegistry.Seed seed = seedFor(id, target.file);
+        if (seed == null) return true;
+        if (chunkSize == seed.chunkSize) return seed.hasAll(from, count);
+        long offset = edu.yeditepe.cse471.p2p.net.transfer.ChunkUtil.chunkOffset(from, chunkSize);
+        return seed.hasBytes(offset, (long) count * chunkSize);
+    }
+
 
 }
@@ -0,0 +1,209 @@
+package edu.yeditepe.cse471.p2p.net.transfer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * The buffer folder as a cache with a byte quota, one entry per video (its .streaming download,
+ * journal and .complete file). reserve() evicts unpinned entries, LRU or LFU, until a new download
+ * fits; pinned entries (videos being streamed or seeded) are never evicted.
+ */
+public final class BufferFolderCache {
+
+    public enum Policy { LRU, LFU }
+
+    private static final class Entry {
+        final String key;
+        final Set<File> files = new LinkedHashSet<>();
+        long bytes;
+        long hits;
+        int pins;
+        long lastModified;
+        Entry(String key) {
+            this.key = key;
+        }
+    }
+
+    private final File dir;
+    private final long quotaBytes;
+    private final Policy policy;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long usedBytes = 0;
+    private long evictions = 0;
+    private volatile Consumer<File> evictionListener;
+
+    public BufferFolderCache(File dir) {
+        this(dir, Long.getLong("bufferQuotaMB", 0L) * 1024L * 1024L,
+                policy(System.getProperty("bufferEvictionPolicy", "LRU")));
+    }
+
+    private static Policy policy(String name) {
+        try {
+            return Policy.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.out.println("[buffer-cache] unknown bufferEvictionPolicy " + name + ", using LRU");
+            return Policy.LRU;
+        }
+    }
+
+    public BufferFolderCache(File dir, long quotaBytes, Policy policy) {
+        this.dir = dir;
+        this.quotaBytes = Math.max(0, quotaBytes);
+        this.policy = policy;
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        Map<String, Entry> found = new HashMap<>();
+        for (File f : files) {
+            boolean partDir = f.isDirectory() && f.getName().endsWith(".part");
+            if (!f.isFile() && !partDir) continue;
+            Entry e = found.computeIfAbsent(partDir ? f.getName() : keyOf(f.getName()), Entry::new);
+            e.files.add(f);
+            long len = partDir ? sizeOf(f) : f.length();
+            e.bytes += len;
+            e.lastModified = Math.max(e.lastModified, f.lastModified());
+            usedBytes += len;
+        }
+        List<Entry> byAge = new ArrayList<>(found.values());
+        byAge.sort(Comparator.comparingLong(e -> e.lastModified));
+        for (Entry e : byAge) entries.put(e.key, e);
+    }
+
+    private static long sizeOf(File f) {
+        if (f.isFile()) return f.length();
+        long total = 0;
+        File[] children = f.listFiles();
+        if (children != null) for (File c : children) total += sizeOf(c);
+        return total;
+    }
+
+    private static boolean deleteTree(File f) {
+        File[] children = f.isDirectory() ? f.listFiles() : null;
+        if (children != null) for (File c : children) deleteTree(c);
+        return f.delete();
+    }
+
+    /**
+     * Base name a buffer file belongs to: "a.streaming.mp4", "a.streaming.mp4.journal" and
+     * "a.mp4.complete" all map to "a.mp4".
+     */
+    public static String keyOf(String fileName) {
+        String n = fileName;
+        if (n.endsWith(".journal")) n = n.substring(0, n.length() - ".journal".length());
+        if (n.endsWith(".complete")) return n.substring(0, n.length() - ".complete".length());
+        int s = n.lastIndexOf(".streaming");
+        if (s > 0) n = n.substring(0, s) + n.substring(s + ".streaming".length());
+        return n;
+    }
+
+    /** Called with every file removed by eviction, e.g. to stop seeding it. */
+    public void setEvictionListener(Consumer<File> listener) {
+        this.evictionListener = listener;
+    }
+
+    public File getDir() {
+        return dir;
+    }
+
+    /**
+     * Makes room for a video of the given size, registers its files and pins it. An entry that
+     * already exists (a resumed download) is charged only for the growth. Throws if pinned
+     * entries alone leave no room.
+     */
+    public synchronized void reserve(String key, long bytes, File... files) throws IOException {
+        Entry e = entries.get(key);
+        long extra = Math.max(0, bytes - (e == null ? 0 : e.bytes));
+        if (quotaBytes > 0 && usedBytes + extra > quotaBytes) {
+            if (e != null) e.pins++;
+            try {
+                evictFor(extra);
+            } finally {
+                if (e != null) e.pins--;
+            }
+            if (usedBytes + extra > quotaBytes) {
+                throw new IOException("Buffer quota exceeded: need " + extra + " bytes, "
+                        + (quotaBytes - usedBytes) + " free of " + quotaBytes + ", rest is pinned");
+            }
+        }
+        e = entry(key);
+        for (File f : files) e.files.add(f);
+        e.bytes += extra;
+        usedBytes += extra;
+        e.hits++;
+        e.pins++;
+    }
+
+    /** Pins an existing entry (a seeded video); false if the folder holds no such video. */
+    public synchronized boolean pin(String key) {
+        Entry e = entries.get(key);
+        if (e == null) return false;
+        e.pins++;
+        e.hits++;
+        return true;
+    }
+
+    public synchronized void unpin(String key) {
+        Entry e = entries.get(key);
+        if (e != null && e.pins > 0) e.pins--;
+    }
+
+    /** Records a use of the video (for LRU and LFU), moving it away from eviction. */
+    public synchronized void touch(String key) {
+        Entry e = entries.get(key);
+        if (e != null) e.hits++;
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public long getQuotaBytes() {
+        return quotaBytes;
+    }
+
+    public synchronized String stats() {
+        int pinned = 0;
+        for (Entry e : entries.values()) if (e.pins > 0) pinned++;
+        return "BUFFERFOLDER|policy=" + policy + "|used=" + usedBytes + "|quota=" + quotaBytes
+                + "|videos=" + entries.size() + "|pinned=" + pinned + "|evictions=" + evictions;
+    }
+
+    private Entry entry(String key) {
+        return entries.computeIfAbsent(key, Entry::new);
+    }
+
+    private void evictFor(long extra) {
+        while (usedBytes + extra > quotaBytes) {
+            Entry victim = pickVictim();
+            if (victim == null) return;
+            entries.remove(victim.key);
+            usedBytes -= victim.bytes;
+            evictions++;
+            Consumer<File> l = evictionListener;
+            for (File f : victim.files) {
+                if (l != null) l.accept(f);
+                if (f.exists() && !deleteTree(f)) {
+                    System.out.println("[buffer-cache] could not delete " + f);
+                }
+            }
+        }
+    }
+
+    private Entry pickVictim() {
+        Entry best = null;
+        for (Entry e : entries.values()) {
+            if (e.pins > 0) continue;
+            if (policy == Policy.LRU) return e;
+            if (best == null || e.hits < best.hits) best = e;
+        }
+        return best;
+    }
+}
@@ -0,0 +1,100 @@
+package edu.yeditepe.cse471.p2p.net.transfer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of chunk receive buffers (heap by default, direct with -DdirectBuffers=true).
+ * A buffer goes from the socket through verification to the disk write and is then handed back
+ * with release(), so a steady download allocates nothing per chunk.
+ *
+ * Chunk sizes differ per file, so buffers come in power-of-two size classes from minBytes up to
+ * ChunkProtocol.MAX_CHUNK_SIZE, each with its own free list. Idle buffers of all classes together
+ * are capped at maxPooled default-sized chunks worth of bytes; when a class is empty acquire()
+ * allocates, and a buffer that is never released is simply left to the GC.
+ */
+public final class BufferPool {
+
+    private final int minBytes;
+    private final long maxIdleBytes;
+    private final boolean direct;
+    private final List<ArrayDeque<ByteBuffer>> free;
+    private long idleBytes = 0;
+
+    private final AtomicLong allocated = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+
+    public BufferPool() {
+        this(ChunkProtocol.MIN_CHUNK_SIZE, Integer.getInteger("bufferPoolSize", 64), Boolean.getBoolean("directBuffers"));
+    }
+
+    /** minBytes must be a power of two; maxPooled is counted in ChunkProtocol.CHUNK_SIZE buffers. */
+    public BufferPool(int minBytes, int maxPooled, boolean direct) {
+        this.minBytes = Math.max(1, Integer.highestOneBit(minBytes));
+        this.maxIdleBytes = (long) Math.max(0, maxPooled) * ChunkProtocol.CHUNK_SIZE;
+        this.direct = direct;
+        int classes = Math.max(1, Integer.numberOfTrailingZeros(ChunkProtocol.MAX_CHUNK_SIZE)
+                - Integer.numberOfTrailingZeros(this.minBytes) + 1);
+        this.free = new ArrayList<>(classes);
+        for (int i = 0; i < classes; i++) free.add(new ArrayDeque<>());
+    }
+
+    /** A cleared buffer with position 0 and limit len. Larger than MAX_CHUNK_SIZE is allocated unpooled. */
+    public ByteBuffer acquire(int len) {
+        int c = sizeClass(len);
+        ByteBuffer b = null;
+        if (c >= 0) {
+            synchronized (free) {
+                b = free.get(c).pollFirst();
+                if (b != null) idleBytes -= b.capacity();
+            }
+        }
+        if (b != null) {
+            reused.incrementAndGet();
+        } else {
+            allocated.incrementAndGet();
+            int cap = (c >= 0) ? (minBytes << c) : len;
+            b = direct ? ByteBuffer.allocateDirect(cap) : ByteBuffer.allocate(cap);
+        }
+        b.clear().limit(len);
+        return b;
+    }
+
+    /** Returns b to the pool; null and foreign-sized buffers are ignored. b must not be used afterwards. */
+    public void release(ByteBuffer b) {
+        if (b == null || b.isDirect() != direct) return;
+        int c = sizeClass(b.capacity());
+        if (c < 0 || (minBytes << c) != b.capacity()) return;
+        synchronized (free) {
+            if (idleBytes + b.capacity() > maxIdleBytes) return;
+            free.get(c).addFirst(b);
+            idleBytes += b.capacity();
+        }
+    }
+
+    public void releaseAll(ByteBuffer[] bufs) {
+        if (bufs == null) return;
+        for (int i = 0; i < bufs.length; i++) {
+            release(bufs[i]);
+            bufs[i] = null;
+        }
+    }
+
+    public String stats() {
+        long idle;
+        synchronized (free) {
+            idle = idleBytes;
+        }
+        return "BUFFERS|direct=" + direct + "|idleBytes=" + idle + "|allocated=" + allocated.get() + "|reused=" + reused.get();
+    }
+
+    // Index of the smallest class holding len bytes, or -1 if len is beyond the largest class.
+    private int sizeClass(int len) {
+        if (len <= minBytes) return 0;
+        int c = 32 - Integer.numberOfLeadingZeros(len - 1) - Integer.numberOfTrailingZeros(minBytes);
+        return (c < free.size()) ? c : -1;
+    }
+}
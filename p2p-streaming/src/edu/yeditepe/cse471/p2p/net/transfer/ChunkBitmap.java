@@ -0,0 +1,109 @@
+package edu.yeditepe.cse471.p2p.net.transfer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Availability of the chunks of one file: one bit per chunk in a long[] plus a running count,
+ * so progress and completion are O(1) and the missing list is one pass over the words.
+ * Thread-safe; the download writes it while the UI and the control server read it.
+ */
+public final class ChunkBitmap {
+
+    private final int size;
+    private final long[] words;
+    private int count = 0;
+
+    public ChunkBitmap(int size) {
+        if (size < 0) throw new IllegalArgumentException("size < 0");
+        this.size = size;
+        this.words = new long[(size + 63) >>> 6];
+    }
+
+    /** Rebuilds a bitmap from toLongArray() output; bits past size are dropped. */
+    public static ChunkBitmap fromLongArray(int size, long[] src) {
+        ChunkBitmap b = new ChunkBitmap(size);
+        System.arraycopy(src, 0, b.words, 0, Math.min(src.length, b.words.length));
+        if ((size & 63) != 0 && b.words.length > 0) b.words[b.words.length - 1] &= (1L << size) - 1;
+        for (long w : b.words) b.count += Long.bitCount(w);
+        return b;
+    }
+
+    public synchronized long[] toLongArray() {
+        return words.clone();
+    }
+
+    /** Chunk i is bit (i & 7) of byte i >> 3; the form a peer advertises in META. */
+    public synchronized byte[] toByteArray() {
+        byte[] out = new byte[(size + 7) >>> 3];
+        for (int i = 0; i < out.length; i++) out[i] = (byte) (words[i >>> 3] >>> ((i & 7) << 3));
+        return out;
+    }
+
+    public static ChunkBitmap fromByteArray(int size, byte[] src) {
+        long[] w = new long[(size + 63) >>> 6];
+        for (int i = 0; i < src.length && (i >>> 3) < w.length; i++) {
+            w[i >>> 3] |= (src[i] & 0xFFL) << ((i & 7) << 3);
+        }
+        return fromLongArray(size, w);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Marks idx present; returns false if it already was. */
+    public synchronized boolean set(int idx) {
+        checkIndex(idx);
+        long bit = 1L << idx;
+        int w = idx >>> 6;
+        if ((words[w] & bit) != 0) return false;
+        words[w] |= bit;
+        count++;
+        return true;
+    }
+
+    public synchronized boolean get(int idx) {
+        checkIndex(idx);
+        return (words[idx >>> 6] & (1L << idx)) != 0;
+    }
+
+    public synchronized int count() {
+        return count;
+    }
+
+    public synchronized boolean isComplete() {
+        return count == size;
+    }
+
+    /** First missing index at or after from, or -1. */
+    public synchronized int nextMissing(int from) {
+        if (from < 0) from = 0;
+        int w = from >>> 6;
+        if (w >= words.length) return -1;
+        long word = ~words[w] & (-1L << from);
+        while (true) {
+            if (word != 0) {
+                int idx = (w << 6) + Long.numberOfTrailingZeros(word);
+                return (idx < size) ? idx : -1;
+            }
+            if (++w == words.length) return -1;
+            word = ~words[w];
+        }
+    }
+
+    public synchronized List<Integer> missing() {
+        List<Integer> out = new ArrayList<>(size - count);
+        for (int i = nextMissing(0); i >= 0; i = nextMissing(i + 1)) out.add(i);
+        return out;
+    }
+
+    private void checkIndex(int idx) {
+        if (idx < 0 || idx >= size) throw new IndexOutOfBoundsException("chunk " + idx + " of " + size);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ChunkBitmap[" + count + "/" + size + "]";
+    }
+}
@@ -3,34 +3,131 @@ package edu.yeditepe.cse471.p2p.net.transfer;
 import java.io.*;
 import java.net.InetAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import edu.yeditepe.cse471.p2p.net.PeerInfo;
 
 public final class ChunkClient {
     private ChunkClient() {}
 
+    /**
+     * META in the file's own chunk layout: asked inside a SESSION|1|CHUNKS session, so the peer
+     * answers with the chunk size it will also serve on our CHUNKS sessions. A single-shot peer
+     * rejects SESSION and closes the socket; it is asked again with a plain META (CHUNK_SIZE layout).
+     */
     public static Meta fetchMeta(InetAddress addr, int tcpPort, String videoId) throws IOException {
         try (Socket sock = new Socket(addr, tcpPort)) {
             sock.setSoTimeout(ChunkProtocol.SOCKET_TIMEOUT_MS);
 
             OutputStream out = sock.getOutputStream();
-            InputStream in = sock.getInputStream();
+            ProtocolReader in = new ProtocolReader(sock.getInputStream());
+
+            writeLine(out, "SESSION|" + ChunkProtocol.SESSION_VERSION + "|" + ChunkProtocol.FILE_CHUNKS_OPTION);
+            String ok = in.readLine();
+            in.skipToEnd();
+            if (ok != null && ok.startsWith("OK|SESSION")) {
+                writeLine(out, "META|" + videoId);
+                return readMeta(in);
+            }
+        }
 
-            writeLine(out, "META|" + videoId);
+        try (Socket sock = new Socket(addr, tcpPort)) {
+            sock.setSoTimeout(ChunkProtocol.SOCKET_TIMEOUT_MS);
+            ProtocolReader in = new ProtocolReader(sock.getInputStream());
+            writeLine(sock.getOutputStream(), "META|" + videoId);
+            return readMeta(in);
+        }
+    }
+
+    private static Meta readMeta(ProtocolReader in) throws IOException {
+        String line = in.readLine();
+        if (line == null) throw new IOException("No response");
+        if (line.startsWith("ERR|")) throw new IOException(line);
+
+        String[] p = line.split("\\|");
+        long size = Long.parseLong(p[1]);
+        int chunks = Integer.parseInt(p[3]);
+        int chunkSize = ChunkProtocol.CHUNK_SIZE;
+        String root = null;
+        ChunkBitmap have = null;
+        for (int i = 4; i + 1 < p.length; i += 2) {
+            if ("CHUNK".equals(p[i])) {
+                chunkSize = Integer.parseInt(p[i + 1]);
+                if (chunkSize < 1 || chunkSize > ChunkProtocol.MAX_CHUNK_SIZE
+                        || ChunkUtil.totalChunks(size, chunkSize) != chunks) {
+                    throw new IOException("Bad CHUNK in META: " + line);
+                }
+            } else if ("ROOT".equals(p[i])) {
+                root = p[i + 1];
+            } else if ("BITMAP".equals(p[i])) {
+                byte[] bits = new byte[(chunks + 7) >>> 3];
+                if (!ChunkUtil.unhex(p[i + 1], bits, 0, bits.length)) throw new IOException("Bad BITMAP in META");
+                have = ChunkBitmap.fromByteArray(chunks, bits);
+            }
+        }
 
-            String line = readLine(in);
-            if (line == null) throw new IOException("No response");
-            if (line.startsWith("ERR|")) throw new IOException(line);
+        in.skipToEnd();
 
-            String[] p = line.split("\\|");
-            long size = Long.parseLong(p[1]);
-            int chunks = Integer.parseInt(p[3]);
+        return new Meta(size, chunks, chunkSize, root, have);
+    }
 
-            while (true) {
-                String x = readLine(in);
-                if (x == null || "END".equals(x)) break;
+    /**
+     * fetchChunkHashes from each source in turn until one answers with a list matching meta.root;
+     * failures are logged and the next source is tried. Null if none of them had one.
+     */
+    public static ChunkVerifier fetchChunkHashes(List<PeerInfo> sources, String videoId, Meta meta) {
+        for (PeerInfo src : sources) {
+            try {
+                ChunkVerifier v = fetchChunkHashes(src.address, src.tcpPort, videoId, meta);
+                if (v != null) return v;
+                System.out.println("[chunk-hashes] no HASHES from " + src.peerId);
+            } catch (IOException e) {
+                System.out.println("[chunk-hashes] " + src.peerId + ": " + e.getMessage());
             }
+        }
+        return null;
+    }
+
+    /**
+     * Downloads the per-chunk hash list in MAX_HASHES_PER_REQUEST batches over one session and
+     * checks it against meta.root. Returns null if the peer did not advertise a root or does not
+     * know HASHES; throws if the list it sent does not match its own root.
+     */
+    public static ChunkVerifier fetchChunkHashes(InetAddress addr, int tcpPort, String videoId, Meta meta) throws IOException {
+        if (meta.root == null) return null;
 
-            return new Meta(size, chunks);
+        try (Socket sock = new Socket(addr, tcpPort)) {
+            sock.setSoTimeout(ChunkProtocol.SOCKET_TIMEOUT_MS);
+
+            OutputStream out = sock.getOutputStream();
+            ProtocolReader in = new ProtocolReader(sock.getInputStream());
+
+            writeLine(out, "SESSION|" + ChunkProtocol.SESSION_VERSION + "|" + ChunkProtocol.FILE_CHUNKS_OPTION);
+            String ok = in.readLine();
+            in.skipToEnd();
+            if (ok == null || !ok.startsWith("OK|SESSION")) return null;
+
+            int hb = ChunkVerifier.HASH_BYTES;
+            byte[] hashes = new byte[meta.chunks * hb];
+            for (int from = 0; from < meta.chunks; from += ChunkProtocol.MAX_HASHES_PER_REQUEST) {
+                int count = Math.min(ChunkProtocol.MAX_HASHES_PER_REQUEST, meta.chunks - from);
+                writeLine(out, "HASHES|" + videoId + "|" + from + "|" + count);
+
+                String first = in.readLine();
+                if (first == null || !first.startsWith("HASHES|")) {
+                    in.skipToEnd();
+                    return null;
+                }
+                for (int i = 0; i < count; i++) {
+                    if (!ChunkUtil.unhex(in.readLine(), hashes, (from + i) * hb, hb)) {
+                        throw new IOException("Bad chunk hash line from " + addr + " idx=" + (from + i));
+                    }
+                }
+                in.skipToEnd();
+            }
+            return ChunkVerifier.of(hashes, meta.root);
         }
     }
 
@@ -39,64 +136,103 @@ public final class ChunkClient {
             sock.setSoTimeout(ChunkProtocol.SOCKET_TIMEOUT_MS);
 
             OutputStream out = sock.getOutputStream();
-            InputStream in = sock.getInputStream();
+            ProtocolReader in = new ProtocolReader(sock.getInputStream());
 
             writeLine(out, "GETCHUNK|" + videoId + "|" + idx);
 
-            String header = readLine(in);
-            if (header == null) throw new IOException("No response");
-            if (header.startsWith("ERR|")) throw new IOException(header);
-
-            String[] p = header.split("\\|");
-            int len = Integer.parseInt(p[2]);
-
-            byte[] data = readExactly(in, len);
-
-            while (true) {
-                String x = readLine(in);
-                if (x == null) break;
-                if ("END".equals(x)) break;
+            int len = in.readDataHeader();
+            if (len < 0) throw new IOException(in.lastError() + " (idx=" + idx + ")");
+            if (in.lastChunkIndex() != idx) {
+                throw new IOException("DATA for idx=" + in.lastChunkIndex() + " from " + addr + ", asked for idx=" + idx);
             }
 
+            byte[] data = in.readExactly(len);
+            in.skipToEnd();
+
             return data;
         }
     }
 
-    private static void writeLine(OutputStream out, String line) throws IOException {
-        out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
-        out.flush();
+    /** The returned buffer comes from pool.getBufferPool(); hand it back there when done. */
+    public static ByteBuffer fetchChunk(ChunkConnectionPool pool, PeerInfo peer, String videoId, int idx) throws IOException {
+        int[] idxs = { idx };
+        String[] error = new String[1];
+        ByteBuffer[] r = withConnection(pool, peer, videoId, idxs, error, c -> c.fetchChunks(videoId, idxs));
+        if (r[0] == null) throw new IOException(error[0] + " (idx=" + idx + " src=" + peer + ")");
+        return r[0];
     }
 
-    private static String readLine(InputStream in) throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        int b;
-
-        while ((b = in.read()) != -1) {
-            if (b == '\n') break;
-            baos.write(b);
-        }
+    /**
+     * Pipelined fetch over a pooled connection. A reused connection may have been closed by the
+     * peer's idle timeout, so a failure on a reused connection is retried once on a fresh one.
+     */
+    public static ByteBuffer[] fetchChunks(ChunkConnectionPool pool, PeerInfo peer, String videoId, int[] idxs) throws IOException {
+        return withConnection(pool, peer, videoId, idxs, null, c -> c.fetchChunks(videoId, idxs));
+    }
 
-        if (b == -1 && baos.size() == 0) return null;
+    /** Contiguous run from..to (inclusive) in one GETRANGE request; single-shot peers get one GETCHUNK per index. */
+    public static ByteBuffer[] fetchRange(ChunkConnectionPool pool, PeerInfo peer, String videoId, int from, int to) throws IOException {
+        int[] idxs = new int[to - from + 1];
+        for (int i = 0; i < idxs.length; i++) idxs[i] = from + i;
+        return withConnection(pool, peer, videoId, idxs, null, c -> c.fetchRange(videoId, from, to));
+    }
 
-        String s = baos.toString(StandardCharsets.UTF_8);
-        if (s.endsWith("\r")) s = s.substring(0, s.length() - 1); // CRLF tolerans
-        return s;
+    private interface SessionCall {
+        ByteBuffer[] apply(ChunkConnection c) throws IOException;
     }
 
-    private static byte[] readExactly(InputStream in, int len) throws IOException {
-        byte[] buf = new byte[len];
-        int off = 0;
-        while (off < len) {
-            int r = in.read(buf, off, len - off);
-            if (r < 0) throw new EOFException("Unexpected EOF while reading chunk, need=" + len + " got=" + off);
-            off += r;
+    private static ByteBuffer[] withConnection(ChunkConnectionPool pool, PeerInfo peer, String videoId,
+                                           int[] idxs, String[] error, SessionCall call) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            ChunkConnection c = pool.acquire(peer);
+            boolean reused = c.isReused();
+            try {
+                ByteBuffer[] r;
+                if (c.isSession()) {
+                    r = call.apply(c);
+                } else {
+                    r = new ByteBuffer[idxs.length];
+                    try {
+                        for (int i = 0; i < idxs.length; i++) {
+                            if (i > 0) {
+                                pool.release(c);
+                                c = pool.acquire(peer);
+                            }
+                            r[i] = c.fetchChunks(videoId, new int[] { idxs[i] })[0];
+                        }
+                    } catch (IOException e) {
+                        pool.getBufferPool().releaseAll(r);
+                        throw e;
+                    }
+                }
+                if (error != null) error[0] = c.lastError();
+                pool.release(c);
+                return r;
+            } catch (IOException e) {
+                pool.discard(c);
+                if (!reused || attempt > 0) throw e;
+            }
         }
-        return buf;
+    }
+
+    static void writeLine(OutputStream out, String line) throws IOException {
+        out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
     }
 
     public static final class Meta {
         public final long size;
         public final int chunks;
-        public Meta(long size, int chunks) { this.size = size; this.chunks = chunks; }
+        public final int chunkSize;     // per file, CHUNK_SIZE for peers that do not send CHUNK
+        public final String root;   // chunk hash list root, null for peers that do not send one
+        public final ChunkBitmap have;  // chunks a partial seed holds, null when it has the whole file
+        public Meta(long size, int chunks) { this(size, chunks, ChunkProtocol.CHUNK_SIZE, null, null); }
+        public Meta(long size, int chunks, int chunkSize, String root, ChunkBitmap have) {
+            this.size = size;
+            this.chunks = chunks;
+            this.chunkSize = chunkSize;
+            this.root = root;
+            this.have = have;
+        }
     }
 }
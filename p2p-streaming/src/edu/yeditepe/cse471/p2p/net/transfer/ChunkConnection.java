@@ -0,0 +1,304 @@
+package edu.yeditepe.cse471.p2p.net.transfer;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * One TCP connection to a peer's control server. In session mode the socket stays open
+ * across requests and several GETCHUNK lines can be written before the responses are read.
+ * When the peer agrees to session version 2 the connection carries FrameCodec frames instead
+ * of text lines, so no header is formatted or parsed as a String on either side.
+ * Chunk payloads are read into buffers from the pool's BufferPool; callers release them.
+ * Not thread-safe: a connection is used by one fetcher at a time (see ChunkConnectionPool).
+ */
+public final class ChunkConnection implements Closeable {
+
+    public final String peerId;
+
+    private final Socket sock;
+    private final ProtocolReader in;
+    private final OutputStream out;
+    private final boolean session;
+    private final BufferPool buffers;
+    private final Map<String, ChunkConnectionPool.Layout> layouts;
+    private boolean binary = false;
+    private boolean fileChunks = false;
+
+    private volatile long lastUsedMs;
+    private boolean reused = false;
+
+    private final boolean frameCrc = Boolean.getBoolean("frameCrc");
+    private final byte[] responseHeader = new byte[FrameCodec.RESPONSE_HEADER_BYTES];
+    private int nextReqId = 1;
+    private String lastVideoId;
+    private byte[] lastVideoIdBytes;
+    private String lastError;
+
+    private ChunkConnection(String peerId, Socket sock, boolean session, BufferPool buffers,
+                            Map<String, ChunkConnectionPool.Layout> layouts) throws IOException {
+        this.peerId = peerId;
+        this.buffers = buffers;
+        this.layouts = layouts;
+        this.sock = sock;
+        this.in = new ProtocolReader(sock.getInputStream());
+        this.out = sock.getOutputStream();
+        this.session = session;
+        this.lastUsedMs = System.currentTimeMillis();
+    }
+
+    /**
+     * Opens a connection and asks for session mode, offering the binary protocol unless
+     * -DprotocolVersion=1, and per-file chunk sizes (the layout fetchMeta reports). Returns null
+     * when the peer answered with an error (old single-shot server, which closes the socket after
+     * one command); a version 1 peer keeps text framing. layouts (videoId to its layout) bound the
+     * lengths of the chunks received.
+     */
+    static ChunkConnection openSession(String peerId, InetAddress addr, int tcpPort, BufferPool buffers,
+                                       Map<String, ChunkConnectionPool.Layout> layouts) throws IOException {
+        Socket sock = connect(addr, tcpPort);
+        try {
+            ChunkConnection c = new ChunkConnection(peerId, sock, true, buffers, layouts);
+
+            int offered = Integer.getInteger("protocolVersion", ChunkProtocol.BINARY_VERSION);
+            ChunkClient.writeLine(c.out, "SESSION|" + offered + "|" + ChunkProtocol.FILE_CHUNKS_OPTION);
+            String line = c.in.readLine();
+            c.in.skipToEnd();
+
+            if (line == null || !line.startsWith("OK|SESSION")) {
+                sock.close();
+                return null;
+            }
+            String[] p = line.split("\\|");
+            c.binary = p.length > 2 && p[2].equals(String.valueOf(ChunkProtocol.BINARY_VERSION));
+            c.fileChunks = p.length > 3 && p[3].equals(ChunkProtocol.FILE_CHUNKS_OPTION);
+            return c;
+        } catch (IOException e) {
+            sock.close();
+            throw e;
+        }
+    }
+
+    static ChunkConnection openSingleShot(String peerId, InetAddress addr, int tcpPort, BufferPool buffers,
+                                          Map<String, ChunkConnectionPool.Layout> layouts) throws IOException {
+        return new ChunkConnection(peerId, connect(addr, tcpPort), false, buffers, layouts);
+    }
+
+    private static Socket connect(InetAddress addr, int tcpPort) throws IOException {
+        Socket sock = new Socket(addr, tcpPort);
+        sock.setSoTimeout(ChunkProtocol.SOCKET_TIMEOUT_MS);
+        sock.setTcpNoDelay(true);
+        return sock;
+    }
+
+    public boolean isSession() {
+        return session;
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    public boolean isReused() {
+        return reused;
+    }
+
+    long getLastUsedMs() {
+        return lastUsedMs;
+    }
+
+    void markReused() {
+        reused = true;
+    }
+
+    /** The peer's ERR line (text, or the equivalent for an ERR frame) behind the last null slot. */
+    String lastError() {
+        return lastError;
+    }
+
+    public ByteBuffer fetchChunk(String videoId, int idx) throws IOException {
+        ByteBuffer[] r = fetchChunks(videoId, new int[] { idx });
+        if (r[0] == null) throw new IOException(lastError + " (idx=" + idx + " peer=" + peerId + ")");
+        return r[0];
+    }
+
+    /**
+     * Pipelines one GETCHUNK per index, then reads the responses in request order.
+     * Chunks the peer answered with ERR are returned as null; the stream stays in sync.
+     */
+    public ByteBuffer[] fetchChunks(String videoId, int[] idxs) throws IOException {
+        if (!session && idxs.length > 1) throw new IOException("Pipelining needs a session connection");
+        if (binary) return fetchFrames(videoId, FrameCodec.OP_GETCHUNK, idxs[0], idxs);
+
+        StringBuilder sb = new StringBuilder(idxs.length * 48);
+        for (int idx : idxs) {
+            sb.append("GETCHUNK|").append(videoId).append('|').append(idx).append('\n');
+        }
+        out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+        out.flush();
+
+        ByteBuffer[] result = new ByteBuffer[idxs.length];
+        try {
+            for (int i = 0; i < idxs.length; i++) {
+                result[i] = readDataBlock(videoId, idxs[i]);
+            }
+        } catch (IOException e) {
+            buffers.releaseAll(result);
+            throw e;
+        }
+
+        lastUsedMs = System.currentTimeMillis();
+        return result;
+    }
+
+    /**
+     * GETRANGE for the contiguous run from..to (inclusive): one request line, one response stream.
+     * Slots the peer could not serve are null.
+     */
+    public ByteBuffer[] fetchRange(String videoId, int from, int to) throws IOException {
+        if (!session) throw new IOException("GETRANGE needs a session connection");
+        if (binary) {
+            int[] idxs = new int[to - from + 1];
+            for (int i = 0; i < idxs.length; i++) idxs[i] = from + i;
+            return fetchFrames(videoId, FrameCodec.OP_GETRANGE, from, idxs);
+        }
+
+        ChunkClient.writeLine(out, "GETRANGE|" + videoId + "|" + from + "|" + to);
+
+        ByteBuffer[] result = new ByteBuffer[to - from + 1];
+        String first = in.readLine();
+        if (first == null) throw new EOFException("Connection closed by peer " + peerId);
+        if (!first.startsWith("RANGE|")) {
+            lastError = first;
+            in.skipToEnd();
+            lastUsedMs = System.currentTimeMillis();
+            return result;
+        }
+
+        try {
+            for (int i = 0; i < result.length; i++) {
+                result[i] = readDataBlock(videoId, from + i);
+            }
+        } catch (IOException e) {
+            buffers.releaseAll(result);
+            throw e;
+        }
+
+        lastUsedMs = System.currentTimeMillis();
+        return result;
+    }
+
+    /**
+     * Binary variant of fetchChunks/fetchRange. OP_GETCHUNK sends one frame per index and expects
+     * one response each; OP_GETRANGE sends a single frame and expects idxs.length DATA frames or
+     * one ERR frame for the whole run.
+     */
+    private ByteBuffer[] fetchFrames(String videoId, byte op, int from, int[] idxs) throws IOException {
+        byte[] id = videoIdBytes(videoId);
+        byte flags = frameCrc ? FrameCodec.FLAG_CRC : 0;
+        int frames = (op == FrameCodec.OP_GETRANGE) ? 1 : idxs.length;
+        int firstReqId = nextReqId;
+
+        ByteBuffer req = ByteBuffer.allocate(frames * (FrameCodec.REQUEST_HEADER_BYTES + id.length));
+        for (int i = 0; i < frames; i++) {
+            int idx = (op == FrameCodec.OP_GETRANGE) ? from : idxs[i];
+            FrameCodec.putRequest(req, op, flags, nextReqId++, idx, idxs.length / frames, id);
+        }
+        out.write(req.array(), 0, req.position());
+        out.flush();
+
+        ByteBuffer[] result = new ByteBuffer[idxs.length];
+        try {
+            readFrames(videoId, op, firstReqId, idxs, result);
+        } catch (IOException e) {
+            buffers.releaseAll(result);
+            throw e;
+        }
+
+        lastUsedMs = System.currentTimeMillis();
+        return result;
+    }
+
+    private void readFrames(String videoId, byte op, int firstReqId, int[] idxs, ByteBuffer[] result) throws IOException {
+        for (int i = 0; i < idxs.length; i++) {
+            int reqId = (op == FrameCodec.OP_GETRANGE) ? firstReqId : firstReqId + i;
+            in.readFully(responseHeader, 0, responseHeader.length);
+            ByteBuffer h = ByteBuffer.wrap(responseHeader);
+            byte type = h.get();
+            byte rflags = h.get();
+            short status = h.getShort();
+            int rid = h.getInt();
+            int idx = h.getInt();
+            int len = h.getInt();
+            int crc = h.getInt();
+
+            if (rid != reqId) throw new IOException("Frame out of order from " + peerId + ": reqId=" + rid + " expected=" + reqId);
+            if (type == FrameCodec.TYPE_ERR) {
+                lastError = FrameCodec.statusLine(status);
+                if (op == FrameCodec.OP_GETRANGE) break;
+                continue;
+            }
+            if (type != FrameCodec.TYPE_DATA || idx != idxs[i] || len < 0 || len > ChunkProtocol.MAX_CHUNK_SIZE) {
+                throw new IOException("Bad frame from " + peerId + ": type=" + type + " idx=" + idx + " len=" + len);
+            }
+            checkLength(videoId, idx, len);
+
+            ByteBuffer data = buffers.acquire(len);
+            result[i] = data;
+            in.readFully(data, len);
+            data.flip();
+            if ((rflags & FrameCodec.FLAG_CRC) != 0 && FrameCodec.crc(data) != crc) {
+                throw new IOException("CRC mismatch on idx=" + idx + " from " + peerId);
+            }
+        }
+    }
+
+    private byte[] videoIdBytes(String videoId) {
+        if (!videoId.equals(lastVideoId)) {
+            lastVideoId = videoId;
+            lastVideoIdBytes = videoId.getBytes(StandardCharsets.UTF_8);
+        }
+        return lastVideoIdBytes;
+    }
+
+    private ByteBuffer readDataBlock(String videoId, int idx) throws IOException {
+        int len = in.readDataHeader();
+        if (len < 0) {
+            lastError = in.lastError();
+            return null;
+        }
+        if (in.lastChunkIndex() != idx) {
+            throw new IOException("DATA for idx=" + in.lastChunkIndex() + " from " + peerId + ", asked for idx=" + idx);
+        }
+        checkLength(videoId, idx, len);
+
+        ByteBuffer data = buffers.acquire(len);
+        try {
+            in.readFully(data, len);
+            in.skipToEnd();
+        } catch (IOException e) {
+            buffers.release(data);
+            throw e;
+        }
+        data.flip();
+        return data;
+    }
+
+    // Connections without the CHUNKS option get the legacy CHUNK_SIZE layout of the same file.
+    private void checkLength(String videoId, int idx, int len) throws IOException {
+        ChunkConnectionPool.Layout l = layouts.get(videoId);
+        if (l == null) return;
+        int expected = ChunkUtil.chunkLength(l.size, fileChunks ? l.chunkSize : ChunkProtocol.CHUNK_SIZE, idx);
+        if (len != expected) {
+            throw new IOException("DATA for idx=" + idx + " from " + peerId + " has len=" + len + ", expected " + expected);
+        }
+    }
+
+    @Override
+    public void close() {
+        try { sock.close(); } catch (IOException ignored) {}
+    }
+}
@@ -0,0 +1,126 @@
+package edu.yeditepe.cse471.p2p.net.transfer;
+
+import edu.yeditepe.cse471.p2p.net.PeerInfo;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps idle session connections per peer (keyed by PeerInfo.peerId) so that consecutive
+ * chunk requests reuse one TCP connection instead of paying a handshake per chunk.
+ * Peers that do not understand SESSION are remembered and served with single-shot sockets.
+ * Chunks received on these connections land in buffers from getBufferPool(). With a file's
+ * layout set (setLayout), every DATA length is checked against it before a buffer is taken.
+ */
+public final class ChunkConnectionPool implements Closeable {
+
+    private final int maxIdlePerPeer;
+    private final BufferPool buffers;
+    private final Map<String, Deque<ChunkConnection>> idle = new ConcurrentHashMap<>();
+    private final Set<String> singleShotPeers = ConcurrentHashMap.newKeySet();
+    private final Map<String, Layout> layouts = new ConcurrentHashMap<>();
+    private volatile boolean closed = false;
+
+    public ChunkConnectionPool() {
+        this(ChunkProtocol.POOL_MAX_IDLE_PER_PEER);
+    }
+
+    public ChunkConnectionPool(int maxIdlePerPeer) {
+        this(maxIdlePerPeer, new BufferPool());
+    }
+
+    public ChunkConnectionPool(int maxIdlePerPeer, BufferPool buffers) {
+        this.maxIdlePerPeer = Math.max(1, maxIdlePerPeer);
+        this.buffers = buffers;
+    }
+
+    /** Size and per-file chunk size of a video, as its META reported them. */
+    static final class Layout {
+        final long size;
+        final int chunkSize;
+
+        Layout(long size, int chunkSize) {
+            this.size = size;
+            this.chunkSize = chunkSize;
+        }
+    }
+
+    public BufferPool getBufferPool() {
+        return buffers;
+    }
+
+    /** Chunks of videoId must have the lengths this layout gives them (see ChunkUtil.chunkLength). */
+    public void setLayout(String videoId, long size, int chunkSize) {
+        layouts.put(videoId, new Layout(size, chunkSize));
+    }
+
+    public ChunkConnection acquire(PeerInfo peer) throws IOException {
+        if (closed) throw new IOException("Connection pool closed");
+
+        Deque<ChunkConnection> q = idle.get(peer.peerId);
+        if (q != null) {
+            long now = System.currentTimeMillis();
+            while (true) {
+                ChunkConnection c;
+                synchronized (q) { c = q.pollFirst(); }
+                if (c == null) break;
+                if (now - c.getLastUsedMs() > ChunkProtocol.POOL_IDLE_MAX_MS) {
+                    c.close();
+                    continue;
+                }
+                c.markReused();
+                return c;
+            }
+        }
+
+        if (!singleShotPeers.contains(peer.peerId)) {
+            ChunkConnection c = ChunkConnection.openSession(peer.peerId, peer.address, peer.tcpPort, buffers, layouts);
+            if (c != null) return c;
+            singleShotPeers.add(peer.peerId);
+        }
+        return ChunkConnection.openSingleShot(peer.peerId, peer.address, peer.tcpPort, buffers, layouts);
+    }
+
+    public void release(ChunkConnection c) {
+        if (c == null) return;
+        if (closed || !c.isSession()) {
+            c.close();
+            return;
+        }
+
+        Deque<ChunkConnection> q = idle.computeIfAbsent(c.peerId, k -> new ArrayDeque<>());
+        synchronized (q) {
+            if (q.size() < maxIdlePerPeer) {
+                q.addFirst(c);
+                return;
+            }
+        }
+        c.close();
+    }
+
+    public void discard(ChunkConnection c) {
+        if (c != null) c.close();
+    }
+
+    public void closePeer(String peerId) {
+        Deque<ChunkConnection> q = idle.remove(peerId);
+        singleShotPeers.remove(peerId);
+        if (q == null) return;
+        synchronized (q) {
+            for (ChunkConnection c : q) c.close();
+            q.clear();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (String peerId : idle.keySet()) closePeer(peerId);
+        singleShotPeers.clear();
+    }
+}
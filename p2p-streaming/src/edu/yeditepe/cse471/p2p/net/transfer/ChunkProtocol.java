@@ -3,6 +3,26 @@ package edu.yeditepe.cse471.p2p.net.transfer;
 public final class ChunkProtocol {
     private ChunkProtocol() {}
 
-    public static final int CHUNK_SIZE = 256 * 1024; 
+    public static final int CHUNK_SIZE = 256 * 1024;   // assumed when META carries no CHUNK field
+    public static final int MIN_CHUNK_SIZE = 64 * 1024;
+    public static final int MAX_CHUNK_SIZE = 4 * 1024 * 1024;
+    public static final int TARGET_CHUNKS_PER_FILE = 1024;
     public static final int SOCKET_TIMEOUT_MS = 4000;
+
+    public static final int SESSION_VERSION = 1;
+    public static final int BINARY_VERSION = 2;
+    // SESSION|v|CHUNKS: the client reads CHUNK from META and wants each file in its own chunk size.
+    // Connections without it (older peers) are always served in CHUNK_SIZE chunks.
+    public static final String FILE_CHUNKS_OPTION = "CHUNKS";
+    public static final int SESSION_IDLE_TIMEOUT_MS = 60_000;
+    public static final long POOL_IDLE_MAX_MS = 30_000;
+    public static final int POOL_MAX_IDLE_PER_PEER = 4;
+
+    public static final int MAX_IN_FLIGHT_DEFAULT = 16;
+    public static final int PER_SOURCE_IN_FLIGHT_DEFAULT = 4;
+
+    public static final int MAX_RANGE_CHUNKS = 64;
+    public static final int RANGE_WINDOW_DEFAULT = 8;
+
+    public static final int MAX_HASHES_PER_REQUEST = 4096;
 }
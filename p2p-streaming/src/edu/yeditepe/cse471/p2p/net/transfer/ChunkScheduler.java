@@ -0,0 +1,269 @@
+package edu.yeditepe.cse471.p2p.net.transfer;
+
+import edu.yeditepe.cse471.p2p.net.NetThreads;
+import edu.yeditepe.cse471.p2p.net.PeerInfo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Multi-source download engine. Keeps up to maxInFlight chunk requests outstanding across all
+ * sources (at most perSourceLimit per source), picks the least loaded source for each chunk and
+ * requeues failed chunks on a different source. Chunks are handed to the sink on the calling
+ * thread, so the sink does not need to be thread-safe.
+ *
+ * With a ChunkVerifier set, every chunk is hashed on the fetch thread that received it; a chunk
+ * that fails is refetched from another source, and its sender is treated as dead for the rest
+ * of the run.
+ *
+ * Sources given a ChunkBitmap with setAvailability (partial seeds) are only asked for chunks
+ * they have. A chunk that no live source has is skipped, and run() returns it as unavailable.
+ */
+public final class ChunkScheduler {
+
+    /**
+     * Receives each chunk once. data comes from the pool's BufferPool and belongs to the sink,
+     * which hands it back with BufferPool.release when it no longer needs the bytes.
+     */
+    public interface ChunkSink {
+        void onChunk(int idx, ByteBuffer data, PeerInfo src) throws IOException;
+    }
+
+    private static final int MAX_SOURCE_FAILURES = 3;
+
+    private final ChunkConnectionPool pool;
+    private final String videoId;
+    private final List<PeerInfo> sources;
+    private final int maxInFlight;
+    private final int perSourceLimit;
+    private final int rangeWindow;
+
+    private final int[] load;
+    private final int[] failures;
+    private final ChunkBitmap[] available;
+    private int rr = 0;
+
+    private volatile ChunkVerifier verifier;
+    private int corruptChunks = 0;
+
+    public ChunkScheduler(ChunkConnectionPool pool, String videoId, List<PeerInfo> sources,
+                          int maxInFlight, int perSourceLimit) {
+        this(pool, videoId, sources, maxInFlight, perSourceLimit, ChunkProtocol.RANGE_WINDOW_DEFAULT);
+    }
+
+    /**
+     * @param maxInFlight    chunks outstanding across all sources
+     * @param perSourceLimit requests outstanding per source (one pooled connection each)
+     * @param rangeWindow    longest run of adjacent chunks asked for with one GETRANGE
+     */
+    public ChunkScheduler(ChunkConnectionPool pool, String videoId, List<PeerInfo> sources,
+                          int maxInFlight, int perSourceLimit, int rangeWindow) {
+        if (sources == null || sources.isEmpty()) throw new IllegalArgumentException("No sources");
+        this.pool = pool;
+        this.videoId = videoId;
+        this.sources = List.copyOf(sources);
+        this.perSourceLimit = Math.max(1, perSourceLimit);
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.rangeWindow = Math.max(1, Math.min(rangeWindow, ChunkProtocol.MAX_RANGE_CHUNKS));
+        this.load = new int[this.sources.size()];
+        this.failures = new int[this.sources.size()];
+        this.available = new ChunkBitmap[this.sources.size()];
+    }
+
+    /** Chunks source can serve; null (the default) means all of them. */
+    public void setAvailability(PeerInfo source, ChunkBitmap have) {
+        int s = sources.indexOf(source);
+        if (s >= 0) available[s] = have;
+    }
+
+    public void setVerifier(ChunkVerifier verifier) {
+        this.verifier = verifier;
+    }
+
+    /** Chunks rejected by the verifier so far, over all runs. */
+    public int getCorruptChunks() {
+        return corruptChunks;
+    }
+
+    private static final class Result {
+        final int from;
+        final int src;
+        final ByteBuffer[] data;
+        final Exception err;
+        final int corrupt;
+        Result(int from, int count, int src, ByteBuffer[] data, Exception err, int corrupt) {
+            this.from = from;
+            this.src = src;
+            this.data = (data != null) ? data : new ByteBuffer[count];
+            this.err = err;
+            this.corrupt = corrupt;
+        }
+    }
+
+    /**
+     * Fetches every index in order (dispatch order, completion order may differ) and returns when
+     * all of them reached the sink, except the returned ones: chunks no live source has (their
+     * holders all dead, or only partial seeds without them). Runs of adjacent indices (the
+     * sequential head of a stream) are requested as one GETRANGE window. Throws if a chunk failed
+     * on every live source.
+     */
+    public List<Integer> run(List<Integer> order, ChunkSink sink) throws IOException, InterruptedException {
+        List<Integer> unavailable = new ArrayList<>();
+        if (order.isEmpty()) return unavailable;
+
+        Deque<Integer> pending = new ArrayDeque<>(order);
+        Map<Integer, Integer> attempts = new HashMap<>();
+        Map<Integer, Integer> lastFailedSource = new HashMap<>();
+        BlockingQueue<Result> done = new LinkedBlockingQueue<>();
+
+        ExecutorService exec = NetThreads.newExecutor("chunk-fetch", Math.min(maxInFlight, perSourceLimit * sources.size()));
+
+        int inFlight = 0;
+        try {
+            while (!pending.isEmpty() || inFlight > 0) {
+                while (inFlight < maxInFlight && !pending.isEmpty()) {
+                    int from = pending.peekFirst();
+                    if (!anyLiveHas(from)) {
+                        unavailable.add(pending.pollFirst());
+                        continue;
+                    }
+                    int s = pickSource(lastFailedSource.getOrDefault(from, -1), from);
+                    if (s < 0) break;
+
+                    pending.pollFirst();
+                    int count = 1;
+                    if (!lastFailedSource.containsKey(from)) {
+                        while (count < rangeWindow && inFlight + count < maxInFlight
+                                && !pending.isEmpty() && pending.peekFirst() == from + count
+                                && !lastFailedSource.containsKey(from + count) && has(s, from + count)) {
+                            pending.pollFirst();
+                            count++;
+                        }
+                    }
+
+                    load[s]++;
+                    inFlight += count;
+
+                    PeerInfo src = sources.get(s);
+                    ChunkVerifier v = verifier;
+                    int n = count;
+                    exec.execute(() -> {
+                        try {
+                            ByteBuffer[] data = (n == 1)
+                                    ? new ByteBuffer[] { ChunkClient.fetchChunk(pool, src, videoId, from) }
+                                    : ChunkClient.fetchRange(pool, src, videoId, from, from + n - 1);
+                            int bad = (v == null) ? 0 : v.reject(from, data, pool.getBufferPool());
+                            Exception err = (bad == 0) ? null : new IOException(bad + " corrupt chunk(s) from " + src.peerId);
+                            done.add(new Result(from, n, s, data, err, bad));
+                        } catch (Exception ex) {
+                            done.add(new Result(from, n, s, null, ex, 0));
+                        }
+                    });
+                }
+
+                if (inFlight == 0 && pending.isEmpty()) break;
+                if (inFlight == 0) {
+                    throw new IOException("No live sources left, " + pending.size() + " chunks pending");
+                }
+
+                Result r = done.take();
+                inFlight -= r.data.length;
+                load[r.src]--;
+
+                boolean anyFailed = false;
+                for (int i = r.data.length - 1; i >= 0; i--) {
+                    int idx = r.from + i;
+                    if (r.data[i] != null) continue;
+
+                    anyFailed = true;
+                    int n = attempts.merge(idx, 1, Integer::sum);
+                    if (n >= Math.max(2, sources.size() * 2)) {
+                        pool.getBufferPool().releaseAll(r.data);
+                        throw new IOException("GETCHUNK failed for idx=" + idx + " err=" + r.err);
+                    }
+                    lastFailedSource.put(idx, r.src);
+                    pending.addFirst(idx);
+                }
+
+                if (r.corrupt > 0) {
+                    corruptChunks += r.corrupt;
+                    failures[r.src] = Math.max(failures[r.src], MAX_SOURCE_FAILURES);
+                } else if (anyFailed) {
+                    failures[r.src]++;
+                } else {
+                    failures[r.src] = 0;
+                }
+
+                for (int i = 0; i < r.data.length; i++) {
+                    ByteBuffer b = r.data[i];
+                    if (b == null) continue;
+                    r.data[i] = null;
+                    try {
+                        sink.onChunk(r.from + i, b, sources.get(r.src));
+                    } catch (IOException | RuntimeException e) {
+                        pool.getBufferPool().releaseAll(r.data);
+                        throw e;
+                    }
+                }
+            }
+        } finally {
+            exec.shutdownNow();
+        }
+        return unavailable;
+    }
+
+    private boolean isLive(int s) {
+        return failures[s] < MAX_SOURCE_FAILURES;
+    }
+
+    private boolean has(int s, int idx) {
+        ChunkBitmap b = available[s];
+        return b == null || b.get(idx);
+    }
+
+    private boolean anyLiveHas(int idx) {
+        boolean anyLive = countLive(-1) > 0;
+        for (int s = 0; s < sources.size(); s++) {
+            if ((!anyLive || isLive(s)) && has(s, idx)) return true;
+        }
+        return false;
+    }
+
+    private int pickSource(int avoid, int idx) {
+        int n = sources.size();
+        boolean anyLive = countLive(-1) > 0;
+        boolean avoidIt = false;
+        for (int s = 0; avoid >= 0 && s < n && !avoidIt; s++) {
+            avoidIt = s != avoid && isLive(s) && has(s, idx);
+        }
+
+        int best = -1;
+        for (int k = 0; k < n; k++) {
+            int s = (rr + k) % n;
+            if (load[s] >= perSourceLimit) continue;
+            if (!has(s, idx)) continue;
+            if (anyLive && !isLive(s)) continue;
+            if (avoidIt && s == avoid) continue;
+            if (best < 0 || load[s] < load[best]) best = s;
+        }
+        if (best >= 0) rr = (best + 1) % n;
+        return best;
+    }
+
+    private int countLive(int except) {
+        int c = 0;
+        for (int s = 0; s < failures.length; s++) {
+            if (s != except && isLive(s)) c++;
+        }
+        return c;
+    }
+}
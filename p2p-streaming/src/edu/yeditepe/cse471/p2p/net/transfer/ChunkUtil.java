@@ -1,7 +1,6 @@
 package edu.yeditepe.cse471.p2p.net.transfer;
 
 import java.io.*;
-import java.nio.file.Files;
 
 public final class ChunkUtil {
     private ChunkUtil() {}
@@ -10,13 +9,57 @@ public final class ChunkUtil {
         return f.length();
     }
 
-    public static int totalChunks(long fileSize) {
-        return (int) ((fileSize + ChunkProtocol.CHUNK_SIZE - 1) / ChunkProtocol.CHUNK_SIZE);
+    /**
+     * Chunk size for a file: the power of two that splits it into about TARGET_CHUNKS_PER_FILE
+     * chunks, kept within MIN_CHUNK_SIZE..MAX_CHUNK_SIZE, so short clips start after a few small
+     * chunks and multi-GB files are not cut into hundreds of thousands of requests. fixed > 0
+     * (-DchunkSize) replaces the rule. Only clients that opt in with SESSION|v|CHUNKS see this
+     * layout; everyone else is served in CHUNK_SIZE chunks.
+     */
+    public static int chunkSizeFor(long fileSize, int fixed) {
+        if (fixed > 0) return Math.min(fixed, ChunkProtocol.MAX_CHUNK_SIZE);
+        long perChunk = Math.max(1, fileSize / ChunkProtocol.TARGET_CHUNKS_PER_FILE);
+        long size = Long.highestOneBit(perChunk);
+        if (size < perChunk) size <<= 1;
+        return (int) Math.max(ChunkProtocol.MIN_CHUNK_SIZE, Math.min(ChunkProtocol.MAX_CHUNK_SIZE, size));
     }
 
-    public static File chunkFile(File bufferDir, String videoName, int chunkIndex) {
-        File partDir = new File(bufferDir, videoName + ".part");
-        return new File(partDir, chunkIndex + ".chk");
+    public static int totalChunks(long fileSize, int chunkSize) {
+        return (int) ((fileSize + chunkSize - 1) / chunkSize);
+    }
+
+    public static long chunkOffset(int idx, int chunkSize) {
+        return (long) idx * chunkSize;
+    }
+
+    public static int chunkLength(long fileSize, int chunkSize, int idx) {
+        return (int) Math.min(chunkSize, fileSize - chunkOffset(idx, chunkSize));
+    }
+
+    public static String hex(byte[] b) {
+        return hex(b, 0, b.length);
+    }
+
+    public static String hex(byte[] b, int off, int len) {
+        char[] out = new char[len * 2];
+        for (int i = 0; i < len; i++) {
+            int v = b[off + i] & 0xFF;
+            out[2 * i] = Character.forDigit(v >>> 4, 16);
+            out[2 * i + 1] = Character.forDigit(v & 0xF, 16);
+        }
+        return new String(out);
+    }
+
+    /** Decodes hex into dst at off; false if s is not exactly len bytes of hex. */
+    public static boolean unhex(String s, byte[] dst, int off, int len) {
+        if (s == null || s.length() != len * 2) return false;
+        for (int i = 0; i < len; i++) {
+            int hi = Character.digit(s.charAt(2 * i), 16);
+            int lo = Character.digit(s.charAt(2 * i + 1), 16);
+            if (hi < 0 || lo < 0) return false;
+            dst[off + i] = (byte) ((hi << 4) | lo);
+        }
+        return true;
     }
 
     public static void ensureDir(File dir) throws IOException {
@@ -25,8 +68,4 @@ public final class ChunkUtil {
             throw new IOException("Cannot create dir: " + dir.getAbsolutePath());
         }
     }
-
-    public static void writeBytes(File out, byte[] data) throws IOException {
-        Files.write(out.toPath(), data);
-    }
 }
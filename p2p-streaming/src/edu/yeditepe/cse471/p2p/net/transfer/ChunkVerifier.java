@@ -0,0 +1,92 @@
+package edu.yeditepe.cse471.p2p.net.transfer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Per-chunk SHA-256 hashes of one file, checked against the root a peer advertises in META
+ * (SHA-256 of the concatenated chunk hashes, i.e. a two-level hash tree). Each chunk is then
+ * verified on its own as it arrives, so the cost is spread over the download and a corrupt
+ * chunk is caught before it reaches the disk.
+ */
+public final class ChunkVerifier {
+
+    public static final int HASH_BYTES = 32;
+
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(ChunkVerifier::newDigest);
+
+    private final byte[] hashes;
+    private final int chunks;
+
+    private ChunkVerifier(byte[] hashes) {
+        this.hashes = hashes;
+        this.chunks = hashes.length / HASH_BYTES;
+    }
+
+    /** hashes holds HASH_BYTES per chunk; throws if they do not add up to rootHex. */
+    public static ChunkVerifier of(byte[] hashes, String rootHex) throws IOException {
+        if (hashes.length % HASH_BYTES != 0) throw new IOException("Chunk hash list has a partial entry");
+        String actual = ChunkUtil.hex(root(hashes));
+        if (!actual.equalsIgnoreCase(rootHex)) {
+            throw new IOException("Chunk hash list does not match root: expected=" + rootHex + " actual=" + actual);
+        }
+        return new ChunkVerifier(hashes);
+    }
+
+    public static byte[] root(byte[] hashes) {
+        MessageDigest md = SHA256.get();
+        md.reset();
+        return md.digest(hashes);
+    }
+
+    public int getChunks() {
+        return chunks;
+    }
+
+    /** The hash list itself (not a copy), for serving HASHES while the download is still running. */
+    public byte[] getHashes() {
+        return hashes;
+    }
+
+    public String rootHex() {
+        return ChunkUtil.hex(root(hashes));
+    }
+
+    /** Hashes the remaining bytes of data without moving its position. */
+    public boolean verify(int idx, ByteBuffer data) {
+        if (idx < 0 || idx >= chunks || data == null) return false;
+        MessageDigest md = SHA256.get();
+        md.reset();
+        md.update(data.duplicate());
+        byte[] h = md.digest();
+        int diff = 0;
+        for (int i = 0; i < HASH_BYTES; i++) diff |= h[i] ^ hashes[idx * HASH_BYTES + i];
+        return diff == 0;
+    }
+
+    /**
+     * Drops the chunks of a run starting at from that fail verification, handing their buffers
+     * back to buffers; returns how many did.
+     */
+    public int reject(int from, ByteBuffer[] data, BufferPool buffers) {
+        int bad = 0;
+        for (int i = 0; i < data.length; i++) {
+            if (data[i] != null && !verify(from + i, data[i])) {
+                buffers.release(data[i]);
+                data[i] = null;
+                bad++;
+            }
+        }
+        return bad;
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package edu.yeditepe.cse471.p2p.net.transfer;
+
+import edu.yeditepe.cse471.p2p.net.NetThreads;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Write-behind stage between the fetchers and a DownloadStore. submit() queues a received chunk
+ * and returns; one writer thread drains the queue, sorts what it took by index and writes runs
+ * of adjacent chunks with one gathering write each, then releases the buffers to the pool.
+ *
+ * The queue is bounded: when the disk falls behind, submit() blocks, which stalls the
+ * scheduler's dispatch loop and so the network side. A write error is kept and rethrown from
+ * the next submit() or flush().
+ */
+public final class ChunkWriter implements Closeable {
+
+    /** JOURNAL: data reaches the device when the store journals it. BATCH: force after every batch. */
+    public enum FsyncPolicy { JOURNAL, BATCH }
+
+    private static final class Pending {
+        final int idx;
+        final ByteBuffer data;
+        Pending(int idx, ByteBuffer data) {
+            this.idx = idx;
+            this.data = data;
+        }
+    }
+
+    private static final Pending STOP = new Pending(-1, null);
+
+    private final DownloadStore store;
+    private final BufferPool buffers;
+    private final int maxBatch;
+    private final FsyncPolicy fsync;
+    private final BlockingQueue<Pending> queue;
+    private final Thread thread;
+
+    private final Object progress = new Object();
+    private long submitted = 0;
+    private long finished = 0;
+    private volatile IOException failure;
+    private volatile boolean stopping = false;
+
+    public ChunkWriter(DownloadStore store, BufferPool buffers) {
+        this(store, buffers,
+                Integer.getInteger("writeQueue", 32),
+                Integer.getInteger("writeBatch", 16),
+                fsyncPolicy(System.getProperty("fsyncPolicy", "JOURNAL")));
+    }
+
+    public ChunkWriter(DownloadStore store, BufferPool buffers, int queueChunks, int maxBatch, FsyncPolicy fsync) {
+        this.store = store;
+        this.buffers = buffers;
+        this.maxBatch = Math.max(1, maxBatch);
+        this.fsync = fsync;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueChunks));
+        this.thread = NetThreads.start("chunk-writer", this::writeLoop);
+    }
+
+    static FsyncPolicy fsyncPolicy(String name) {
+        try {
+            return FsyncPolicy.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.out.println("[chunk-writer] unknown fsyncPolicy " + name + ", using JOURNAL");
+            return FsyncPolicy.JOURNAL;
+        }
+    }
+
+    /** Queues data (owned by the writer from now on) as chunk idx; blocks while the queue is full. */
+    public void submit(int idx, ByteBuffer data) throws IOException {
+        IOException f = failure;
+        if (f != null) {
+            buffers.release(data);
+            throw new IOException("Chunk writer failed", f);
+        }
+        synchronized (progress) {
+            submitted++;
+        }
+        try {
+            queue.put(new Pending(idx, data));
+        } catch (InterruptedException e) {
+            synchronized (progress) {
+                submitted--;
+                progress.notifyAll();
+            }
+            buffers.release(data);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while queueing chunk " + idx);
+        }
+    }
+
+    /** Waits until every submitted chunk has been written (or dropped after a failure). */
+    public void flush() throws IOException {
+        synchronized (progress) {
+            while (finished < submitted) {
+                try {
+                    progress.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while flushing chunk writer");
+                }
+            }
+        }
+        IOException f = failure;
+        if (f != null) throw new IOException("Chunk writer failed", f);
+    }
+
+    /**
+     * Writes what is still queued and stops the writer thread. The thread is never interrupted:
+     * an interrupt during FileChannel I/O would close the store's channel.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            stopping = true;
+            queue.offer(STOP);
+        }
+    }
+
+    private void writeLoop() {
+        List<Pending> batch = new ArrayList<>(maxBatch);
+        try {
+            while (true) {
+                Pending first = queue.take();
+                if (first == STOP) return;
+                batch.add(first);
+                queue.drainTo(batch, maxBatch - 1);
+
+                boolean stop = batch.remove(STOP);
+                writeBatch(batch);
+                synchronized (progress) {
+                    finished += batch.size();
+                    progress.notifyAll();
+                }
+                batch.clear();
+                if (stop || (stopping && queue.isEmpty())) return;
+            }
+        } catch (InterruptedException ignored) {
+        } finally {
+            List<Pending> left = new ArrayList<>();
+            queue.drainTo(left);
+            left.remove(STOP);
+            for (Pending p : left) buffers.release(p.data);
+            synchronized (progress) {
+                finished += left.size();
+                progress.notifyAll();
+            }
+        }
+    }
+
+    private void writeBatch(List<Pending> batch) {
+        batch.sort((a, b) -> Integer.compare(a.idx, b.idx));
+        try {
+            if (failure == null) {
+                int start = 0;
+                for (int i = 1; i <= batch.size(); i++) {
+                    if (i < batch.size() && batch.get(i).idx == batch.get(i - 1).idx + 1) continue;
+                    writeRun(batch, start, i);
+                    start = i;
+                }
+                if (fsync == FsyncPolicy.BATCH) store.force();
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (RuntimeException e) {
+            failure = new IOException(e);
+        } finally {
+            for (Pending p : batch) buffers.release(p.data);
+        }
+    }
+
+    private void writeRun(List<Pending> batch, int from, int to) throws IOException {
+        if (to - from == 1) {
+            store.writeChunk(batch.get(from).idx, batch.get(from).data);
+            return;
+        }
+        ByteBuffer[] run = new ByteBuffer[to - from];
+        for (int i = from; i < to; i++) run[i - from] = batch.get(i).data;
+        store.writeRun(batch.get(from).idx, run);
+    }
+}
@@ -0,0 +1,341 @@
+package edu.yeditepe.cse471.p2p.net.transfer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * Storage of one download: a sparse file of the final size, written chunk by chunk at its
+ * offset through one long-lived FileChannel, plus a ChunkBitmap of the chunks that have landed.
+ * Every chunk is written exactly once; completing the download is a rename of that file.
+ *
+ * The bitmap is persisted next to the file in a small journal (size, chunk size, content hash,
+ * bitmap words), rewritten every JOURNAL_EVERY chunks or JOURNAL_INTERVAL_MS after the data it
+ * describes has been forced to disk. open() resumes from it when it matches the requested download.
+ */
+public final class DownloadStore implements Closeable {
+
+    private static final int JOURNAL_MAGIC = 0x50325044; // "P2PD"
+    private static final int JOURNAL_VERSION = 1;
+    private static final int JOURNAL_EVERY = Integer.getInteger("journalEvery", 64);
+    private static final long JOURNAL_INTERVAL_MS = Long.getLong("journalMs", 1000);
+    private static final boolean VERIFY_COMPLETE = Boolean.getBoolean("verifyComplete");
+
+    private final File file;
+    private final File journal;
+    private final String contentHash;
+    private final long size;
+    private final int chunkSize;
+    private final int totalChunks;
+    private final FileChannel channel;
+
+    private final ChunkBitmap done;
+    private final int resumedChunks;
+
+    private int unjournaled = 0;
+    private long lastJournalMs = System.currentTimeMillis();
+
+    private DownloadStore(File file, String contentHash, long size, int chunkSize, FileChannel channel, ChunkBitmap done) {
+        this.file = file;
+        this.journal = journalFile(file);
+        this.contentHash = (contentHash == null) ? "" : contentHash;
+        this.size = size;
+        this.chunkSize = chunkSize;
+        this.totalChunks = ChunkUtil.totalChunks(size, chunkSize);
+        this.channel = channel;
+        this.done = (done != null) ? done : new ChunkBitmap(totalChunks);
+        this.resumedChunks = this.done.count();
+    }
+
+    public static File journalFile(File file) {
+        return new File(file.getParentFile(), file.getName() + ".journal");
+    }
+
+    /**
+     * Resumes the download in file if its journal describes the same content (hash, size and
+     * chunk size) and the file is still there, otherwise starts over with create().
+     */
+    public static DownloadStore open(File file, long size, int chunkSize, String contentHash) throws IOException {
+        ChunkBitmap resumed = readJournal(journalFile(file), size, chunkSize, contentHash);
+        if (resumed != null && file.isFile() && file.length() == size) {
+            FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            return new DownloadStore(file, contentHash, size, chunkSize, ch, resumed);
+        }
+        return create(file, size, chunkSize, contentHash);
+    }
+
+    /** Creates (replacing any previous file and journal) a sparse file of size bytes. */
+    public static DownloadStore create(File file, long size, int chunkSize, String contentHash) throws IOException {
+        ChunkUtil.ensureDir(file.getParentFile());
+        Files.deleteIfExists(journalFile(file).toPath());
+        Files.deleteIfExists(file.toPath());
+
+        FileChannel ch = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.SPARSE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            // Writing the last byte sets the length without allocating the blocks before it.
+            if (size > 0) ch.write(ByteBuffer.wrap(new byte[1]), size - 1);
+        } catch (IOException e) {
+            ch.close();
+            throw e;
+        }
+        return new DownloadStore(file, contentHash, size, chunkSize, ch, null);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public int getTotalChunks() {
+        return totalChunks;
+    }
+
+    /** Chunks that were already on disk when the store was opened. */
+    public int getResumedChunks() {
+        return resumedChunks;
+    }
+
+    public int chunkLength(int idx) {
+        return ChunkUtil.chunkLength(size, chunkSize, idx);
+    }
+
+    public void writeChunk(int idx, byte[] data) throws IOException {
+        writeChunk(idx, ByteBuffer.wrap(data));
+    }
+
+    /** Writes the remaining bytes of data as chunk idx; data's position is left untouched. */
+    public void writeChunk(int idx, ByteBuffer data) throws IOException {
+        if (idx < 0 || idx >= totalChunks) throw new IOException("Chunk index out of range: " + idx);
+        if (data.remaining() != chunkLength(idx)) {
+            throw new IOException("Chunk " + idx + " has " + data.remaining() + " bytes, expected " + chunkLength(idx));
+        }
+
+        ByteBuffer buf = data.duplicate();
+        long offset = ChunkUtil.chunkOffset(idx, chunkSize) - buf.position();
+        while (buf.hasRemaining()) {
+            channel.write(buf, offset + buf.position());
+        }
+
+        if (done.set(idx)) noteWritten(1);
+    }
+
+    /**
+     * Writes the adjacent chunks firstIdx, firstIdx + 1, ... in one gathering write; positions of
+     * the buffers are left untouched. Chunk lengths are checked as in writeChunk.
+     */
+    public void writeRun(int firstIdx, ByteBuffer[] run) throws IOException {
+        if (firstIdx < 0 || firstIdx + run.length > totalChunks) {
+            throw new IOException("Chunk run out of range: " + firstIdx + "+" + run.length);
+        }
+        ByteBuffer[] bufs = new ByteBuffer[run.length];
+        long remaining = 0;
+        for (int i = 0; i < run.length; i++) {
+            int expected = chunkLength(firstIdx + i);
+            if (run[i].remaining() != expected) {
+                throw new IOException("Chunk " + (firstIdx + i) + " has " + run[i].remaining() + " bytes, expected " + expected);
+            }
+            bufs[i] = run[i].duplicate();
+            remaining += expected;
+        }
+
+        // Only gathering writes move the channel position; single chunks use positional writes.
+        synchronized (channel) {
+            channel.position(ChunkUtil.chunkOffset(firstIdx, chunkSize));
+            while (remaining > 0) remaining -= channel.write(bufs);
+        }
+
+        int added = 0;
+        for (int i = 0; i < run.length; i++) {
+            if (done.set(firstIdx + i)) added++;
+        }
+        if (added > 0) noteWritten(added);
+    }
+
+    /** Forces written chunks to the device without touching the journal. */
+    public void force() throws IOException {
+        channel.force(false);
+    }
+
+    private synchronized void noteWritten(int n) throws IOException {
+        unjournaled += n;
+        if (unjournaled >= JOURNAL_EVERY
+                || System.currentTimeMillis() - lastJournalMs >= JOURNAL_INTERVAL_MS
+                || done.isComplete()) {
+            flushJournal();
+        }
+    }
+
+    /** Forces the data written so far and then records it in the journal. */
+    public synchronized void flushJournal() throws IOException {
+        if (unjournaled == 0 || !channel.isOpen()) return;
+        channel.force(false);
+        writeJournal();
+        unjournaled = 0;
+        lastJournalMs = System.currentTimeMillis();
+    }
+
+    public ChunkBitmap getBitmap() {
+        return done;
+    }
+
+    public boolean has(int idx) {
+        return done.get(idx);
+    }
+
+    public int completedCount() {
+        return done.count();
+    }
+
+    public boolean isComplete() {
+        return done.isComplete();
+    }
+
+    public List<Integer> missingChunks() {
+        return done.missing();
+    }
+
+    /**
+     * Promotes the finished file to target: size check (and, with -DverifyComplete=true, a
+     * SHA-256 check against the content hash), then an atomic rename, so the cost does not depend
+     * on the file size. Where the rename is impossible (another file system, or the player holds
+     * the file open on Windows) the bytes are copied with transferTo instead. The journal is removed.
+     */
+    public File complete(File target) throws IOException {
+        if (!isComplete()) throw new IOException("Download incomplete: " + completedCount() + "/" + totalChunks);
+        if (channel.size() != size) throw new IOException("Size mismatch: expected=" + size + " actual=" + channel.size());
+        channel.force(false);
+        if (VERIFY_COMPLETE && contentHash.length() == 64) {
+            String actual = sha256Hex(channel);
+            if (!actual.equalsIgnoreCase(contentHash)) {
+                throw new IOException("Hash mismatch: expected=" + contentHash + " actual=" + actual);
+            }
+        }
+
+        try {
+            Files.move(file.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel.close();
+        } catch (FileSystemException e) {
+            copyTo(target);
+            channel.close();
+            Files.deleteIfExists(file.toPath());
+        }
+        Files.deleteIfExists(journal.toPath());
+        return target;
+    }
+
+    // Kernel-side copy into a temp file next to target, then moved into place.
+    private void copyTo(File target) throws IOException {
+        File tmp = new File(target.getParentFile(), target.getName() + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long done = 0;
+            while (done < size) {
+                long n = channel.transferTo(done, size - done, out);
+                if (n <= 0) throw new IOException("transferTo stalled at " + done + "/" + size);
+                done += n;
+            }
+            out.force(false);
+        }
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static String sha256Hex(FileChannel ch) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        ByteBuffer buf = ByteBuffer.allocateDirect(1024 * 1024);
+        long pos = 0;
+        while (true) {
+            buf.clear();
+            int r = ch.read(buf, pos);
+            if (r < 0) break;
+            pos += r;
+            buf.flip();
+            md.update(buf);
+        }
+        StringBuilder sb = new StringBuilder(64);
+        for (byte x : md.digest()) sb.append(String.format("%02x", x));
+        return sb.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushJournal();
+        } finally {
+            channel.close();
+        }
+    }
+
+    // Written to a temp file and moved over the old journal, so a crash leaves one or the other.
+    private void writeJournal() throws IOException {
+        byte[] hash = contentHash.getBytes(StandardCharsets.UTF_8);
+        long[] words = done.toLongArray();
+
+        ByteBuffer b = ByteBuffer.allocate(4 + 4 + 8 + 4 + 2 + hash.length + 4 + 8 * words.length);
+        b.putInt(JOURNAL_MAGIC).putInt(JOURNAL_VERSION)
+         .putLong(size).putInt(chunkSize)
+         .putShort((short) hash.length).put(hash)
+         .putInt(totalChunks);
+        for (long w : words) b.putLong(w);
+        b.flip();
+
+        File tmp = new File(journal.getParentFile(), journal.getName() + ".tmp");
+        try (FileChannel jc = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (b.hasRemaining()) jc.write(b);
+            jc.force(false);
+        }
+        try {
+            Files.move(tmp.toPath(), journal.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp.toPath(), journal.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /** The journaled bitmap, or null if there is no journal or it describes something else. */
+    private static ChunkBitmap readJournal(File journal, long size, int chunkSize, String contentHash) {
+        if (!journal.isFile()) return null;
+        try {
+            ByteBuffer b = ByteBuffer.wrap(Files.readAllBytes(journal.toPath()));
+            if (b.getInt() != JOURNAL_MAGIC || b.getInt() != JOURNAL_VERSION) return null;
+            if (b.getLong() != size || b.getInt() != chunkSize) return null;
+
+            byte[] hash = new byte[b.getShort() & 0xFFFF];
+            b.get(hash);
+            String expected = (contentHash == null) ? "" : contentHash;
+            if (!new String(hash, StandardCharsets.UTF_8).equals(expected)) return null;
+
+            int total = b.getInt();
+            if (total != ChunkUtil.totalChunks(size, chunkSize)) return null;
+            long[] words = new long[(total + 63) >>> 6];
+            for (int i = 0; i < words.length; i++) words[i] = b.getLong();
+            return ChunkBitmap.fromLongArray(total, words);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+}
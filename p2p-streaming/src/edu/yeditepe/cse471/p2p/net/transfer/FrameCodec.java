@@ -0,0 +1,154 @@
+package edu.yeditepe.cse471.p2p.net.transfer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32C;
+
+/**
+ * Binary framing of the chunk protocol (session version 2). A connection switches to it after
+ * SESSION|2 has been answered with OK|SESSION|2; from then on both directions carry only frames.
+ * All integers are big-endian.
+ *
+ * Request, 16 byte header followed by idLen bytes of UTF-8 video id:
+ *   op(1) flags(1) idLen(2) reqId(4) idx(4) count(4)
+ * Response, 20 byte header followed by len bytes of payload (no trailer):
+ *   type(1) flags(1) status(2) reqId(4) idx(4) len(4) crc(4)
+ *
+ * GETCHUNK is answered with one frame, GETRANGE with count DATA frames or a single ERR frame.
+ * With FLAG_CRC set on the request, every DATA frame carries the CRC32C of its payload.
+ */
+public final class FrameCodec {
+    private FrameCodec() {}
+
+    public static final int REQUEST_HEADER_BYTES = 16;
+    public static final int RESPONSE_HEADER_BYTES = 20;
+    public static final int MAX_ID_BYTES = 1024;
+
+    public static final byte OP_GETCHUNK = 1;
+    public static final byte OP_GETRANGE = 2;
+
+    public static final byte TYPE_DATA = 1;
+    public static final byte TYPE_ERR = 2;
+
+    public static final byte FLAG_CRC = 1;
+
+    public static final short STATUS_OK = 0;
+    public static final short STATUS_NOTFOUND = 1;
+    public static final short STATUS_RANGE = 2;
+    public static final short STATUS_ARGS = 3;
+    public static final short STATUS_MISSING = 4;   // a partial seed does not have the chunk yet
+
+    /** The text protocol's ERR line for an ERR frame status. */
+    public static String statusLine(short status) {
+        switch (status) {
+            case STATUS_NOTFOUND: return "ERR|NOTFOUND";
+            case STATUS_RANGE: return "ERR|RANGE";
+            case STATUS_ARGS: return "ERR|ARGS";
+            case STATUS_MISSING: return "ERR|MISSING";
+            default: return "ERR|" + status;
+        }
+    }
+
+    public static void putRequest(ByteBuffer dst, byte op, byte flags, int reqId, int idx, int count, byte[] id) {
+        dst.put(op).put(flags).putShort((short) id.length)
+           .putInt(reqId).putInt(idx).putInt(count)
+           .put(id);
+    }
+
+    public static ByteBuffer dataHeader(int reqId, int idx, int len, byte flags, int crc) {
+        return header(TYPE_DATA, flags, STATUS_OK, reqId, idx, len, crc);
+    }
+
+    public static ByteBuffer errorHeader(int reqId, int idx, short status) {
+        return header(TYPE_ERR, (byte) 0, status, reqId, idx, 0, 0);
+    }
+
+    private static ByteBuffer header(byte type, byte flags, short status, int reqId, int idx, int len, int crc) {
+        ByteBuffer b = ByteBuffer.allocate(RESPONSE_HEADER_BYTES);
+        b.put(type).put(flags).putShort(status)
+         .putInt(reqId).putInt(idx).putInt(len).putInt(crc);
+        b.flip();
+        return b;
+    }
+
+    /** CRC32C over the remaining bytes of bufs; their positions are left untouched. */
+    public static int crc(ByteBuffer... bufs) {
+        CRC32C c = new CRC32C();
+        for (ByteBuffer b : bufs) c.update(b.duplicate());
+        return (int) c.getValue();
+    }
+
+    public static int crc(byte[] data) {
+        CRC32C c = new CRC32C();
+        c.update(data, 0, data.length);
+        return (int) c.getValue();
+    }
+
+    /**
+     * Decoded request header. One instance per connection, refilled for every frame; the id String
+     * is only rebuilt when its bytes differ from the previous frame's, which for a download is never.
+     */
+    public static final class Request {
+        public byte op;
+        public byte flags;
+        public int reqId;
+        public int idx;
+        public int count;
+        public String id = "";
+
+        private final byte[] header = new byte[REQUEST_HEADER_BYTES];
+        private byte[] idBytes = new byte[0];
+        private byte[] scratch = new byte[64];
+
+        public boolean wantsCrc() {
+            return (flags & FLAG_CRC) != 0;
+        }
+
+        /** Consumes one complete frame from in (read mode); returns false, consuming nothing, if it is not all there yet. */
+        public boolean decode(ByteBuffer in) throws IOException {
+            if (in.remaining() < REQUEST_HEADER_BYTES) return false;
+            int idLen = in.getShort(in.position() + 2) & 0xFFFF;
+            checkIdLength(idLen);
+            if (in.remaining() < REQUEST_HEADER_BYTES + idLen) return false;
+
+            in.get(header);
+            in.get(scratchFor(idLen), 0, idLen);
+            apply(idLen);
+            return true;
+        }
+
+        /** Blocking variant: reads exactly one frame. */
+        public void read(ProtocolReader in) throws IOException {
+            in.readFully(header, 0, REQUEST_HEADER_BYTES);
+            int idLen = ((header[2] & 0xFF) << 8) | (header[3] & 0xFF);
+            checkIdLength(idLen);
+            in.readFully(scratchFor(idLen), 0, idLen);
+            apply(idLen);
+        }
+
+        private byte[] scratchFor(int idLen) {
+            if (scratch.length < idLen) scratch = new byte[idLen];
+            return scratch;
+        }
+
+        private void apply(int idLen) {
+            ByteBuffer h = ByteBuffer.wrap(header);
+            op = h.get();
+            flags = h.get();
+            h.getShort();
+            reqId = h.getInt();
+            idx = h.getInt();
+            count = h.getInt();
+
+            if (!java.util.Arrays.equals(idBytes, 0, idBytes.length, scratch, 0, idLen)) {
+                idBytes = java.util.Arrays.copyOf(scratch, idLen);
+                id = new String(idBytes, StandardCharsets.UTF_8);
+            }
+        }
+
+        private static void checkIdLength(int idLen) throws IOException {
+            if (idLen > MAX_ID_BYTES) throw new IOException("Frame id too long: " + idLen);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package edu.yeditepe.cse471.p2p.net.transfer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Buffered decoder for the line-framed control protocol. One instance per connection; header
+ * lines are parsed in its reusable line buffer, so the chunk path (DATA header, payload, END
+ * trailer) does one read() per buffer refill and creates no Strings.
+ */
+public final class ProtocolReader {
+
+    private static final int BUFFER_BYTES = 64 * 1024;
+    private static final int MAX_DIGITS = 10;   // enough for any int, too few for a long to overflow
+
+    private final InputStream in;
+    private final byte[] buf = new byte[BUFFER_BYTES];
+    private int pos = 0;
+    private int limit = 0;
+
+    private byte[] line = new byte[256];
+    private int lineLen = 0;
+
+    private int lastChunkIndex = -1;
+    private String lastError;
+
+    public ProtocolReader(InputStream in) {
+        this.in = in;
+    }
+
+    /** Next line without the trailing \n (and \r), or null at end of stream. */
+    public String readLine() throws IOException {
+        if (!nextLine()) return null;
+        return new String(line, 0, lineLen, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads a DATA|idx|len header and returns len (the index is in lastChunkIndex(); callers must
+     * check it against the chunk they asked for). len is at most ChunkProtocol.MAX_CHUNK_SIZE.
+     * An ERR response is consumed up to its END and reported as -1; its line is in lastError().
+     */
+    public int readDataHeader() throws IOException {
+        if (!nextLine()) throw new EOFException("Connection closed while waiting for DATA");
+
+        if (lineStartsWith("ERR|")) {
+            lastError = new String(line, 0, lineLen, StandardCharsets.UTF_8);
+            skipToEnd();
+            return -1;
+        }
+        if (!lineStartsWith("DATA|")) {
+            throw new IOException("Unexpected header: " + new String(line, 0, lineLen, StandardCharsets.UTF_8));
+        }
+
+        int p = 5;
+        int start = p;
+        long idx = 0;
+        while (p < lineLen && line[p] != '|' && p - start < MAX_DIGITS) idx = idx * 10 + digit(line[p++]);
+        boolean badIdx = p == start || (p < lineLen && line[p] != '|');
+        start = ++p;
+        long len = 0;
+        while (p < lineLen && line[p] != '|' && p - start < MAX_DIGITS) len = len * 10 + digit(line[p++]);
+        if (badIdx || p == start || (p < lineLen && line[p] != '|')
+                || idx > Integer.MAX_VALUE || len > ChunkProtocol.MAX_CHUNK_SIZE) {
+            throw new IOException("Bad DATA header: " + new String(line, 0, lineLen, StandardCharsets.UTF_8));
+        }
+
+        lastChunkIndex = (int) idx;
+        return (int) len;
+    }
+
+    public int lastChunkIndex() {
+        return lastChunkIndex;
+    }
+
+    /** The ERR line behind the last -1 from readDataHeader. */
+    public String lastError() {
+        return lastError;
+    }
+
+    public byte[] readExactly(int len) throws IOException {
+        byte[] out = new byte[len];
+        readFully(out, 0, len);
+        return out;
+    }
+
+    public void readFully(byte[] dst, int off, int len) throws IOException {
+        int buffered = Math.min(len, limit - pos);
+        if (buffered > 0) {
+            System.arraycopy(buf, pos, dst, off, buffered);
+            pos += buffered;
+            off += buffered;
+            len -= buffered;
+        }
+        // Large payloads go straight from the socket into dst, bypassing our buffer.
+        while (len > 0) {
+            int r = in.read(dst, off, len);
+            if (r < 0) throw new EOFException("Unexpected EOF while reading chunk, missing=" + len);
+            off += r;
+            len -= r;
+        }
+    }
+
+    /** Reads len bytes into dst at its position and advances it. */
+    public void readFully(ByteBuffer dst, int len) throws IOException {
+        if (dst.hasArray()) {
+            readFully(dst.array(), dst.arrayOffset() + dst.position(), len);
+            dst.position(dst.position() + len);
+            return;
+        }
+        while (len > 0) {
+            if (pos >= limit && !fill()) throw new EOFException("Unexpected EOF while reading chunk, missing=" + len);
+            int n = Math.min(len, limit - pos);
+            dst.put(buf, pos, n);
+            pos += n;
+            len -= n;
+        }
+    }
+
+    /** Consumes lines up to and including END (or end of stream). */
+    public void skipToEnd() throws IOException {
+        while (nextLine()) {
+            if (lineLen == 3 && line[0] == 'E' && line[1] == 'N' && line[2] == 'D') return;
+        }
+    }
+
+    private boolean lineStartsWith(String prefix) {
+        if (lineLen < prefix.length()) return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (line[i] != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private boolean nextLine() throws IOException {
+        lineLen = 0;
+        boolean any = false;
+        while (true) {
+            if (pos >= limit && !fill()) {
+                if (!any) return false;
+                break;
+            }
+            any = true;
+
+            int start = pos;
+            while (pos < limit && buf[pos] != '\n') pos++;
+            append(start, pos - start);
+
+            if (pos < limit) {
+                pos++;
+                break;
+            }
+        }
+        if (lineLen > 0 && line[lineLen - 1] == '\r') lineLen--;
+        return true;
+    }
+
+    private void append(int start, int n) {
+        if (n == 0) return;
+        if (lineLen + n > line.length) {
+            byte[] bigger = new byte[Math.max(line.length * 2, lineLen + n)];
+            System.arraycopy(line, 0, bigger, 0, lineLen);
+            line = bigger;
+        }
+        System.arraycopy(buf, start, line, lineLen, n);
+        lineLen += n;
+    }
+
+    private boolean fill() throws IOException {
+        int r = in.read(buf, 0, buf.length);
+        if (r <= 0) return false;
+        pos = 0;
+        limit = r;
+        return true;
+    }
+
+    private static int digit(byte b) throws IOException {
+        if (b < '0' || b > '9') throw new IOException("Bad number in header");
+        return b - '0';
+    }
+}
@@ -0,0 +1,124 @@
+package edu.yeditepe.cse471.p2p.net.transfer;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Content this peer can upload besides its root folder, keyed by lowercase content hash:
+ * downloads in progress, served chunk by chunk as their bitmap fills, and downloads finished
+ * during this session. Listeners get the hash whenever an entry moves or goes away, so the
+ * control server can drop open handles and cached chunks of the old file.
+ */
+public final class SeedRegistry {
+
+    public static final class Seed {
+        public final File file;
+        public final long size;
+        public final int chunkSize;
+        public final ChunkBitmap have;          // null once the file is complete
+        public final ChunkVerifier verifier;    // null when the source sent no chunk hashes
+        Seed(File file, long size, int chunkSize, ChunkBitmap have, ChunkVerifier verifier) {
+            this.file = file;
+            this.size = size;
+            this.chunkSize = chunkSize;
+            this.have = have;
+            this.verifier = verifier;
+        }
+
+        public boolean isComplete() {
+            return have == null;
+        }
+
+        /** True if the bytes offset..offset+len-1 are all on disk. */
+        public boolean hasBytes(long offset, long len) {
+            if (have == null || len <= 0) return true;
+            int first = (int) (offset / chunkSize);
+            int last = (int) ((Math.min(offset + len, size) - 1) / chunkSize);
+            return hasAll(first, last - first + 1);
+        }
+
+        /** The chunks on disk in a layout of chunkSize chunks; a chunk counts once all its bytes are there. */
+        public ChunkBitmap haveIn(int chunkSize) {
+            if (have == null || chunkSize == this.chunkSize) return have;
+            ChunkBitmap out = new ChunkBitmap(ChunkUtil.totalChunks(size, chunkSize));
+            for (int i = 0; i < out.size(); i++) {
+                if (hasBytes(ChunkUtil.chunkOffset(i, chunkSize), ChunkUtil.chunkLength(size, chunkSize, i))) out.set(i);
+            }
+            return out;
+        }
+
+        /** True if chunks from..from+count-1 are all on disk. */
+        public boolean hasAll(int from, int count) {
+            if (have == null) return true;
+            for (int i = from; i < from + count; i++) {
+                if (!have.get(i)) return false;
+            }
+            return true;
+        }
+    }
+
+    private final Map<String, Seed> seeds = new ConcurrentHashMap<>();
+    private final List<Consumer<String>> invalidationListeners = new CopyOnWriteArrayList<>();
+    private volatile Consumer<File> accessListener;
+
+    public void addDownload(String hash, DownloadStore store, ChunkVerifier verifier) {
+        put(hash, new Seed(store.getFile(), store.getSize(), store.getChunkSize(), store.getBitmap(), verifier));
+    }
+
+    public void addComplete(String hash, File file, long size, int chunkSize, ChunkVerifier verifier) {
+        put(hash, new Seed(file, size, chunkSize, null, verifier));
+    }
+
+    public Seed get(String hash) {
+        return (hash == null) ? null : seeds.get(hash.trim().toLowerCase());
+    }
+
+    public void remove(String hash) {
+        String key = hash.trim().toLowerCase();
+        if (seeds.remove(key) != null) fireInvalidated(key);
+    }
+
+    /** Drops whatever is served from file (it was evicted from the buffer folder). */
+    public void removeFile(File file) {
+        for (Map.Entry<String, Seed> e : seeds.entrySet()) {
+            if (e.getValue().file.equals(file) && seeds.remove(e.getKey(), e.getValue())) {
+                fireInvalidated(e.getKey());
+            }
+        }
+    }
+
+    /** Called with a seed's file whenever a peer starts fetching it, e.g. to keep it in the buffer folder. */
+    public void setAccessListener(Consumer<File> listener) {
+        this.accessListener = listener;
+    }
+
+    public void noteAccess(Seed seed) {
+        Consumer<File> l = accessListener;
+        if (l != null) {
+            try { l.accept(seed.file); } catch (Exception ignored) {}
+        }
+    }
+
+    public void addInvalidationListener(Consumer<String> listener) {
+        invalidationListeners.add(listener);
+    }
+
+    public void removeInvalidationListener(Consumer<String> listener) {
+        invalidationListeners.remove(listener);
+    }
+
+    private void put(String hash, Seed seed) {
+        String key = hash.trim().toLowerCase();
+        if (seeds.put(key, seed) != null) fireInvalidated(key);
+    }
+
+    private void fireInvalidated(String hash) {
+        for (Consumer<String> l : invalidationListeners) {
+            try { l.accept(hash); } catch (Exception ignored) {}
+        }
+    }
+}
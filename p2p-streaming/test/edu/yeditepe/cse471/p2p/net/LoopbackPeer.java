@@ -0,0 +1,88 @@
+package edu.yeditepe.cse471.p2p.net;
+
+import edu.yeditepe.cse471.p2p.net.catalog.LocalVideoCatalog;
+import edu.yeditepe.cse471.p2p.net.catalog.TcpControlServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+/** One served video on a loopback TcpControlServer, for tests that talk to a real peer. */
+public final class LoopbackPeer implements AutoCloseable {
+
+    public final File root;
+    public final File video;
+    public final byte[] data;
+    public final LocalVideoCatalog catalog;
+    public final TcpControlServer server;
+    public final int port;
+    public final String hash;
+    public final int chunkSize;
+
+    public LoopbackPeer(int size) throws Exception {
+        this(size, false, 2);
+    }
+
+    public LoopbackPeer(int size, boolean nio, int ioThreads) throws Exception {
+        System.setProperty("hashIndex", "");
+        root = Files.createTempDirectory("peer").toFile();
+        video = new File(root, "v.mp4");
+        data = new byte[size];
+        new Random(size).nextBytes(data);
+        Files.write(video.toPath(), data);
+
+        catalog = new LocalVideoCatalog();
+        catalog.setRootFolder(root);
+        if (!catalog.awaitIndexed(30_000)) throw new IOException("catalog not indexed");
+        hash = catalog.listVideos().get(0).hash;
+        chunkSize = catalog.chunkSizeFor(size);
+
+        port = freePort();
+        server = new TcpControlServer(port, catalog, nio, ioThreads);
+        server.start();
+    }
+
+    public static int freePort() throws IOException {
+        try (ServerSocket s = new ServerSocket(0)) {
+            return s.getLocalPort();
+        }
+    }
+
+    public InetAddress address() {
+        return InetAddress.getLoopbackAddress();
+    }
+
+    public PeerInfo info(String peerId) {
+        return new PeerInfo(peerId, address(), 0, port, System.currentTimeMillis(), "");
+    }
+
+    /** Bytes of chunk idx in the file's own layout, as served on CHUNKS sessions. */
+    public byte[] chunk(int idx) {
+        return chunk(idx, chunkSize);
+    }
+
+    /** Bytes of chunk idx in the given layout. */
+    public byte[] chunk(int idx, int chunkSize) {
+        int from = idx * chunkSize;
+        return Arrays.copyOfRange(data, from, Math.min(data.length, from + chunkSize));
+    }
+
+    public static byte[] bytes(ByteBuffer b) {
+        byte[] out = new byte[b.remaining()];
+        b.duplicate().get(out);
+        return out;
+    }
+
+    @Override
+    public void close() {
+        server.stop();
+        catalog.setRootFolder(null);
+        video.delete();
+        root.delete();
+    }
+}
@@ -0,0 +1,61 @@
+package edu.yeditepe.cse471.p2p.net;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+class NetThreadsTest {
+
+    /** Entry point of the child JVM in virtualThreadsFlagStartsOrFallsBack. */
+    public static void main(String[] args) throws Exception {
+        AtomicReference<Thread> ran = new AtomicReference<>();
+        NetThreads.start("child", () -> ran.set(Thread.currentThread())).join();
+        System.out.print(NetThreads.isVirtual() + " " + (ran.get() != null));
+    }
+
+    @Test
+    void platformThreadsHonourNameAndDaemon() throws Exception {
+        if (NetThreads.isVirtual()) return;
+        AtomicReference<Thread> ran = new AtomicReference<>();
+        Thread t = NetThreads.start("worker-x", () -> ran.set(Thread.currentThread()), false);
+        t.join();
+        assertEquals("worker-x", ran.get().getName());
+        assertFalse(ran.get().isDaemon());
+        assertTrue(NetThreads.startPlatform("io-x", () -> {}).isDaemon());
+    }
+
+    @Test
+    void executorRunsEveryTask() throws Exception {
+        ExecutorService exec = NetThreads.newExecutor("exec-test", 2);
+        CountDownLatch done = new CountDownLatch(10);
+        for (int i = 0; i < 10; i++) exec.execute(done::countDown);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        exec.shutdown();
+    }
+
+    @Test
+    void virtualThreadsFlagStartsOrFallsBack() throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        String cp = location(NetThreads.class) + File.pathSeparator + location(NetThreadsTest.class);
+        Process p = new ProcessBuilder(java, "-DvirtualThreads=true", "-cp", cp, NetThreadsTest.class.getName()).redirectErrorStream(true).start();
+        boolean exited = p.waitFor(30, TimeUnit.SECONDS);
+        if (!exited) p.destroyForcibly();
+        assertTrue(exited, "child JVM hung");
+        String out = new String(p.getInputStream().readAllBytes(), StandardCharsets.UTF_8).trim();
+        boolean supported = Runtime.version().feature() >= 21;
+        assertTrue(out.endsWith(supported + " true"), out);
+    }
+
+    private static String location(Class<?> c) throws Exception {
+        return new File(c.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+    }
+}
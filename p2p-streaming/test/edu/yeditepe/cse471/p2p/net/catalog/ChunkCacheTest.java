@@ -0,0 +1,158 @@
+package edu.yeditepe.cse471.p2p.net.catalog;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import edu.yeditepe.cse471.p2p.net.LoopbackPeer;
+import edu.yeditepe.cse471.p2p.net.transfer.ChunkClient;
+import edu.yeditepe.cse471.p2p.net.transfer.ChunkProtocol;
+
+import java.io.Closeable;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ChunkCacheTest {
+
+    private static final int SLOT = ChunkCache.SLOT_BYTES;
+
+    @TempDir
+    Path dir;
+
+    private FileChannel fc;
+
+    @BeforeEach
+    void open() throws Exception {
+        Path f = Files.write(dir.resolve("v.mp4"), new byte[8 * SLOT]);
+        fc = FileChannel.open(f, StandardOpenOption.READ);
+    }
+
+    @AfterEach
+    void close() throws Exception {
+        fc.close();
+    }
+
+    // Two one-slot chunks fit.
+    private ChunkCache cache(ChunkCache.Policy policy) {
+        return new ChunkCache(2L * SLOT, policy, 0);
+    }
+
+    private ChunkCache.Entry load(ChunkCache cache, int idx) throws Exception {
+        return cache.load("f", SLOT, idx, fc, (long) idx * SLOT, SLOT, false);
+    }
+
+    private static void touch(ChunkCache cache, int idx, int times) {
+        for (int i = 0; i < times; i++) cache.get("f", SLOT, idx).close();
+    }
+
+    @Test
+    void lruEvictsTheLeastRecentlyUsed() throws Exception {
+        ChunkCache cache = cache(ChunkCache.Policy.LRU);
+        load(cache, 0).close();
+        load(cache, 1).close();
+        touch(cache, 0, 1);
+
+        load(cache, 2).close();
+        assertTrue(cache.contains("f", SLOT, 0));
+        assertFalse(cache.contains("f", SLOT, 1));
+    }
+
+    @Test
+    void lfuEvictsTheLeastHitEvenWhenMoreRecent() throws Exception {
+        ChunkCache cache = cache(ChunkCache.Policy.LFU);
+        load(cache, 0).close();
+        load(cache, 1).close();
+        touch(cache, 0, 3);
+        touch(cache, 1, 1);
+
+        load(cache, 2).close();
+        assertTrue(cache.contains("f", SLOT, 0));
+        assertFalse(cache.contains("f", SLOT, 1));
+    }
+
+    @Test
+    void pinnedEntriesAreNeverVictims() throws Exception {
+        for (ChunkCache.Policy policy : ChunkCache.Policy.values()) {
+            ChunkCache cache = cache(policy);
+            ChunkCache.Entry pinned = load(cache, 0);
+            load(cache, 1).close();
+
+            load(cache, 2).close();
+            assertTrue(cache.contains("f", SLOT, 0), policy.name());
+            assertFalse(cache.contains("f", SLOT, 1), policy.name());
+
+            ChunkCache.Entry also = cache.get("f", SLOT, 2);
+            assertNull(load(cache, 3), policy + ": everything is pinned");
+            pinned.close();
+            also.close();
+            assertNotNull(load(cache, 3));
+        }
+    }
+
+    @Test
+    void doubleCloseDoesNotFreeSlotsTwice() throws Exception {
+        ChunkCache cache = cache(ChunkCache.Policy.LRU);
+        ChunkCache.Entry e = load(cache, 0);
+        e.close();
+        e.close();
+
+        ChunkCache.Entry again = cache.get("f", SLOT, 0);
+        Closeable lease = again.lease();
+        cache.invalidateAll();
+        lease.close();
+        lease.close();
+        assertTrue(cache.stats().contains("|usedBytes=0|"), cache.stats());
+
+        // Only two slots exist; a double free would hand one of them out twice.
+        ChunkCache.Entry a = load(cache, 1);
+        ChunkCache.Entry b = load(cache, 2);
+        assertNotNull(a);
+        assertNotNull(b);
+        assertNull(load(cache, 3));
+        assertFalse(a.slots[0] == b.slots[0]);
+    }
+
+    @Test
+    void aChunkIsAdmittedOnItsSecondMiss() {
+        ChunkCache cache = cache(ChunkCache.Policy.LRU);
+        assertFalse(cache.admit("f", SLOT, 0));
+        assertFalse(cache.admit("f", SLOT, 1));
+        assertTrue(cache.admit("f", SLOT, 0));
+        assertFalse(cache.admit("f", SLOT, 0));
+
+        cache.admit("f", SLOT, 4);
+        cache.invalidateFile("f");
+        assertFalse(cache.admit("f", SLOT, 4));
+    }
+
+    @Test
+    void serverCachesARepeatedChunkOnly() throws Exception {
+        System.setProperty("chunkCacheMB", "8");
+        LoopbackPeer peer;
+        try {
+            peer = new LoopbackPeer(4 * ChunkProtocol.CHUNK_SIZE);
+        } finally {
+            System.clearProperty("chunkCacheMB");
+        }
+        try {
+            for (int i = 0; i < 3; i++) {
+                byte[] got = ChunkClient.fetchChunk(peer.address(), peer.port, peer.hash, 2);
+                assertArrayEquals(peer.chunk(2, ChunkProtocol.CHUNK_SIZE), got);
+            }
+            String stats = peer.server.getCacheStats();
+            assertTrue(stats.contains("|hits=1|misses=2|"), stats);
+            assertTrue(stats.contains("|usedBytes=" + ChunkProtocol.CHUNK_SIZE + "|"), stats);
+        } finally {
+            peer.close();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package edu.yeditepe.cse471.p2p.net.catalog;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import edu.yeditepe.cse471.p2p.net.LoopbackPeer;
+import edu.yeditepe.cse471.p2p.net.transfer.ChunkClient;
+import edu.yeditepe.cse471.p2p.net.transfer.ChunkProtocol;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+class GetChunkTest {
+
+    private static LoopbackPeer peer;
+
+    @BeforeAll
+    static void start() throws Exception {
+        peer = new LoopbackPeer(2 * ChunkProtocol.CHUNK_SIZE + 777);
+    }
+
+    @AfterAll
+    static void stop() {
+        peer.close();
+    }
+
+    @Test
+    void singleShotGetChunkSendsTheFileBytes() throws Exception {
+        for (int idx = 0; idx < 3; idx++) {
+            byte[] got = ChunkClient.fetchChunk(peer.address(), peer.port, peer.hash, idx);
+            assertArrayEquals(peer.chunk(idx, ChunkProtocol.CHUNK_SIZE), got);
+        }
+    }
+
+    @Test
+    void lastChunkIsShort() throws Exception {
+        byte[] got = ChunkClient.fetchChunk(peer.address(), peer.port, peer.hash, 2);
+        assertArrayEquals(peer.chunk(2, ChunkProtocol.CHUNK_SIZE), got);
+        assertEquals(777, got.length);
+    }
+
+    @Test
+    void chunkPastTheEndIsAnError() {
+        assertThrows(IOException.class, () -> ChunkClient.fetchChunk(peer.address(), peer.port, peer.hash, 3));
+        assertThrows(IOException.class, () -> ChunkClient.fetchChunk(peer.address(), peer.port, "no-such-video", 0));
+    }
+}
@@ -0,0 +1,71 @@
+package edu.yeditepe.cse471.p2p.net.catalog;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import edu.yeditepe.cse471.p2p.net.LoopbackPeer;
+import edu.yeditepe.cse471.p2p.net.transfer.ChunkClient;
+import edu.yeditepe.cse471.p2p.net.transfer.ChunkConnectionPool;
+import edu.yeditepe.cse471.p2p.net.transfer.ChunkProtocol;
+import edu.yeditepe.cse471.p2p.net.transfer.ChunkUtil;
+
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class GetRangeTest {
+
+    private static LoopbackPeer binary;
+    private static LoopbackPeer text;
+
+    @BeforeAll
+    static void start() throws Exception {
+        binary = new LoopbackPeer(20 * ChunkProtocol.MIN_CHUNK_SIZE + 5);
+        System.setProperty("protocolVersion", "1");
+        try {
+            text = new LoopbackPeer(20 * ChunkProtocol.MIN_CHUNK_SIZE + 5);
+        } finally {
+            System.clearProperty("protocolVersion");
+        }
+    }
+
+    @AfterAll
+    static void stop() {
+        binary.close();
+        text.close();
+    }
+
+    private static LoopbackPeer peer(boolean binaryFraming) {
+        return binaryFraming ? binary : text;
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = { true, false })
+    void rangeReturnsTheRunInOrder(boolean binaryFraming) throws Exception {
+        LoopbackPeer peer = peer(binaryFraming);
+        int total = ChunkUtil.totalChunks(peer.data.length, peer.chunkSize);
+        try (ChunkConnectionPool pool = new ChunkConnectionPool()) {
+            ByteBuffer[] got = ChunkClient.fetchRange(pool, peer.info("r"), peer.hash, 3, total - 1);
+            assertEquals(total - 3, got.length);
+            for (int i = 0; i < got.length; i++) assertArrayEquals(peer.chunk(3 + i), LoopbackPeer.bytes(got[i]));
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = { true, false })
+    void rangePastTheEndIsRejectedAsAWhole(boolean binaryFraming) throws Exception {
+        LoopbackPeer peer = peer(binaryFraming);
+        int total = ChunkUtil.totalChunks(peer.data.length, peer.chunkSize);
+        try (ChunkConnectionPool pool = new ChunkConnectionPool()) {
+            ByteBuffer[] got = ChunkClient.fetchRange(pool, peer.info("r"), peer.hash, total - 2, total);
+            for (ByteBuffer b : got) assertNull(b);
+            // the session survives the rejected range
+            ByteBuffer[] again = ChunkClient.fetchRange(pool, peer.info("r"), peer.hash, 0, 1);
+            assertArrayEquals(peer.chunk(1), LoopbackPeer.bytes(again[1]));
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package edu.yeditepe.cse471.p2p.net.catalog;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class HashIndexFileTest {
+
+    @TempDir
+    Path dir;
+
+    private static byte[] filled(int len, int value) {
+        byte[] b = new byte[len];
+        Arrays.fill(b, (byte) value);
+        return b;
+    }
+
+    private String video(String name) throws Exception {
+        return Files.write(dir.resolve(name), new byte[1]).toFile().getAbsolutePath();
+    }
+
+    private static void put(HashIndexFile idx, String path, int n) {
+        idx.put(path, 1000 + n, 2000 + n, 65536, filled(32, n), filled(64, n + 1));
+    }
+
+    @Test
+    void recordsSurviveAReopen() throws Exception {
+        File file = dir.resolve("index.bin").toFile();
+        String a = video("a.mp4");
+        HashIndexFile idx = HashIndexFile.open(file);
+        assertSame(idx, HashIndexFile.open(file));
+        put(idx, a, 1);
+        idx.close();
+
+        idx = HashIndexFile.open(file);
+        try {
+            HashIndexFile.Record r = idx.under(dir.toFile()).get(a);
+            assertEquals(1001, r.size);
+            assertEquals(2001, r.lastModified);
+            assertEquals(65536, r.chunkSize);
+            assertArrayEquals(filled(32, 1), r.hash);
+            assertArrayEquals(filled(64, 2), r.chunkHashes);
+            assertTrue(idx.under(dir.resolve("other").toFile()).isEmpty());
+        } finally {
+            idx.close();
+        }
+    }
+
+    @Test
+    void tornTailIsCutOffAndAppendedAfter() throws Exception {
+        File file = dir.resolve("index.bin").toFile();
+        String a = video("a.mp4");
+        String b = video("b.mp4");
+        HashIndexFile idx = HashIndexFile.open(file);
+        put(idx, a, 1);
+        long good = file.length();
+        put(idx, b, 2);
+        idx.close();
+
+        // A crash in the middle of appending b's record.
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            ch.truncate(file.length() - 10);
+        }
+        idx = HashIndexFile.open(file);
+        assertEquals(Map.of(a, 1001L), sizes(idx));
+        assertEquals(good, file.length());
+        put(idx, b, 3);
+        idx.close();
+
+        idx = HashIndexFile.open(file);
+        try {
+            assertEquals(Map.of(a, 1001L, b, 1003L), sizes(idx));
+        } finally {
+            idx.close();
+        }
+    }
+
+    @Test
+    void damagedRecordEndsTheLoad() throws Exception {
+        File file = dir.resolve("index.bin").toFile();
+        String a = video("a.mp4");
+        String b = video("b.mp4");
+        HashIndexFile idx = HashIndexFile.open(file);
+        put(idx, a, 1);
+        long second = file.length();
+        put(idx, b, 2);
+        idx.close();
+
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        bytes[(int) second + 20] ^= 1;
+        Files.write(file.toPath(), bytes);
+        idx = HashIndexFile.open(file);
+        try {
+            assertEquals(Map.of(a, 1001L), sizes(idx));
+        } finally {
+            idx.close();
+        }
+    }
+
+    @Test
+    void foreignFileIsReplaced() throws Exception {
+        File file = dir.resolve("index.bin").toFile();
+        Files.write(file.toPath(), "not an index".getBytes());
+        HashIndexFile idx = HashIndexFile.open(file);
+        try {
+            assertTrue(idx.under(dir.toFile()).isEmpty());
+            assertEquals(8, file.length());
+        } finally {
+            idx.close();
+        }
+    }
+
+    @Test
+    void rewritesAreCompactedAndGoneFilesDropped() throws Exception {
+        File file = dir.resolve("index.bin").toFile();
+        String a = video("a.mp4");
+        String gone = video("gone.mp4");
+        HashIndexFile idx = HashIndexFile.open(file);
+        put(idx, gone, 0);
+        put(idx, a, 0);
+        long twoRecords = file.length();
+        Files.delete(Path.of(gone));
+
+        for (int n = 1; n <= 100; n++) put(idx, a, n);
+        assertTrue(file.length() < 25 * twoRecords, "compacted to " + file.length());
+        idx.close();
+
+        idx = HashIndexFile.open(file);
+        try {
+            assertEquals(Map.of(a, 1100L), sizes(idx));
+        } finally {
+            idx.close();
+        }
+    }
+
+    @Test
+    void indexInUseIsNotOpened() throws Exception {
+        File file = dir.resolve("index.bin").toFile();
+        try (FileChannel ch = FileChannel.open(dir.resolve("index.bin.lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock lock = ch.lock();
+            assertNull(HashIndexFile.open(file));
+            lock.release();
+        }
+        HashIndexFile idx = HashIndexFile.open(file);
+        assertNotNull(idx);
+        idx.close();
+    }
+
+    private Map<String, Long> sizes(HashIndexFile idx) {
+        Map<String, Long> out = new HashMap<>();
+        idx.under(dir.toFile()).forEach((path, r) -> out.put(path, r.size));
+        return out;
+    }
+}
@@ -0,0 +1,362 @@
+package edu.yeditepe.cse471.p2p.net.catalog;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import edu.yeditepe.cse471.p2p.net.LoopbackPeer;
+import edu.yeditepe.cse471.p2p.net.transfer.ChunkProtocol;
+import edu.yeditepe.cse471.p2p.net.transfer.ProtocolReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class LocalVideoCatalogTest {
+
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    void noHashIndex() {
+        System.setProperty("hashIndex", "");
+    }
+
+    @AfterEach
+    void clearProperties() {
+        System.clearProperty("hashThreads");
+        System.clearProperty("hashWaitMs");
+        System.clearProperty("catalogSettleMs");
+        System.clearProperty("catalogWatch");
+        System.clearProperty("catalogRecursive");
+    }
+
+    private File video(Path in, String name, int size) throws IOException {
+        byte[] data = new byte[size];
+        new Random(name.hashCode()).nextBytes(data);
+        Files.createDirectories(in);
+        return Files.write(in.resolve(name), data).toFile();
+    }
+
+    private static String sha256(File f) throws Exception {
+        byte[] h = MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(f.toPath()));
+        StringBuilder sb = new StringBuilder();
+        for (byte b : h) sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+
+    private static Map<String, String> hashesByName(List<VideoEntry> videos) {
+        Map<String, String> out = new HashMap<>();
+        for (VideoEntry v : videos) out.put(v.name, v.hash);
+        return out;
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out");
+            Thread.sleep(20);
+        }
+    }
+
+    // First response line to one request, in the file's own layout if chunks is set.
+    private static String ask(int port, boolean chunks, String line) throws IOException {
+        try (Socket s = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            OutputStream out = s.getOutputStream();
+            ProtocolReader in = new ProtocolReader(s.getInputStream());
+            if (chunks) {
+                out.write(("SESSION|" + ChunkProtocol.SESSION_VERSION + "|" + ChunkProtocol.FILE_CHUNKS_OPTION + "\n")
+                        .getBytes(StandardCharsets.UTF_8));
+                assertTrue(in.readLine().startsWith("OK|SESSION"));
+                in.skipToEnd();
+            }
+            out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            return in.readLine();
+        }
+    }
+
+    @Test
+    void everyVideoIsListedOnceHashed() throws Exception {
+        for (int round = 0; round < 5; round++) {
+            Path root = dir.resolve("r" + round);
+            Map<String, String> expected = new HashMap<>();
+            for (int i = 0; i < 20; i++) {
+                File f = video(root, "v" + i + ".mp4", 1000 + i);
+                expected.put(f.getName(), sha256(f));
+            }
+            video(root, "notes.txt", 10);
+
+            LocalVideoCatalog catalog = new LocalVideoCatalog();
+            catalog.setRootFolder(root.toFile());
+            try {
+                assertTrue(catalog.awaitIndexed(30_000));
+                assertEquals(expected, hashesByName(catalog.listVideos()), "round " + round);
+                assertEquals(0, catalog.pendingCount());
+            } finally {
+                catalog.setRootFolder(null);
+            }
+        }
+    }
+
+    @Test
+    void pendingVideosAreListedWithoutWaitingAndAnsweredWithPending() throws Exception {
+        System.setProperty("hashThreads", "1");
+        System.setProperty("hashWaitMs", "100");
+        video(dir, "a.mp4", 5000);
+        video(dir, "b.mp4", 6000);
+
+        // Holds the only hash thread once it has listed the first video.
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch listed = new CountDownLatch(1);
+        LocalVideoCatalog catalog = new LocalVideoCatalog();
+        catalog.addCatalogListener(() -> {
+            if (!Thread.currentThread().getName().startsWith("catalog-hash")) return;
+            listed.countDown();
+            try { release.await(); } catch (InterruptedException ignored) {}
+        });
+        long version = catalog.getCatalogVersion();
+        catalog.setRootFolder(dir.toFile());
+        int port = LoopbackPeer.freePort();
+        TcpControlServer server = new TcpControlServer(port, catalog, false, 2);
+        server.start();
+        try {
+            assertTrue(listed.await(30, TimeUnit.SECONDS));
+            List<VideoEntry> hashed = catalog.listVideos();
+            assertEquals(1, hashed.size());
+            String waiting = hashed.get(0).name.equals("a.mp4") ? "b.mp4" : "a.mp4";
+            assertTrue(catalog.isHashing(dir.resolve(waiting).toFile()));
+            assertEquals(Map.of(hashed.get(0).name, hashed.get(0).hash, waiting, ""),
+                    hashesByName(catalog.listVideos(true)));
+            assertTrue(catalog.getCatalogVersion() > version);
+
+            assertEquals("ERR|PENDING", ask(port, true, "META|" + waiting));
+            assertEquals("ERR|PENDING", ask(port, true, "HASHES|" + waiting + "|0|1"));
+            assertTrue(ask(port, true, "META|" + hashed.get(0).name).contains("|ROOT|"));
+            // The legacy layout has no chunk hashes to wait for.
+            assertTrue(ask(port, false, "META|" + waiting).startsWith("SIZE|"));
+            assertEquals("ERR|NOTFOUND", ask(port, false, "HASHES|" + waiting + "|0|1"));
+        } finally {
+            release.countDown();
+        }
+        try {
+            assertTrue(catalog.awaitIndexed(30_000));
+            assertEquals(2, catalog.listVideos().size());
+            assertTrue(ask(port, true, "META|" + hashesByName(catalog.listVideos()).get("b.mp4")).startsWith("SIZE|6000|"));
+        } finally {
+            server.stop();
+            catalog.setRootFolder(null);
+        }
+    }
+
+    @Test
+    void persistedHashesResolveBeforeTheFirstScan() throws Exception {
+        File index = dir.resolve("index.bin").toFile();
+        Path root = dir.resolve("root");
+        File a = video(root, "a.mp4", 3000);
+        File b = video(root, "b.mp4", 4000);
+        String hashA = sha256(a);
+        String oldB = sha256(b);
+        System.setProperty("hashIndex", index.getPath());
+        try {
+            LocalVideoCatalog first = new LocalVideoCatalog();
+            first.setRootFolder(root.toFile());
+            assertTrue(first.awaitIndexed(30_000));
+            first.setRootFolder(null);
+
+            Files.write(b.toPath(), new byte[4000]);
+            b.setLastModified(b.lastModified() - 5000);
+            LocalVideoCatalog restarted = new LocalVideoCatalog();
+            restarted.setRootFolder(root.toFile());
+            try {
+                assertEquals(a.getAbsoluteFile(), restarted.findFileByHash(hashA.toUpperCase()));
+                assertNull(restarted.findFileByHash(oldB), "changed since it was persisted");
+
+                assertTrue(restarted.awaitIndexed(30_000));
+                assertEquals(b.getAbsoluteFile(), restarted.findFileByHash(sha256(b)));
+                assertNull(restarted.findFileByHash(oldB));
+            } finally {
+                restarted.setRootFolder(null);
+            }
+        } finally {
+            HashIndexFile.open(index).close();
+        }
+    }
+
+    @Test
+    void watchedRootFollowsFileChanges() throws Exception {
+        System.setProperty("catalogSettleMs", "50");
+        video(dir, "a.mp4", 3000);
+        LocalVideoCatalog catalog = new LocalVideoCatalog();
+        AtomicInteger changes = new AtomicInteger();
+        catalog.addCatalogListener(changes::incrementAndGet);
+        catalog.setRootFolder(dir.toFile());
+        try {
+            assertTrue(catalog.awaitIndexed(30_000));
+            long version = catalog.getCatalogVersion();
+            String digest = catalog.getCatalogDigest();
+            int fired = changes.get();
+
+            File b = video(dir, "b.mp4", 4000);
+            waitFor(() -> catalog.listVideos().size() == 2);
+            assertTrue(catalog.getCatalogVersion() > version);
+            assertNotEquals(digest, catalog.getCatalogDigest());
+            assertTrue(changes.get() > fired);
+            assertEquals(b.getAbsoluteFile(), catalog.findFileByHash(sha256(b)));
+
+            String oldB = sha256(b);
+            Files.write(b.toPath(), new byte[10]);
+            String newB = sha256(b);
+            waitFor(() -> newB.equals(hashesByName(catalog.listVideos()).get("b.mp4")));
+            assertNull(catalog.findFileByHash(oldB));
+
+            Files.delete(b.toPath());
+            waitFor(() -> catalog.listVideos().size() == 1);
+            assertEquals(digest, catalog.getCatalogDigest(), "the digest depends only on what is listed");
+        } finally {
+            catalog.setRootFolder(null);
+        }
+    }
+
+    @Test
+    void unwatchedRootIsListedOnDemand() throws Exception {
+        System.setProperty("catalogWatch", "false");
+        LocalVideoCatalog catalog = new LocalVideoCatalog();
+        catalog.setRootFolder(dir.toFile());
+        try {
+            assertTrue(catalog.awaitIndexed(30_000));
+            assertTrue(catalog.listVideos().isEmpty());
+
+            File a = video(dir, "a.mp4", 3000);
+            String hashA = sha256(a);
+            assertEquals(Map.of("a.mp4", ""), hashesByName(catalog.listVideos(true)));
+            assertTrue(catalog.awaitIndexed(30_000));
+            assertEquals(Map.of("a.mp4", hashA), hashesByName(catalog.listVideos()));
+
+            Files.delete(a.toPath());
+            assertTrue(catalog.listVideos().isEmpty());
+            assertNull(catalog.findFileByHash(hashA));
+        } finally {
+            catalog.setRootFolder(null);
+        }
+    }
+
+    @Test
+    void equalCatalogsHaveEqualDigests() throws Exception {
+        String[] digests = new String[2];
+        for (int i = 0; i < 2; i++) {
+            Path root = dir.resolve("r" + i);
+            video(root, "a.mp4", 3000);
+            video(root, "b.mp4", 4000);
+            LocalVideoCatalog catalog = new LocalVideoCatalog();
+            catalog.setRootFolder(root.toFile());
+            assertTrue(catalog.awaitIndexed(30_000));
+            digests[i] = catalog.getCatalogDigest();
+            catalog.setRootFolder(null);
+        }
+        assertEquals(digests[0], digests[1]);
+    }
+
+    @Test
+    void scanFiresOnceForAllItsChanges() throws Exception {
+        File index = dir.resolve("index.bin").toFile();
+        Path root = dir.resolve("root");
+        for (int i = 0; i < 20; i++) video(root, "v" + i + ".mp4", 1000 + i);
+        System.setProperty("hashIndex", index.getPath());
+        try {
+            LocalVideoCatalog first = new LocalVideoCatalog();
+            first.setRootFolder(root.toFile());
+            assertTrue(first.awaitIndexed(30_000));
+            first.setRootFolder(null);
+
+            // Every hash is persisted, so the scan lists all 20 videos itself.
+            LocalVideoCatalog restarted = new LocalVideoCatalog();
+            AtomicInteger scanFired = new AtomicInteger();
+            restarted.addCatalogListener(() -> {
+                if (Thread.currentThread().getName().startsWith("catalog-scan")) scanFired.incrementAndGet();
+            });
+            restarted.setRootFolder(root.toFile());
+            try {
+                assertTrue(restarted.awaitIndexed(30_000));
+                assertEquals(20, restarted.listVideos().size());
+                assertEquals(1, scanFired.get());
+            } finally {
+                restarted.setRootFolder(null);
+            }
+        } finally {
+            HashIndexFile.open(index).close();
+        }
+    }
+
+    @Test
+    void recursiveModeListsTheTreeByRelativePath() throws Exception {
+        System.setProperty("catalogRecursive", "true");
+        System.setProperty("catalogSettleMs", "50");
+        File a = video(dir, "a.mp4", 3000);
+        File b = video(dir.resolve("s1"), "b.mp4", 4000);
+        File c = video(dir.resolve("s1").resolve("s2"), "c.mp4", 5000);
+        LocalVideoCatalog catalog = new LocalVideoCatalog();
+        catalog.setRootFolder(dir.toFile());
+        try {
+            assertTrue(catalog.awaitIndexed(30_000));
+            assertEquals(Map.of("a.mp4", sha256(a), "s1/b.mp4", sha256(b), "s1/s2/c.mp4", sha256(c)),
+                    hashesByName(catalog.listVideos()));
+            assertEquals(c.getAbsoluteFile(), catalog.findFileByName("s1/s2/c.mp4"));
+            assertEquals(b.getAbsoluteFile(), catalog.findFileByName("S1/B.mp4"));
+            assertNull(catalog.findFileByName("../a.mp4"));
+            assertNull(catalog.findFileByName("s1/\0b.mp4"));
+            assertEquals(c.getAbsoluteFile(), catalog.findFileByHash(sha256(c)));
+
+            // A directory that appears is walked and watched; one that goes away takes its videos along.
+            File d = video(dir.resolve("s3").resolve("s4"), "d.mp4", 6000);
+            waitFor(() -> hashesByName(catalog.listVideos()).containsKey("s3/s4/d.mp4"));
+            File e = video(dir.resolve("s3").resolve("s4"), "e.mp4", 7000);
+            waitFor(() -> hashesByName(catalog.listVideos()).containsKey("s3/s4/e.mp4"));
+
+            Files.delete(c.toPath());
+            Files.delete(c.getParentFile().toPath());
+            Files.delete(d.toPath());
+            Files.delete(e.toPath());
+            waitFor(() -> catalog.listVideos().size() == 2);
+            assertEquals(Map.of("a.mp4", sha256(a), "s1/b.mp4", sha256(b)), hashesByName(catalog.listVideos()));
+        } finally {
+            catalog.setRootFolder(null);
+        }
+    }
+
+    @Test
+    void flatModeIgnoresSubdirectories() throws Exception {
+        video(dir, "a.mp4", 3000);
+        File nested = video(dir.resolve("s1"), "b.mp4", 4000);
+        LocalVideoCatalog catalog = new LocalVideoCatalog();
+        catalog.setRootFolder(dir.toFile());
+        try {
+            assertTrue(catalog.awaitIndexed(30_000));
+            assertEquals(List.of("a.mp4"), catalog.listVideos().stream().map(v -> v.name).toList());
+            assertNull(catalog.findFileByName("s1/b.mp4"));
+            assertNull(catalog.findFileByHash(sha256(nested)));
+        } finally {
+            catalog.setRootFolder(null);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package edu.yeditepe.cse471.p2p.net.catalog;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import edu.yeditepe.cse471.p2p.net.LoopbackPeer;
+import edu.yeditepe.cse471.p2p.net.transfer.ChunkClient;
+import edu.yeditepe.cse471.p2p.net.transfer.ChunkConnectionPool;
+import edu.yeditepe.cse471.p2p.net.transfer.ChunkUtil;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+class NioEventLoopTest {
+
+    private static LoopbackPeer peer;
+    private static int total;
+
+    @BeforeAll
+    static void start() throws Exception {
+        peer = new LoopbackPeer(40 * 64 * 1024 + 99, true, 2);
+        total = ChunkUtil.totalChunks(peer.data.length, peer.chunkSize);
+    }
+
+    @AfterAll
+    static void stop() {
+        peer.close();
+    }
+
+    @Test
+    void textCommandsAreAnswered() throws Exception {
+        List<VideoEntry> list = TcpCatalogClient.fetchCatalog(peer.address(), peer.port);
+        assertEquals(1, list.size());
+        assertEquals(peer.hash, list.get(0).hash);
+        assertTrue(TcpCatalogClient.hasFile(peer.address(), peer.port, peer.hash));
+        assertEquals(peer.data.length, ChunkClient.fetchMeta(peer.address(), peer.port, peer.hash).size);
+    }
+
+    @Test
+    void manyClientsPipelineAtOnce() throws Exception {
+        ExecutorService exec = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> runs = new ArrayList<>();
+            for (int c = 0; c < 8; c++) {
+                String id = "client" + c;
+                runs.add(exec.submit(() -> {
+                    try (ChunkConnectionPool pool = new ChunkConnectionPool()) {
+                        int[] idxs = new int[total];
+                        for (int i = 0; i < total; i++) idxs[i] = total - 1 - i;
+                        ByteBuffer[] got = ChunkClient.fetchChunks(pool, peer.info(id), peer.hash, idxs);
+                        for (int i = 0; i < total; i++) assertArrayEquals(peer.chunk(idxs[i]), LoopbackPeer.bytes(got[i]));
+                        ByteBuffer[] range = ChunkClient.fetchRange(pool, peer.info(id), peer.hash, 2, 9);
+                        for (int i = 0; i < range.length; i++) assertArrayEquals(peer.chunk(2 + i), LoopbackPeer.bytes(range[i]));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f : runs) f.get();
+        } finally {
+            exec.shutdownNow();
+        }
+    }
+
+    @Test
+    void badIndexInABatchFailsOnlyThatChunk() throws Exception {
+        try (ChunkConnectionPool pool = new ChunkConnectionPool()) {
+            ByteBuffer[] got = ChunkClient.fetchChunks(pool, peer.info("bad"), peer.hash, new int[] { 1, total + 5, 0 });
+            assertArrayEquals(peer.chunk(1), LoopbackPeer.bytes(got[0]));
+            assertNull(got[1]);
+            assertArrayEquals(peer.chunk(0), LoopbackPeer.bytes(got[2]));
+        }
+    }
+}
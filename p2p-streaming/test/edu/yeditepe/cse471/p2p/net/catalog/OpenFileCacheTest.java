@@ -0,0 +1,94 @@
+package edu.yeditepe.cse471.p2p.net.catalog;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.Closeable;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class OpenFileCacheTest {
+
+    @TempDir
+    Path dir;
+
+    private File file(String name) throws Exception {
+        return Files.write(dir.resolve(name), new byte[] { 1, 2, 3 }).toFile();
+    }
+
+    @Test
+    void handlesAreSharedPerKey() throws Exception {
+        OpenFileCache cache = new OpenFileCache(4, null);
+        File f = file("a.mp4");
+
+        OpenFileCache.Handle h1 = cache.open("a", f);
+        OpenFileCache.Handle h2 = cache.open("a", f);
+        OpenFileCache.Handle h3 = cache.acquire("a");
+        assertSame(h1, h2);
+        assertSame(h1, h3);
+        assertTrue(h1.channel.isOpen());
+        h1.close();
+        h2.close();
+        h3.close();
+        assertTrue(h1.channel.isOpen(), "an idle cached handle stays open");
+    }
+
+    @Test
+    void invalidatedChannelClosesAfterTheLastRelease() throws Exception {
+        OpenFileCache cache = new OpenFileCache(4, null);
+        OpenFileCache.Handle h = cache.open("a", file("a.mp4"));
+
+        cache.invalidate("a");
+        assertNull(cache.acquire("a"));
+        assertTrue(h.channel.isOpen(), "a transfer still holds it");
+        h.close();
+        assertFalse(h.channel.isOpen());
+    }
+
+    @Test
+    void leaseReleasesAtMostOnce() throws Exception {
+        OpenFileCache cache = new OpenFileCache(4, null);
+        OpenFileCache.Handle h = cache.open("a", file("a.mp4"));
+        Closeable lease = h.lease();
+        h.close();
+
+        cache.invalidate("a");
+        lease.close();
+        assertFalse(h.channel.isOpen());
+
+        OpenFileCache.Handle other = cache.open("a", file("a.mp4"));
+        Closeable second = other.lease();
+        other.close();
+        second.close();
+        second.close();
+        assertTrue(other.channel.isOpen(), "a double close must not drop the cache's own view");
+        OpenFileCache.Handle again = cache.acquire("a");
+        assertSame(other, again);
+        cache.invalidate("a");
+        assertTrue(other.channel.isOpen(), "still held by acquire");
+        again.close();
+        assertFalse(other.channel.isOpen());
+    }
+
+    @Test
+    void leastRecentlyUsedHandleIsEvicted() throws Exception {
+        OpenFileCache cache = new OpenFileCache(2, null);
+        OpenFileCache.Handle a = cache.open("a", file("a.mp4"));
+        OpenFileCache.Handle b = cache.open("b", file("b.mp4"));
+        a.close();
+        b.close();
+        cache.acquire("a").close();
+
+        OpenFileCache.Handle c = cache.open("c", file("c.mp4"));
+        c.close();
+        assertFalse(b.channel.isOpen());
+        assertTrue(a.channel.isOpen());
+        assertNull(cache.acquire("b"));
+    }
+}
@@ -0,0 +1,107 @@
+package edu.yeditepe.cse471.p2p.net.transfer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BufferFolderCacheTest {
+
+    @TempDir
+    Path dir;
+
+    private File file(String name, int bytes, long ageMs) throws IOException {
+        File f = Files.write(dir.resolve(name), new byte[bytes]).toFile();
+        f.setLastModified(System.currentTimeMillis() - ageMs);
+        return f;
+    }
+
+    @Test
+    void filesOfOneVideoShareAKey() {
+        assertEquals("a.mp4", BufferFolderCache.keyOf("a.streaming.mp4"));
+        assertEquals("a.mp4", BufferFolderCache.keyOf("a.streaming.mp4.journal"));
+        assertEquals("a.mp4", BufferFolderCache.keyOf("a.mp4.complete"));
+    }
+
+    @Test
+    void oldestVideoOnDiskIsEvictedFirst() throws Exception {
+        File old = file("a.mp4.complete", 100, 60_000);
+        File oldJournal = file("a.streaming.mp4.journal", 10, 60_000);
+        File newer = file("b.mp4.complete", 100, 1_000);
+
+        BufferFolderCache cache = new BufferFolderCache(dir.toFile(), 250, BufferFolderCache.Policy.LRU);
+        assertEquals(210, cache.getUsedBytes());
+        List<File> evicted = new ArrayList<>();
+        cache.setEvictionListener(evicted::add);
+
+        cache.reserve("c.mp4", 100, dir.resolve("c.streaming.mp4").toFile());
+        assertEquals(Set.of(old, oldJournal), new HashSet<>(evicted));
+        assertFalse(old.exists());
+        assertFalse(oldJournal.exists());
+        assertTrue(newer.exists());
+        assertEquals(200, cache.getUsedBytes());
+    }
+
+    @Test
+    void pinnedVideosAreNeverEvicted() throws Exception {
+        BufferFolderCache cache = new BufferFolderCache(dir.toFile(), 200, BufferFolderCache.Policy.LRU);
+        cache.reserve("a.mp4", 100, file("a.streaming.mp4", 0, 0));
+        cache.reserve("b.mp4", 100, file("b.streaming.mp4", 0, 0));
+
+        assertThrows(IOException.class, () -> cache.reserve("c.mp4", 50));
+        assertTrue(cache.stats().contains("|pinned=2|evictions=0"), cache.stats());
+
+        cache.unpin("b.mp4");
+        cache.reserve("c.mp4", 50);
+        assertTrue(cache.stats().contains("|videos=2|pinned=2|evictions=1"), cache.stats());
+        assertFalse(dir.resolve("b.streaming.mp4").toFile().exists());
+    }
+
+    @Test
+    void lfuKeepsTheMostUsedVideo() throws Exception {
+        for (BufferFolderCache.Policy policy : BufferFolderCache.Policy.values()) {
+            File d = Files.createDirectory(dir.resolve(policy.name())).toFile();
+            BufferFolderCache cache = new BufferFolderCache(d, 200, policy);
+            cache.reserve("a.mp4", 100);
+            cache.reserve("b.mp4", 100);
+            cache.unpin("a.mp4");
+            cache.unpin("b.mp4");
+            for (int i = 0; i < 3; i++) cache.touch("a.mp4");
+            cache.touch("b.mp4");   // most recent, but used less
+
+            List<File> evicted = new ArrayList<>();
+            cache.setEvictionListener(evicted::add);
+            File a = new File(d, "a.mp4.complete");
+            File b = new File(d, "b.mp4.complete");
+            cache.reserve("a.mp4", 100, a);
+            cache.reserve("b.mp4", 100, b);
+            cache.unpin("a.mp4");
+            cache.unpin("b.mp4");
+
+            cache.reserve("c.mp4", 100);
+            File expected = (policy == BufferFolderCache.Policy.LFU) ? b : a;
+            assertEquals(List.of(expected), evicted, policy.name());
+        }
+    }
+
+    @Test
+    void resumedDownloadIsChargedForItsGrowthOnly() throws Exception {
+        file("a.streaming.mp4", 40, 0);
+        BufferFolderCache cache = new BufferFolderCache(dir.toFile(), 100, BufferFolderCache.Policy.LRU);
+        cache.reserve("a.mp4", 100);
+        assertEquals(100, cache.getUsedBytes());
+        assertThrows(IOException.class, () -> cache.reserve("b.mp4", 1));
+    }
+}
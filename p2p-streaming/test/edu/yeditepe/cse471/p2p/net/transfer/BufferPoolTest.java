@@ -0,0 +1,111 @@
+package edu.yeditepe.cse471.p2p.net.transfer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import edu.yeditepe.cse471.p2p.net.LoopbackPeer;
+import edu.yeditepe.cse471.p2p.net.PeerInfo;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+class BufferPoolTest {
+
+    @Test
+    void releasedBuffersAreReusedBySizeClass() {
+        BufferPool pool = new BufferPool(1024, 4, false);
+        ByteBuffer a = pool.acquire(1000);
+        assertEquals(1024, a.capacity());
+        assertEquals(1000, a.limit());
+        pool.release(a);
+
+        ByteBuffer b = pool.acquire(700);
+        assertSame(a, b);
+        assertEquals(0, b.position());
+        assertEquals(700, b.limit());
+
+        ByteBuffer big = pool.acquire(3000);
+        assertEquals(4096, big.capacity());
+        assertNotSame(a, big);
+        assertTrue(pool.stats().endsWith("|allocated=2|reused=1"), pool.stats());
+    }
+
+    @Test
+    void foreignAndOversizedBuffersAreNotPooled() {
+        BufferPool pool = new BufferPool(1024, 4, false);
+        pool.release(ByteBuffer.allocate(1500));
+        pool.release(ByteBuffer.allocateDirect(1024));
+        pool.release(null);
+        assertTrue(pool.stats().contains("|idleBytes=0|"), pool.stats());
+
+        ByteBuffer huge = pool.acquire(ChunkProtocol.MAX_CHUNK_SIZE + 1);
+        assertEquals(ChunkProtocol.MAX_CHUNK_SIZE + 1, huge.capacity());
+        pool.release(huge);
+        assertTrue(pool.stats().contains("|idleBytes=0|"), pool.stats());
+    }
+
+    @Test
+    void idleBytesAreCapped() {
+        BufferPool pool = new BufferPool(ChunkProtocol.CHUNK_SIZE, 1, false);
+        ByteBuffer a = pool.acquire(ChunkProtocol.CHUNK_SIZE);
+        ByteBuffer b = pool.acquire(ChunkProtocol.CHUNK_SIZE);
+        pool.releaseAll(new ByteBuffer[] { a, b });
+        assertTrue(pool.stats().contains("|idleBytes=" + ChunkProtocol.CHUNK_SIZE + "|"), pool.stats());
+    }
+
+    @Test
+    void chunkLengthIsCheckedBeforeABufferIsTaken() throws Exception {
+        try (ServerSocket ss = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            Thread fake = new Thread(() -> {
+                try (Socket s = ss.accept()) {
+                    ProtocolReader in = new ProtocolReader(s.getInputStream());
+                    OutputStream os = s.getOutputStream();
+                    in.readLine();
+                    os.write("OK|SESSION|1|CHUNKS\nEND\n".getBytes(StandardCharsets.US_ASCII));
+                    os.flush();
+                    in.readLine();
+                    // Promises a chunk as large as any chunk may be, then sends nothing.
+                    os.write(("DATA|0|" + ChunkProtocol.MAX_CHUNK_SIZE + "\n").getBytes(StandardCharsets.US_ASCII));
+                    os.flush();
+                    in.readLine();
+                } catch (IOException ignored) {
+                }
+            });
+            fake.start();
+
+            try (ChunkConnectionPool pool = new ChunkConnectionPool(1, new BufferPool(1024, 4, false))) {
+                pool.setLayout("v", 100_000, 65536);
+                PeerInfo peer = new PeerInfo("fake", ss.getInetAddress(), 0, ss.getLocalPort(), System.currentTimeMillis(), "");
+                IOException e = assertThrows(IOException.class, () -> ChunkClient.fetchChunk(pool, peer, "v", 0));
+                assertTrue(e.getMessage().contains("expected 65536"), e.getMessage());
+                assertTrue(pool.getBufferPool().stats().contains("|allocated=0|"), pool.getBufferPool().stats());
+            } finally {
+                fake.join();
+            }
+        }
+    }
+
+    @Test
+    void chunksMatchingTheLayoutArrive() throws Exception {
+        try (LoopbackPeer peer = new LoopbackPeer(3 * 64 * 1024 + 5);
+             ChunkConnectionPool pool = new ChunkConnectionPool()) {
+            pool.setLayout(peer.hash, peer.data.length, peer.chunkSize);
+            ByteBuffer[] run = ChunkClient.fetchRange(pool, peer.info("p"), peer.hash, 0, 3);
+            for (int i = 0; i < run.length; i++) {
+                assertArrayEquals(peer.chunk(i), LoopbackPeer.bytes(run[i]));
+            }
+            pool.getBufferPool().releaseAll(run);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package edu.yeditepe.cse471.p2p.net.transfer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class ChunkBitmapTest {
+
+    private static ChunkBitmap every3rd(int size) {
+        ChunkBitmap b = new ChunkBitmap(size);
+        for (int i = 0; i < size; i += 3) b.set(i);
+        return b;
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = { 1, 7, 8, 9, 63, 64, 65, 130 })
+    void byteArrayRoundTripsWithAPartialLastWord(int size) {
+        ChunkBitmap b = every3rd(size);
+        byte[] bytes = b.toByteArray();
+        assertEquals((size + 7) / 8, bytes.length);
+
+        ChunkBitmap back = ChunkBitmap.fromByteArray(size, bytes);
+        assertEquals(b.count(), back.count());
+        assertEquals(b.missing(), back.missing());
+        assertArrayEquals(b.toLongArray(), back.toLongArray());
+    }
+
+    @Test
+    void bitsPastTheSizeAreDropped() {
+        byte[] all = { (byte) 0xFF, (byte) 0xFF };
+        ChunkBitmap b = ChunkBitmap.fromByteArray(11, all);
+        assertEquals(11, b.count());
+        assertTrue(b.isComplete());
+        assertEquals(-1, b.nextMissing(0));
+
+        ChunkBitmap w = ChunkBitmap.fromLongArray(70, new long[] { -1L, -1L });
+        assertEquals(70, w.count());
+        assertArrayEquals(new long[] { -1L, (1L << 6) - 1 }, w.toLongArray());
+    }
+
+    @Test
+    void byteOrderIsChunkBitWithinByte() {
+        ChunkBitmap b = new ChunkBitmap(20);
+        b.set(0);
+        b.set(9);
+        b.set(19);
+        assertArrayEquals(new byte[] { 0x01, 0x02, 0x08 }, b.toByteArray());
+    }
+
+    @Test
+    void countAndMissingFollowSets() {
+        ChunkBitmap b = new ChunkBitmap(130);
+        assertTrue(b.set(64));
+        assertFalse(b.set(64));
+        b.set(0);
+        b.set(129);
+        assertEquals(3, b.count());
+        assertEquals(1, b.nextMissing(0));
+        assertEquals(65, b.nextMissing(64));
+        assertEquals(-1, b.nextMissing(130));
+
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 1; i < 129; i++) if (i != 64) expected.add(i);
+        assertEquals(expected, b.missing());
+        assertThrows(IndexOutOfBoundsException.class, () -> b.get(130));
+    }
+
+    @Test
+    void emptyBitmapIsComplete() {
+        ChunkBitmap b = new ChunkBitmap(0);
+        assertTrue(b.isComplete());
+        assertEquals(0, b.toByteArray().length);
+        assertEquals(List.of(), b.missing());
+    }
+}
@@ -0,0 +1,89 @@
+package edu.yeditepe.cse471.p2p.net.transfer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import edu.yeditepe.cse471.p2p.net.LoopbackPeer;
+
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+class ChunkLayoutTest {
+
+    private static final int SIZE = 1024 * 1024 + 3;
+
+    private static LoopbackPeer peer;
+
+    @BeforeAll
+    static void start() throws Exception {
+        peer = new LoopbackPeer(SIZE);
+    }
+
+    @AfterAll
+    static void stop() {
+        peer.close();
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "0, 65536",
+            "1000000, 65536",
+            "67108864, 65536",              // 64 MB: 1024 chunks of the minimum
+            "67109888, 131072",          // just past it: the next power of two
+            "1073741824, 1048576",          // 1 GB
+            "1099511627776, 4194304",       // 1 TB: capped
+    })
+    void chunkSizeGrowsWithTheFile(long fileSize, int expected) {
+        int cs = ChunkUtil.chunkSizeFor(fileSize, 0);
+        assertEquals(expected, cs);
+        assertEquals(1, Integer.bitCount(cs));
+        assertTrue(ChunkUtil.totalChunks(fileSize, cs) <= ChunkProtocol.TARGET_CHUNKS_PER_FILE || cs == ChunkProtocol.MAX_CHUNK_SIZE);
+    }
+
+    @Test
+    void fixedChunkSizeWinsUpToTheMaximum() {
+        assertEquals(262144, ChunkUtil.chunkSizeFor(1L << 40, 262144));
+        assertEquals(ChunkProtocol.MAX_CHUNK_SIZE, ChunkUtil.chunkSizeFor(10, 64 * 1024 * 1024));
+    }
+
+    @Test
+    void lastChunkIsTheRemainder() {
+        assertEquals(5, ChunkUtil.totalChunks(SIZE, 262144));
+        assertEquals(262144, ChunkUtil.chunkLength(SIZE, 262144, 3));
+        assertEquals(3, ChunkUtil.chunkLength(SIZE, 262144, 4));
+        assertEquals(17, ChunkUtil.totalChunks(SIZE, 65536));
+        assertEquals(3, ChunkUtil.chunkLength(SIZE, 65536, 16));
+    }
+
+    @Test
+    void clientsThatOptInGetTheFileLayout() throws Exception {
+        assertEquals(65536, peer.chunkSize);
+        ChunkClient.Meta meta = ChunkClient.fetchMeta(peer.address(), peer.port, peer.hash);
+        assertEquals(peer.chunkSize, meta.chunkSize);
+        assertEquals(17, meta.chunks);
+
+        try (ChunkConnectionPool pool = new ChunkConnectionPool()) {
+            ByteBuffer last = ChunkClient.fetchChunk(pool, peer.info("p"), peer.hash, 16);
+            assertArrayEquals(peer.chunk(16), LoopbackPeer.bytes(last));
+        }
+        assertEquals(17, ChunkClient.fetchChunkHashes(peer.address(), peer.port, peer.hash, meta).getChunks());
+    }
+
+    @Test
+    void everyoneElseGetsTheLegacyLayout() throws Exception {
+        try (Socket s = new Socket(peer.address(), peer.port)) {
+            ChunkClient.writeLine(s.getOutputStream(), "META|" + peer.hash);
+            String line = new ProtocolReader(s.getInputStream()).readLine();
+            assertTrue(line.equals("SIZE|" + SIZE + "|CHUNKS|5|CHUNK|" + ChunkProtocol.CHUNK_SIZE), line);
+        }
+        byte[] first = ChunkClient.fetchChunk(peer.address(), peer.port, peer.hash, 0);
+        assertArrayEquals(peer.chunk(0, ChunkProtocol.CHUNK_SIZE), first);
+    }
+}
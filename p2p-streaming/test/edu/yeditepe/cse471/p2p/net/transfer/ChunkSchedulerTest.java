@@ -0,0 +1,122 @@
+package edu.yeditepe.cse471.p2p.net.transfer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import edu.yeditepe.cse471.p2p.net.LoopbackPeer;
+import edu.yeditepe.cse471.p2p.net.PeerInfo;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+class ChunkSchedulerTest {
+
+    private static LoopbackPeer peer;
+    private static int total;
+
+    @BeforeAll
+    static void start() throws Exception {
+        peer = new LoopbackPeer(5 * ChunkProtocol.MIN_CHUNK_SIZE - 100);
+        total = ChunkUtil.totalChunks(peer.data.length, peer.chunkSize);
+    }
+
+    @AfterAll
+    static void stop() {
+        peer.close();
+    }
+
+    private static PeerInfo deadPeer(String id) throws Exception {
+        return new PeerInfo(id, InetAddress.getLoopbackAddress(), 0, LoopbackPeer.freePort(), 0, "");
+    }
+
+    private static List<Integer> all() {
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < total; i++) order.add(i);
+        return order;
+    }
+
+    @Test
+    void everyChunkReachesTheSinkOnceFromLiveSources() throws Exception {
+        Map<Integer, byte[]> got = new TreeMap<>();
+        Map<String, Integer> bySource = new HashMap<>();
+        try (ChunkConnectionPool pool = new ChunkConnectionPool()) {
+            ChunkScheduler s = new ChunkScheduler(pool, peer.hash, List.of(peer.info("a"), peer.info("b")), 4, 2, 2);
+            List<Integer> unavailable = s.run(all(), (idx, data, src) -> {
+                assertEquals(null, got.put(idx, LoopbackPeer.bytes(data)));
+                bySource.merge(src.peerId, 1, Integer::sum);
+                pool.getBufferPool().release(data);
+            });
+            assertTrue(unavailable.isEmpty());
+        }
+        assertEquals(total, got.size());
+        for (int i = 0; i < total; i++) assertArrayEquals(peer.chunk(i), got.get(i));
+        assertEquals(2, bySource.size());
+    }
+
+    @Test
+    void deadSourceIsLeftBehind() throws Exception {
+        Map<Integer, String> from = new TreeMap<>();
+        try (ChunkConnectionPool pool = new ChunkConnectionPool()) {
+            ChunkScheduler s = new ChunkScheduler(pool, peer.hash, List.of(deadPeer("dead"), peer.info("live")), 4, 2, 1);
+            List<Integer> unavailable = s.run(all(), (idx, data, src) -> {
+                from.put(idx, src.peerId);
+                pool.getBufferPool().release(data);
+            });
+            assertTrue(unavailable.isEmpty());
+        }
+        assertEquals(total, from.size());
+        assertFalse(from.containsValue("dead"));
+    }
+
+    @Test
+    void chunksOnlyAPartialSeedLacksAreReportedUnavailable() throws Exception {
+        PeerInfo partial = peer.info("partial");
+        ChunkBitmap have = new ChunkBitmap(total);
+        have.set(0);
+        have.set(1);
+        have.set(2);
+        List<Integer> delivered = new ArrayList<>();
+        try (ChunkConnectionPool pool = new ChunkConnectionPool()) {
+            ChunkScheduler s = new ChunkScheduler(pool, peer.hash, List.of(partial), 4, 2);
+            s.setAvailability(partial, have);
+            List<Integer> unavailable = s.run(all(), (idx, data, src) -> {
+                delivered.add(idx);
+                pool.getBufferPool().release(data);
+            });
+            assertEquals(List.of(3, 4), unavailable);
+        }
+        delivered.sort(null);
+        assertEquals(List.of(0, 1, 2), delivered);
+    }
+
+    @Test
+    void chunksWhoseOnlyHolderDiedAreReportedUnavailable() throws Exception {
+        // One request at a time: the partial seed serves 0 and 1, the dead full source fails
+        // three times on 1 and 2 and is given up, which leaves 2..4 with no live holder.
+        PeerInfo partial = peer.info("partial");
+        ChunkBitmap have = new ChunkBitmap(total);
+        have.set(0);
+        have.set(1);
+        List<Integer> delivered = new ArrayList<>();
+        try (ChunkConnectionPool pool = new ChunkConnectionPool()) {
+            ChunkScheduler s = new ChunkScheduler(pool, peer.hash, List.of(partial, deadPeer("dead")), 1, 1, 1);
+            s.setAvailability(partial, have);
+            List<Integer> unavailable = s.run(all(), (idx, data, src) -> {
+                delivered.add(idx);
+                pool.getBufferPool().release(data);
+            });
+            assertEquals(List.of(2, 3, 4), unavailable);
+        }
+        assertEquals(List.of(0, 1), delivered);
+    }
+}
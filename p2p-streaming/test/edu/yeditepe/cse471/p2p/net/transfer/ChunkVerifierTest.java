@@ -0,0 +1,93 @@
+package edu.yeditepe.cse471.p2p.net.transfer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import edu.yeditepe.cse471.p2p.net.LoopbackPeer;
+import edu.yeditepe.cse471.p2p.net.PeerInfo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+class ChunkVerifierTest {
+
+    private static LoopbackPeer peer;
+
+    @BeforeAll
+    static void start() throws Exception {
+        peer = new LoopbackPeer(3 * 64 * 1024 + 99);
+    }
+
+    @AfterAll
+    static void stop() {
+        peer.close();
+    }
+
+    private static byte[] hashesOf(byte[]... chunks) {
+        byte[] out = new byte[chunks.length * ChunkVerifier.HASH_BYTES];
+        for (int i = 0; i < chunks.length; i++) {
+            byte[] h = ChunkVerifier.newDigest().digest(chunks[i]);
+            System.arraycopy(h, 0, out, i * ChunkVerifier.HASH_BYTES, h.length);
+        }
+        return out;
+    }
+
+    @Test
+    void listMustAddUpToTheRoot() throws Exception {
+        byte[] hashes = hashesOf(new byte[] { 1 }, new byte[] { 2 });
+        String root = ChunkUtil.hex(ChunkVerifier.root(hashes));
+        assertEquals(2, ChunkVerifier.of(hashes, root).getChunks());
+
+        hashes[5] ^= 1;
+        assertThrows(IOException.class, () -> ChunkVerifier.of(hashes, root));
+        assertThrows(IOException.class, () -> ChunkVerifier.of(new byte[ChunkVerifier.HASH_BYTES + 1], root));
+    }
+
+    @Test
+    void corruptChunksAreRejectedAndReleased() throws Exception {
+        byte[] a = { 1, 2, 3 };
+        byte[] b = { 4, 5, 6 };
+        byte[] hashes = hashesOf(a, b);
+        ChunkVerifier v = ChunkVerifier.of(hashes, ChunkUtil.hex(ChunkVerifier.root(hashes)));
+
+        ByteBuffer[] run = { ByteBuffer.wrap(a), ByteBuffer.wrap(new byte[] { 4, 5, 7 }) };
+        assertEquals(1, v.reject(0, run, new BufferPool()));
+        assertNotNull(run[0]);
+        assertNull(run[1]);
+        assertTrue(v.verify(1, ByteBuffer.wrap(b)));
+        assertFalse(v.verify(2, ByteBuffer.wrap(b)));
+    }
+
+    @Test
+    void hashesComeFromTheNextSourceWhenOneFails() throws Exception {
+        ChunkClient.Meta meta = ChunkClient.fetchMeta(peer.address(), peer.port, peer.hash);
+        assertNotNull(meta.root);
+
+        PeerInfo dead = new PeerInfo("dead", peer.address(), 0, LoopbackPeer.freePort(), System.currentTimeMillis(), "");
+        ChunkVerifier v = ChunkClient.fetchChunkHashes(List.of(dead, peer.info("live")), peer.hash, meta);
+        assertNotNull(v);
+        assertEquals(meta.chunks, v.getChunks());
+        for (int idx = 0; idx < meta.chunks; idx++) {
+            assertTrue(v.verify(idx, ByteBuffer.wrap(peer.chunk(idx, meta.chunkSize))), "chunk " + idx);
+        }
+    }
+
+    @Test
+    void listNotMatchingTheMetaRootIsRefused() throws Exception {
+        ChunkClient.Meta real = ChunkClient.fetchMeta(peer.address(), peer.port, peer.hash);
+        ChunkClient.Meta other = new ChunkClient.Meta(real.size, real.chunks, real.chunkSize,
+                ChunkUtil.hex(new byte[ChunkVerifier.HASH_BYTES]), null);
+
+        assertThrows(IOException.class, () -> ChunkClient.fetchChunkHashes(peer.address(), peer.port, peer.hash, other));
+        assertNull(ChunkClient.fetchChunkHashes(List.of(peer.info("a"), peer.info("b")), peer.hash, other));
+    }
+}
@@ -0,0 +1,82 @@
+package edu.yeditepe.cse471.p2p.net.transfer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ChunkWriterTest {
+
+    private static final int CHUNK = 4096;
+    private static final int CHUNKS = 40;
+
+    @TempDir
+    Path dir;
+
+    private static ByteBuffer copy(BufferPool pool, byte[] data, int idx, int len) {
+        ByteBuffer b = pool.acquire(len);
+        b.put(data, idx * CHUNK, len).flip();
+        return b;
+    }
+
+    @Test
+    void shuffledChunksAreWrittenBehindAndBuffersReturned() throws Exception {
+        File file = dir.resolve("v.part").toFile();
+        int size = CHUNKS * CHUNK - 17;
+        byte[] data = new byte[size];
+        new Random(7).nextBytes(data);
+
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < CHUNKS; i++) order.add(i);
+        Collections.shuffle(order, new Random(3));
+
+        BufferPool pool = new BufferPool(CHUNK, 64, false);
+        for (ChunkWriter.FsyncPolicy policy : ChunkWriter.FsyncPolicy.values()) {
+            try (DownloadStore store = DownloadStore.create(file, size, CHUNK, "")) {
+                try (ChunkWriter w = new ChunkWriter(store, pool, 4, 8, policy)) {
+                    for (int idx : order) w.submit(idx, copy(pool, data, idx, store.chunkLength(idx)));
+                    w.flush();
+                    assertTrue(store.isComplete(), policy.name());
+                }
+            }
+            assertArrayEquals(data, Files.readAllBytes(file.toPath()), policy.name());
+        }
+        assertFalse(pool.stats().endsWith("|reused=0"), "written buffers go back to the pool: " + pool.stats());
+    }
+
+    @Test
+    void writeErrorIsRethrown() throws Exception {
+        File file = dir.resolve("v.part").toFile();
+        try (DownloadStore store = DownloadStore.create(file, 2 * CHUNK, CHUNK, "")) {
+            BufferPool pool = new BufferPool(CHUNK, 4, false);
+            ChunkWriter w = new ChunkWriter(store, pool, 4, 8, ChunkWriter.FsyncPolicy.JOURNAL);
+            w.submit(0, ByteBuffer.allocate(CHUNK - 1));
+            IOException e = assertThrows(IOException.class, w::flush);
+            assertTrue(e.getCause().getMessage().contains("expected " + CHUNK), e.getCause().getMessage());
+            assertThrows(IOException.class, () -> w.submit(1, ByteBuffer.allocate(CHUNK)));
+            assertThrows(IOException.class, w::close);
+            assertEquals(0, store.completedCount());
+        }
+    }
+
+    @Test
+    void unknownFsyncPolicyFallsBackToJournal() {
+        assertEquals(ChunkWriter.FsyncPolicy.BATCH, ChunkWriter.fsyncPolicy(" batch "));
+        assertEquals(ChunkWriter.FsyncPolicy.JOURNAL, ChunkWriter.fsyncPolicy("always"));
+        assertEquals(ChunkWriter.FsyncPolicy.JOURNAL, ChunkWriter.fsyncPolicy(""));
+    }
+}
@@ -0,0 +1,187 @@
+package edu.yeditepe.cse471.p2p.net.transfer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DownloadStoreTest {
+
+    private static final int CHUNK = 1000;
+    private static final int SIZE = 4 * CHUNK + 123;
+
+    @TempDir
+    Path dir;
+
+    private File file;
+    private byte[] data;
+
+    @BeforeEach
+    void setUp() {
+        file = dir.resolve("v.mp4.part").toFile();
+        data = new byte[SIZE];
+        new Random(SIZE).nextBytes(data);
+    }
+
+    private ByteBuffer chunk(int idx) {
+        int from = idx * CHUNK;
+        return ByteBuffer.wrap(Arrays.copyOfRange(data, from, Math.min(SIZE, from + CHUNK)));
+    }
+
+    @Test
+    void chunksLandAtTheirOffsetsInAnyOrder() throws Exception {
+        try (DownloadStore s = DownloadStore.create(file, SIZE, CHUNK, "")) {
+            assertEquals(SIZE, file.length(), "created at its final size");
+            assertEquals(5, s.getTotalChunks());
+
+            s.writeChunk(4, chunk(4));
+            s.writeChunk(1, chunk(1));
+            s.writeRun(2, new ByteBuffer[] { chunk(2), chunk(3) });
+            assertEquals(List.of(0), s.missingChunks());
+            s.writeChunk(0, chunk(0).array());
+            assertTrue(s.isComplete());
+        }
+        assertArrayEquals(data, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    void bufferPositionsAreLeftAlone() throws Exception {
+        try (DownloadStore s = DownloadStore.create(file, SIZE, CHUNK, "")) {
+            ByteBuffer c = chunk(1);
+            s.writeChunk(1, c);
+            assertEquals(0, c.position());
+
+            ByteBuffer[] run = { chunk(2), chunk(3) };
+            s.writeRun(2, run);
+            assertEquals(0, run[0].position());
+            assertEquals(0, run[1].position());
+        }
+    }
+
+    @Test
+    void wrongLengthOrIndexIsRejected() throws Exception {
+        try (DownloadStore s = DownloadStore.create(file, SIZE, CHUNK, "")) {
+            assertThrows(IOException.class, () -> s.writeChunk(0, new byte[CHUNK - 1]));
+            assertThrows(IOException.class, () -> s.writeChunk(4, new byte[CHUNK]));
+            assertThrows(IOException.class, () -> s.writeChunk(5, new byte[123]));
+            assertThrows(IOException.class, () -> s.writeChunk(-1, new byte[CHUNK]));
+            assertThrows(IOException.class, () -> s.writeRun(3, new ByteBuffer[] { chunk(3), chunk(4), chunk(4) }));
+            assertEquals(0, s.completedCount());
+        }
+    }
+
+    @Test
+    void rewritingAChunkCountsOnce() throws Exception {
+        try (DownloadStore s = DownloadStore.create(file, SIZE, CHUNK, "")) {
+            s.writeChunk(2, chunk(2));
+            s.writeChunk(2, chunk(2));
+            assertEquals(1, s.completedCount());
+            assertFalse(s.has(1));
+            assertTrue(s.has(2));
+        }
+    }
+
+    @Test
+    void openResumesFromTheLastJournal() throws Exception {
+        DownloadStore crashed = DownloadStore.create(file, SIZE, CHUNK, "h");
+        try {
+            crashed.writeChunk(0, chunk(0));
+            crashed.writeChunk(2, chunk(2));
+            crashed.flushJournal();
+            crashed.writeChunk(3, chunk(3));   // never journaled: the process dies here
+
+            try (DownloadStore resumed = DownloadStore.open(file, SIZE, CHUNK, "h")) {
+                assertEquals(2, resumed.getResumedChunks());
+                assertEquals(List.of(1, 3, 4), resumed.missingChunks());
+                for (int idx : resumed.missingChunks()) resumed.writeChunk(idx, chunk(idx));
+                assertTrue(resumed.isComplete());
+            }
+        } finally {
+            crashed.close();
+        }
+        assertArrayEquals(data, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    void cleanCloseJournalsEverything() throws Exception {
+        try (DownloadStore s = DownloadStore.create(file, SIZE, CHUNK, "h")) {
+            s.writeChunk(1, chunk(1));
+            s.writeChunk(4, chunk(4));
+        }
+        assertTrue(DownloadStore.journalFile(file).isFile());
+        try (DownloadStore s = DownloadStore.open(file, SIZE, CHUNK, "h")) {
+            assertEquals(List.of(0, 2, 3), s.missingChunks());
+        }
+    }
+
+    @Test
+    void journalForOtherContentStartsOver() throws Exception {
+        try (DownloadStore s = DownloadStore.create(file, SIZE, CHUNK, "h")) {
+            s.writeChunk(1, chunk(1));
+        }
+        try (DownloadStore s = DownloadStore.open(file, SIZE, CHUNK, "other")) {
+            assertEquals(0, s.getResumedChunks());
+        }
+        try (DownloadStore s = DownloadStore.create(file, SIZE, CHUNK, "h")) {
+            s.writeChunk(1, chunk(1));
+        }
+        try (DownloadStore s = DownloadStore.open(file, SIZE, CHUNK / 2, "h")) {
+            assertEquals(0, s.getResumedChunks());
+        }
+    }
+
+    @Test
+    void tornJournalStartsOver() throws Exception {
+        try (DownloadStore s = DownloadStore.create(file, SIZE, CHUNK, "h")) {
+            s.writeChunk(1, chunk(1));
+        }
+        Path journal = DownloadStore.journalFile(file).toPath();
+        byte[] j = Files.readAllBytes(journal);
+        Files.write(journal, Arrays.copyOf(j, j.length - 3));
+
+        try (DownloadStore s = DownloadStore.open(file, SIZE, CHUNK, "h")) {
+            assertEquals(0, s.getResumedChunks());
+            assertEquals(SIZE, file.length());
+        }
+    }
+
+    @Test
+    void completeRenamesTheFileIntoPlace() throws Exception {
+        File target = dir.resolve("v.mp4").toFile();
+        Files.write(target.toPath(), new byte[] { 1 });   // an older copy is replaced
+
+        DownloadStore s = DownloadStore.create(file, SIZE, CHUNK, "h");
+        for (int idx = 0; idx < s.getTotalChunks(); idx++) s.writeChunk(idx, chunk(idx));
+        assertEquals(target, s.complete(target));
+
+        assertArrayEquals(data, Files.readAllBytes(target.toPath()));
+        assertFalse(file.exists());
+        assertFalse(DownloadStore.journalFile(file).exists());
+    }
+
+    @Test
+    void incompleteDownloadIsNotPromoted() throws Exception {
+        File target = dir.resolve("v.mp4").toFile();
+        try (DownloadStore s = DownloadStore.create(file, SIZE, CHUNK, "h")) {
+            s.writeChunk(0, chunk(0));
+            IOException e = assertThrows(IOException.class, () -> s.complete(target));
+            assertTrue(e.getMessage().contains("1/5"), e.getMessage());
+        }
+        assertFalse(target.exists());
+        assertTrue(file.isFile());
+    }
+}
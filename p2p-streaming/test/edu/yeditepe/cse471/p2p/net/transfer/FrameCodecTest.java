@@ -0,0 +1,152 @@
+package edu.yeditepe.cse471.p2p.net.transfer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import edu.yeditepe.cse471.p2p.net.LoopbackPeer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+class FrameCodecTest {
+
+    private static final byte[] ID = "abcé".getBytes(StandardCharsets.UTF_8);
+
+    private static ByteBuffer request(int reqId, int idx, int count) {
+        ByteBuffer b = ByteBuffer.allocate(FrameCodec.REQUEST_HEADER_BYTES + ID.length);
+        FrameCodec.putRequest(b, FrameCodec.OP_GETRANGE, FrameCodec.FLAG_CRC, reqId, idx, count, ID);
+        b.flip();
+        return b;
+    }
+
+    @Test
+    void requestRoundTrips() throws Exception {
+        ByteBuffer b = request(7, 42, 5);
+        assertEquals(FrameCodec.REQUEST_HEADER_BYTES + ID.length, b.remaining());
+
+        FrameCodec.Request r = new FrameCodec.Request();
+        assertTrue(r.decode(b));
+        assertFalse(b.hasRemaining());
+        assertEquals(FrameCodec.OP_GETRANGE, r.op);
+        assertTrue(r.wantsCrc());
+        assertEquals(7, r.reqId);
+        assertEquals(42, r.idx);
+        assertEquals(5, r.count);
+        assertEquals("abcé", r.id);
+
+        String id = r.id;
+        ByteBuffer again = request(8, 43, 1);
+        ProtocolReader in = new ProtocolReader(new ByteArrayInputStream(again.array()));
+        r.read(in);
+        assertEquals(8, r.reqId);
+        assertEquals(43, r.idx);
+        assertSame(id, r.id, "an unchanged id is not decoded again");
+    }
+
+    @Test
+    void partialRequestIsNotConsumed() throws Exception {
+        ByteBuffer whole = request(1, 2, 3);
+        FrameCodec.Request r = new FrameCodec.Request();
+        for (int cut : new int[] { 0, 5, FrameCodec.REQUEST_HEADER_BYTES, whole.remaining() - 1 }) {
+            ByteBuffer part = whole.duplicate();
+            part.limit(cut);
+            assertFalse(r.decode(part), "cut at " + cut);
+            assertEquals(0, part.position());
+        }
+    }
+
+    @Test
+    void overlongIdIsRejected() {
+        ByteBuffer b = ByteBuffer.allocate(FrameCodec.REQUEST_HEADER_BYTES);
+        b.put(FrameCodec.OP_GETCHUNK).put((byte) 0).putShort((short) (FrameCodec.MAX_ID_BYTES + 1));
+        b.putInt(1).putInt(0).putInt(1).flip();
+        assertThrows(IOException.class, () -> new FrameCodec.Request().decode(b));
+    }
+
+    @Test
+    void responseHeaderLayout() {
+        ByteBuffer h = FrameCodec.dataHeader(9, 3, 1000, FrameCodec.FLAG_CRC, 0xCAFEBABE);
+        assertEquals(FrameCodec.RESPONSE_HEADER_BYTES, h.remaining());
+        assertEquals(FrameCodec.TYPE_DATA, h.get());
+        assertEquals(FrameCodec.FLAG_CRC, h.get());
+        assertEquals(FrameCodec.STATUS_OK, h.getShort());
+        assertEquals(9, h.getInt());
+        assertEquals(3, h.getInt());
+        assertEquals(1000, h.getInt());
+        assertEquals(0xCAFEBABE, h.getInt());
+
+        ByteBuffer e = FrameCodec.errorHeader(4, 5, FrameCodec.STATUS_MISSING);
+        assertEquals(FrameCodec.TYPE_ERR, e.get(0));
+        assertEquals(FrameCodec.STATUS_MISSING, e.getShort(2));
+        assertEquals("ERR|MISSING", FrameCodec.statusLine(FrameCodec.STATUS_MISSING));
+    }
+
+    @Test
+    void crcCoversAllBuffersAndKeepsPositions() {
+        byte[] data = new byte[1000];
+        new java.util.Random(1).nextBytes(data);
+        ByteBuffer a = ByteBuffer.wrap(data, 0, 300).slice();
+        ByteBuffer b = ByteBuffer.wrap(data, 300, 700).slice();
+        assertEquals(FrameCodec.crc(data), FrameCodec.crc(a, b));
+        assertEquals(0, a.position());
+        assertEquals(0, b.position());
+    }
+
+    @Test
+    void matchingCrcIsAccepted() throws Exception {
+        byte[] payload = "payload".getBytes(StandardCharsets.US_ASCII);
+        assertArrayEquals(payload, LoopbackPeer.bytes(fetchFromFakePeer(payload, 0)));
+    }
+
+    @Test
+    void crcMismatchFailsTheFetch() {
+        byte[] payload = "payload".getBytes(StandardCharsets.US_ASCII);
+        IOException e = assertThrows(IOException.class, () -> fetchFromFakePeer(payload, 1));
+        assertTrue(e.getMessage().startsWith("CRC mismatch"), e.getMessage());
+    }
+
+    // A version 2 peer answering one GETCHUNK frame with a CRC that is off by crcDelta.
+    private static ByteBuffer fetchFromFakePeer(byte[] payload, int crcDelta) throws Exception {
+        try (ServerSocket ss = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            Thread fake = new Thread(() -> {
+                try (Socket s = ss.accept()) {
+                    ProtocolReader in = new ProtocolReader(s.getInputStream());
+                    OutputStream os = s.getOutputStream();
+                    in.readLine();
+                    os.write("OK|SESSION|2\nEND\n".getBytes(StandardCharsets.US_ASCII));
+                    os.flush();
+
+                    FrameCodec.Request r = new FrameCodec.Request();
+                    r.read(in);
+                    ByteBuffer h = FrameCodec.dataHeader(r.reqId, r.idx, payload.length,
+                            FrameCodec.FLAG_CRC, FrameCodec.crc(payload) + crcDelta);
+                    os.write(h.array());
+                    os.write(payload);
+                    os.flush();
+                    in.readLine();
+                } catch (IOException ignored) {
+                }
+            });
+            fake.start();
+            try (ChunkConnection c = ChunkConnection.openSession("fake", ss.getInetAddress(), ss.getLocalPort(),
+                    new BufferPool(), java.util.Map.of())) {
+                assertTrue(c.isBinary());
+                return c.fetchChunk("v", 3);
+            } finally {
+                fake.join();
+            }
+        }
+    }
+}
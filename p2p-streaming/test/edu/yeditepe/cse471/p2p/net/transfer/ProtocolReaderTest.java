@@ -0,0 +1,89 @@
+package edu.yeditepe.cse471.p2p.net.transfer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+class ProtocolReaderTest {
+
+    private static ProtocolReader reader(String s) {
+        return new ProtocolReader(new ByteArrayInputStream(s.getBytes(StandardCharsets.ISO_8859_1)));
+    }
+
+    @Test
+    void dataHeaderGivesLengthAndIndex() throws Exception {
+        ProtocolReader in = reader("DATA|7|5\nhello\nEND\nnext\n");
+        assertEquals(5, in.readDataHeader());
+        assertEquals(7, in.lastChunkIndex());
+        assertArrayEquals("hello".getBytes(StandardCharsets.US_ASCII), in.readExactly(5));
+        in.skipToEnd();
+        assertEquals("next", in.readLine());
+    }
+
+    @Test
+    void errIsConsumedUpToEnd() throws Exception {
+        ProtocolReader in = reader("ERR|MISSING\nEND\nDATA|1|0\n\nEND\n");
+        assertEquals(-1, in.readDataHeader());
+        assertEquals("ERR|MISSING", in.lastError());
+        assertEquals(0, in.readDataHeader());
+        assertEquals(1, in.lastChunkIndex());
+    }
+
+    @Test
+    void hostileHeadersAreRejected() {
+        String[] bad = {
+                "DATA|1|" + (ChunkProtocol.MAX_CHUNK_SIZE + 1) + "\n",   // larger than any chunk
+                "DATA|1|2147483647\n",
+                "DATA|1|99999999999999999999999\n",                      // would overflow a long
+                "DATA|99999999999|10\n",
+                "DATA|1|-5\n",
+                "DATA|1\n",
+                "DATA||10\n",
+                "DATA|1|\n",
+                "DATA|x|10\n",
+                "HELLO\n",
+        };
+        for (String h : bad) {
+            assertThrows(IOException.class, () -> reader(h).readDataHeader(), h);
+        }
+    }
+
+    @Test
+    void chunkForAnotherIndexIsRefused() throws Exception {
+        try (ServerSocket ss = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            Thread fake = new Thread(() -> {
+                try (Socket s = ss.accept()) {
+                    InputStream is = s.getInputStream();
+                    while (is.read() != '\n') { }
+                    OutputStream os = s.getOutputStream();
+                    os.write("DATA|2|3\nabc\nEND\n".getBytes(StandardCharsets.US_ASCII));
+                    os.flush();
+                } catch (IOException ignored) {
+                }
+            });
+            fake.start();
+            IOException e = assertThrows(IOException.class,
+                    () -> ChunkClient.fetchChunk(InetAddress.getLoopbackAddress(), ss.getLocalPort(), "v", 1));
+            assertTrue(e.getMessage().contains("asked for idx=1"), e.getMessage());
+            fake.join();
+        }
+    }
+
+    @Test
+    void endOfStreamIsNoLine() throws Exception {
+        assertNull(reader("").readLine());
+    }
+}
@@ -0,0 +1,129 @@
+package edu.yeditepe.cse471.p2p.net.transfer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import edu.yeditepe.cse471.p2p.net.LoopbackPeer;
+import edu.yeditepe.cse471.p2p.net.PeerInfo;
+import edu.yeditepe.cse471.p2p.net.catalog.LocalVideoCatalog;
+import edu.yeditepe.cse471.p2p.net.catalog.TcpControlServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SeedRegistryTest {
+
+    private static final String HASH = "ab".repeat(32);
+    private static final int CHUNK = 64 * 1024;
+    private static final int SIZE = 3 * CHUNK + 10;
+
+    @TempDir
+    Path dir;
+
+    private DownloadStore partial(byte[] data, int... chunks) throws IOException {
+        DownloadStore store = DownloadStore.create(dir.resolve("v.streaming.mp4").toFile(), SIZE, CHUNK, HASH);
+        for (int idx : chunks) {
+            int from = idx * CHUNK;
+            store.writeChunk(idx, Arrays.copyOfRange(data, from, Math.min(SIZE, from + CHUNK)));
+        }
+        return store;
+    }
+
+    @Test
+    void partialSeedKnowsWhichBytesItHas() throws Exception {
+        SeedRegistry seeds = new SeedRegistry();
+        try (DownloadStore store = partial(new byte[SIZE], 0, 1, 3)) {
+            seeds.addDownload(HASH.toUpperCase(), store, null);
+            SeedRegistry.Seed s = seeds.get(" " + HASH + " ");
+            assertFalse(s.isComplete());
+            assertTrue(s.hasBytes(0, 2 * CHUNK));
+            assertFalse(s.hasBytes(CHUNK, CHUNK + 1));
+            assertTrue(s.hasBytes(3 * CHUNK, 10));
+
+            ChunkBitmap legacy = s.haveIn(2 * CHUNK);
+            assertTrue(legacy.get(0));
+            assertFalse(legacy.get(1), "a chunk counts only when all of its bytes are there");
+            assertSame(store.getBitmap(), s.haveIn(CHUNK));
+        }
+    }
+
+    @Test
+    void listenersHearAboutReplacedAndRemovedSeeds() throws Exception {
+        SeedRegistry seeds = new SeedRegistry();
+        List<String> invalidated = new ArrayList<>();
+        seeds.addInvalidationListener(invalidated::add);
+
+        File done = dir.resolve("v.mp4.complete").toFile();
+        try (DownloadStore store = partial(new byte[SIZE], 0)) {
+            seeds.addDownload(HASH, store, null);
+            assertTrue(invalidated.isEmpty());
+            seeds.addComplete(HASH, done, SIZE, CHUNK, null);
+        }
+        assertEquals(List.of(HASH), invalidated);
+        assertTrue(seeds.get(HASH).isComplete());
+
+        seeds.removeFile(dir.resolve("other").toFile());
+        assertEquals(1, invalidated.size());
+        seeds.removeFile(done);
+        assertNull(seeds.get(HASH));
+        assertEquals(List.of(HASH, HASH), invalidated);
+    }
+
+    @Test
+    void serverSendsOnlyTheChunksOnDisk() throws Exception {
+        byte[] data = new byte[SIZE];
+        new Random(1).nextBytes(data);
+        File root = dir.resolve("root").toFile();
+        root.mkdirs();
+
+        System.setProperty("hashIndex", "");
+        LocalVideoCatalog catalog = new LocalVideoCatalog();
+        catalog.setRootFolder(root);
+        SeedRegistry seeds = new SeedRegistry();
+        int port = LoopbackPeer.freePort();
+        TcpControlServer server = new TcpControlServer(port, catalog, false, 2);
+        server.setSeedRegistry(seeds);
+        server.start();
+
+        InetAddress lo = InetAddress.getLoopbackAddress();
+        try (DownloadStore store = partial(data, 0, 1, 3);
+             ChunkConnectionPool pool = new ChunkConnectionPool()) {
+            seeds.addDownload(HASH, store, null);
+
+            ChunkClient.Meta meta = ChunkClient.fetchMeta(lo, port, HASH);
+            assertEquals(SIZE, meta.size);
+            assertEquals(CHUNK, meta.chunkSize);
+            assertEquals(List.of(2), meta.have.missing());
+
+            PeerInfo peer = new PeerInfo("seed", lo, 0, port, System.currentTimeMillis(), "");
+            ByteBuffer last = ChunkClient.fetchChunk(pool, peer, HASH, 3);
+            assertArrayEquals(Arrays.copyOfRange(data, 3 * CHUNK, SIZE), LoopbackPeer.bytes(last));
+            IOException e = assertThrows(IOException.class, () -> ChunkClient.fetchChunk(pool, peer, HASH, 2));
+            assertTrue(e.getMessage().contains("MISSING"), e.getMessage());
+
+            // Legacy 256 KB layout: chunk 0 is the whole file, so it needs chunk 2 too.
+            assertThrows(IOException.class, () -> ChunkClient.fetchChunk(lo, port, HASH, 0));
+
+            store.writeChunk(2, Arrays.copyOfRange(data, 2 * CHUNK, 3 * CHUNK));
+            assertArrayEquals(data, ChunkClient.fetchChunk(lo, port, HASH, 0));
+        } finally {
+            server.stop();
+            catalog.setRootFolder(null);
+        }
+    }
+}
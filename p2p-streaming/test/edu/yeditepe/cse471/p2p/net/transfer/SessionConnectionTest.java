@@ -0,0 +1,67 @@
+package edu.yeditepe.cse471.p2p.net.transfer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import edu.yeditepe.cse471.p2p.net.LoopbackPeer;
+import edu.yeditepe.cse471.p2p.net.PeerInfo;
+
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+class SessionConnectionTest {
+
+    private static LoopbackPeer peer;
+
+    @BeforeAll
+    static void start() throws Exception {
+        peer = new LoopbackPeer(3 * ChunkProtocol.CHUNK_SIZE + 1234);
+    }
+
+    @AfterAll
+    static void stop() {
+        peer.close();
+    }
+
+    @Test
+    void pipelinedChunksComeBackInRequestOrder() throws Exception {
+        try (ChunkConnectionPool pool = new ChunkConnectionPool()) {
+            int[] idxs = { 3, 0, 2, 1, 0 };
+            ByteBuffer[] got = ChunkClient.fetchChunks(pool, peer.info("a"), peer.hash, idxs);
+            for (int i = 0; i < idxs.length; i++) {
+                assertArrayEquals(peer.chunk(idxs[i]), LoopbackPeer.bytes(got[i]));
+            }
+        }
+    }
+
+    @Test
+    void connectionIsKeptAliveAndReused() throws Exception {
+        PeerInfo info = peer.info("b");
+        try (ChunkConnectionPool pool = new ChunkConnectionPool()) {
+            ChunkConnection c = pool.acquire(info);
+            assertTrue(c.isSession());
+            assertFalse(c.isReused());
+            assertArrayEquals(peer.chunk(1), LoopbackPeer.bytes(c.fetchChunk(peer.hash, 1)));
+            pool.release(c);
+
+            ChunkConnection again = pool.acquire(info);
+            assertTrue(again == c && again.isReused());
+            assertArrayEquals(peer.chunk(2), LoopbackPeer.bytes(again.fetchChunk(peer.hash, 2)));
+            pool.release(again);
+        }
+    }
+
+    @Test
+    void missingChunkFailsAloneAndKeepsTheSession() throws Exception {
+        try (ChunkConnectionPool pool = new ChunkConnectionPool()) {
+            ByteBuffer[] got = ChunkClient.fetchChunks(pool, peer.info("c"), peer.hash, new int[] { 99, 2 });
+            assertNull(got[0]);
+            assertArrayEquals(peer.chunk(2), LoopbackPeer.bytes(got[1]));
+        }
+    }
+}